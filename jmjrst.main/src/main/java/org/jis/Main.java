@@ -25,6 +25,7 @@ import java.awt.GraphicsDevice;
 import java.awt.GraphicsEnvironment;
 import java.awt.Rectangle;
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
 import java.util.Locale;
 
@@ -41,7 +42,10 @@ import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
 import javax.swing.text.StyledDocument;
 
+import org.jis.generator.BatchRotation;
 import org.jis.generator.Generator;
+import org.jis.generator.RenditionServer;
+import org.jis.generator.WatchDaemon;
 import org.jis.listner.ExitListner;
 import org.jis.options.Options;
 import org.jis.view.FileTree;
@@ -87,6 +91,15 @@ public class Main extends JFrame {
     setTitle(mes.getString("Main.0"));
 
     generator = new Generator(this, o.getQuality());
+    try
+    {
+      // roll back a batch rotation which did not finish
+      new BatchRotation(generator).recover();
+    }
+    catch (IOException e)
+    {
+      System.err.println(e.getMessage());
+    }
     preview = new Preview(this);
     list = new List(preview);
 
@@ -215,6 +228,10 @@ public class Main extends JFrame {
         System.out.println(mes.getString("Main.13"));
         System.out.println(mes.getString("Main.14"));
         System.out.println(mes.getString("Main.15"));
+        System.out.println(mes.getString("Main.16"));
+        System.out.println(mes.getString("Main.17"));
+        System.out.println(mes.getString("Main.18"));
+        System.out.println(mes.getString("Main.19"));
       }
 
       String input = null;
@@ -222,6 +239,10 @@ public class Main extends JFrame {
       String quality = null;
       String hmax = null;
       String vmax = null;
+      boolean recursive = false;
+      boolean watch = false;
+      int serve = -1;
+      long cacheSize = 1024;
       File fi = null;
       File fo = null;
       int q = 75;
@@ -238,6 +259,10 @@ public class Main extends JFrame {
           if (args[i].substring(0, 5).equalsIgnoreCase(mes.getString("input"))) input = args[i].substring(args[i].lastIndexOf(mes.getString("=")) + 1, args[i].length()).trim();
           if (args[i].substring(0, 6).equalsIgnoreCase(mes.getString("output"))) output = args[i].substring(args[i].lastIndexOf(mes.getString("=")) + 1, args[i].length()).trim();
           if (args[i].substring(0, 7).equalsIgnoreCase(mes.getString("quality"))) quality = args[i].substring(args[i].lastIndexOf(mes.getString("=")) + 1, args[i].length()).trim();
+          if (args[i].toLowerCase().startsWith("recursive=")) recursive = Boolean.parseBoolean(args[i].substring(args[i].indexOf('=') + 1).trim());
+          if (args[i].toLowerCase().startsWith("watch=")) watch = Boolean.parseBoolean(args[i].substring(args[i].indexOf('=') + 1).trim());
+          if (args[i].toLowerCase().startsWith("serve=")) serve = Integer.parseInt(args[i].substring(args[i].indexOf('=') + 1).trim());
+          if (args[i].toLowerCase().startsWith("cachesize=")) cacheSize = Long.parseLong(args[i].substring(args[i].indexOf('=') + 1).trim());
         }
         catch (Exception e)
         {
@@ -255,6 +280,28 @@ public class Main extends JFrame {
         System.exit(0);
       }
       else fo = new File(output);
+      if (serve >= 0)
+      {
+        // the renditions are cached in a sub folder of the output
+        try
+        {
+          final RenditionServer server = new RenditionServer(new Generator(null, Options.getInstance().getQuality()), fi, fo, cacheSize << 20, serve);
+          Runtime.getRuntime().addShutdownHook(new Thread()
+          {
+            public void run()
+            {
+              server.stop();
+            }
+          });
+          server.start();
+          System.out.println("http://localhost:" + server.getPort() + "/img/");
+        }
+        catch (IOException e)
+        {
+          System.out.println(e);
+        }
+        return;
+      }
       if (quality == null)
       {
         System.out.println(mes.getString("Main.28"));
@@ -272,7 +319,38 @@ public class Main extends JFrame {
         if (vmax != null) v = Integer.parseInt(vmax);
       }
       System.out.println(mes.getString("Main.30") + fi.toString() + mes.getString("Main.31") + fo.toString() + mes.getString("Main.32") + q); //$NON-NLS-3$
-      new Generator(null, q / 100.0F).generateText(fi, fo, h, v);
+      if (watch)
+      {
+        // one JVM for all images, the folders are separated like a class path
+        String[] folders = input.split(File.pathSeparator);
+        File[] inputs = new File[folders.length];
+        for (int i = 0; i < folders.length; i++)
+          inputs[i] = new File(folders[i].trim());
+        try
+        {
+          final WatchDaemon daemon = new WatchDaemon(new Generator(null, q / 100.0F), inputs, fo, h, v, recursive);
+          Runtime.getRuntime().addShutdownHook(new Thread()
+          {
+            public void run()
+            {
+              daemon.stop();
+              try
+              {
+                daemon.awaitWorkers();
+              }
+              catch (InterruptedException e)
+              {
+              }
+            }
+          });
+          daemon.run();
+        }
+        catch (IOException e)
+        {
+          System.out.println(e);
+        }
+      }
+      else new Generator(null, q / 100.0F).generateText(fi, fo, h, v, recursive);
     }
   }
 
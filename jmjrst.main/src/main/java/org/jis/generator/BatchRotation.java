@@ -0,0 +1,336 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jis.options.Options;
+
+/**
+ * <p>
+ * Rotates many JPEGs in parallel, one task per file on a pool with a thread
+ * per CPU. A rotated file is written to a temp file in the same directory and
+ * renamed over the original atomically. Before that the original is kept as a
+ * hard link and recorded in a journal, so a batch that did not finish can be
+ * rolled back completely with {@link #recover()}, which is done at startup.
+ * A rotation by EXIF orientation only records the old orientation. The
+ * batches of the application run one after the other, the journal of
+ * another process makes a batch fail instead of being rolled back under it.
+ * </p>
+ */
+public class BatchRotation {
+
+  /**
+   * <p>
+   * Informed about every file of the batch, called from the pool threads
+   * </p>
+   */
+  public interface Listener {
+    void rotated(File file, boolean success);
+  }
+
+  private static final String BACKUP_SUFFIX = ".rotate-backup";
+  private static final String FILE_ENTRY    = "F";
+  private static final String EXIF_ENTRY    = "E";
+
+  /**
+   * held while a batch runs
+   */
+  private static final Object BATCH         = new Object();
+
+  private final Generator     generator;
+  private final File          journal;
+  private FileChannel         journalChannel;
+
+  /**
+   * @param generator
+   *          rotates the JPEGs which can not be rotated losslessly
+   */
+  public BatchRotation(Generator generator) {
+    this(generator, new File(Options.getInstance().getStateDir(), "rotation.journal"));
+  }
+
+  /**
+   * @param generator
+   *          rotates the JPEGs which can not be rotated losslessly
+   * @param journal
+   *          the journal file of the batch
+   */
+  public BatchRotation(Generator generator, File journal) {
+    this.generator = generator;
+    this.journal = journal;
+  }
+
+  /**
+   * <p>
+   * rotate all files, after the batch which is running. A file which fails
+   * is reported as failed, the other files of the batch are kept.
+   * </p>
+   *
+   * @param files
+   *          the JPEGs
+   * @param degrees
+   *          clockwise rotation, a multiple of 90
+   * @param listener
+   *          informed about every file, may be null
+   * @return the number of rotated files
+   * @throws IOException
+   *           if the journal could not be written, or a journal of another
+   *           batch exists
+   */
+  public int rotate(List<File> files, int degrees, Listener listener) throws IOException
+  {
+    synchronized (BATCH)
+    {
+      return rotateBatch(files, degrees, listener);
+    }
+  }
+
+  private int rotateBatch(List<File> files, final int degrees, final Listener listener) throws IOException
+  {
+    final AtomicInteger rotated = new AtomicInteger();
+    // a journal left over belongs to another process or waits for recovery
+    journalChannel = FileChannel.open(journal.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    try
+    {
+      List<Future<?>> tasks = new ArrayList<Future<?>>(files.size());
+      for (final File file : files)
+      {
+        tasks.add(pool.submit(new Runnable()
+        {
+          public void run()
+          {
+            boolean success = false;
+            try
+            {
+              success = rotate(file, degrees);
+            }
+            catch (IOException e)
+            {
+              System.err.println("Error while rotating File: " + file.getAbsolutePath());
+            }
+            catch (RuntimeException e)
+            {
+              // only this file fails, the others of the batch are kept
+              System.err.println("Error while rotating File: " + file.getAbsolutePath() + ": " + e);
+            }
+            catch (Error e)
+            {
+              System.err.println("Error while rotating File: " + file.getAbsolutePath() + ": " + e);
+            }
+            if (success) rotated.incrementAndGet();
+            if (listener != null) listener.rotated(file, success);
+          }
+        }));
+      }
+
+      for (Future<?> task : tasks)
+        task.get();
+    }
+    catch (Exception e)
+    {
+      // the batch is incomplete, bring back the originals once no task moves
+      // a file or writes the journal any more
+      pool.shutdownNow();
+      awaitTermination(pool);
+      journalChannel.close();
+      recover();
+      throw new IOException("batch rotation failed", e);
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+
+    journalChannel.close();
+    commit();
+    return rotated.get();
+  }
+
+  /**
+   * wait for the tasks, even if interrupted, a task may ignore the interrupt
+   */
+  private static void awaitTermination(ExecutorService pool)
+  {
+    boolean interrupted = false;
+    while (true)
+    {
+      try
+      {
+        if (pool.awaitTermination(1, TimeUnit.SECONDS)) break;
+      }
+      catch (InterruptedException e)
+      {
+        interrupted = true;
+      }
+    }
+    if (interrupted) Thread.currentThread().interrupt();
+  }
+
+  /**
+   * <p>
+   * roll back the files of an unfinished batch
+   * </p>
+   *
+   * @return true if a journal was found
+   * @throws IOException
+   *           if the journal could not be read
+   */
+  public boolean recover() throws IOException
+  {
+    if (!journal.exists()) return false;
+
+    for (String line : Files.readAllLines(journal.toPath(), StandardCharsets.UTF_8))
+    {
+      String[] entry = line.split("\t");
+      if (entry.length != 3) continue; // torn last line
+      Path original = new File(entry[2]).toPath();
+      try
+      {
+        if (FILE_ENTRY.equals(entry[0]))
+        {
+          Path backup = new File(entry[1]).toPath();
+          if (Files.exists(backup)) Files.move(backup, original, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        else if (EXIF_ENTRY.equals(entry[0]))
+        {
+          ExifOrientation.write(original.toFile(), Integer.parseInt(entry[1]));
+        }
+      }
+      catch (IOException e)
+      {
+        System.err.println("Error while restoring File: " + original);
+      }
+    }
+    Files.delete(journal.toPath());
+    return true;
+  }
+
+  /**
+   * the batch is complete, drop the backups and the journal
+   */
+  private void commit() throws IOException
+  {
+    for (String line : Files.readAllLines(journal.toPath(), StandardCharsets.UTF_8))
+    {
+      String[] entry = line.split("\t");
+      if (entry.length == 3 && FILE_ENTRY.equals(entry[0])) Files.deleteIfExists(new File(entry[1]).toPath());
+    }
+    Files.delete(journal.toPath());
+  }
+
+  private boolean rotate(File file, int degrees) throws IOException
+  {
+    if (Options.getInstance().isExifRotation())
+    {
+      int orientation = ExifOrientation.read(file);
+      log(EXIF_ENTRY, "" + orientation, file);
+      if (ExifOrientation.rotate(file, degrees)) return true;
+    }
+
+    Path original = file.toPath();
+    Path tmp = Files.createTempFile(original.toAbsolutePath().getParent(), ".rotate", ".tmp");
+    try
+    {
+      byte[] rotated;
+      try
+      {
+        rotated = JpegTransform.rotate(Files.readAllBytes(original), degrees);
+      }
+      catch (RuntimeException e)
+      {
+        // a corrupt JPEG, the decoder may cope
+        rotated = null;
+      }
+      if (rotated != null)
+      {
+        Files.write(tmp, rotated);
+      }
+      else
+      {
+        // not losslessly, rotate a copy in its pixels
+        Files.copy(original, tmp, StandardCopyOption.REPLACE_EXISTING);
+        if (!generator.rotate(tmp.toFile(), degrees)) return false;
+      }
+      // a temp file is only readable by its owner
+      JpegTransform.copyPermissions(original, tmp);
+      try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.WRITE))
+      {
+        fc.force(true);
+      }
+
+      Path backup = original.resolveSibling("." + file.getName() + BACKUP_SUFFIX);
+      log(FILE_ENTRY, backup.toAbsolutePath().toString(), file);
+      backup(original, backup);
+      Files.move(tmp, original, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      return true;
+    }
+    finally
+    {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  /**
+   * keep the original as hard link, a copy if the file system has no links
+   */
+  private static void backup(Path original, Path backup) throws IOException
+  {
+    Files.deleteIfExists(backup);
+    try
+    {
+      Files.createLink(backup, original);
+    }
+    catch (UnsupportedOperationException | FileSystemException e)
+    {
+      // the copy must not show up half written in the journal
+      Path tmp = backup.resolveSibling(backup.getFileName() + ".tmp");
+      Files.copy(original, tmp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+      Files.move(tmp, backup, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+  }
+
+  /**
+   * append an entry to the journal, it is on disk before the file is changed
+   */
+  private void log(String type, String value, File file) throws IOException
+  {
+    ByteBuffer b = StandardCharsets.UTF_8.encode(type + "\t" + value + "\t" + file.getAbsolutePath() + "\n");
+    synchronized (journalChannel)
+    {
+      while (b.hasRemaining())
+        journalChannel.write(b);
+      journalChannel.force(false);
+    }
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * <p>
+ * Keeps one picture of every burst. Each picture gets a difference hash, 64
+ * bits telling whether the brightness grows from one cell to the next in a
+ * grid of 9 x 8 cells. The pictures are decoded with subsampling for it, a
+ * small rendition is enough. Pictures of the same folder whose hashes are
+ * within a Hamming distance and which are close in gallery order are grouped
+ * by a {@link HashIndex}, the first picture of a group is kept.
+ * </p>
+ */
+class BurstFilter {
+
+  /**
+   * about the size of a decoded picture, the hash needs no more
+   */
+  private static final int SAMPLE = 64;
+
+  /**
+   * the most places a picture of a burst may be after the one before
+   */
+  static final int         WINDOW = 8;
+
+  private BurstFilter() {
+  }
+
+  /**
+   * @param images
+   *          the pictures in gallery order
+   * @param distance
+   *          the largest Hamming distance of pictures of a burst
+   * @return the first picture of every burst, in gallery order. Pictures
+   *         which can not be read are kept.
+   * @throws InterruptedException
+   *           if interrupted while hashing
+   */
+  static File[] onePerBurst(File[] images, int distance) throws InterruptedException {
+    List<Future<Long>> hashes = new ArrayList<Future<Long>>();
+    ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    try {
+      for (final File image : images)
+        hashes.add(pool.submit(new Callable<Long>() {
+          public Long call() throws IOException {
+            return hash(image);
+          }
+        }));
+
+      // only the readable pictures are grouped, a burst lies in one folder
+      long[] hash = new long[images.length];
+      Map<File, List<Integer>> folders = new LinkedHashMap<File, List<Integer>>();
+      for (int i = 0; i < images.length; i++)
+        try {
+          hash[i] = hashes.get(i).get();
+          File folder = images[i].getAbsoluteFile().getParentFile();
+          List<Integer> pictures = folders.get(folder);
+          if (pictures == null) folders.put(folder, pictures = new ArrayList<Integer>());
+          pictures.add(i);
+        } catch (ExecutionException e) {
+          // kept
+        }
+
+      boolean[] dropped = new boolean[images.length];
+      for (List<Integer> pictures : folders.values()) {
+        long[] h = new long[pictures.size()];
+        for (int i = 0; i < h.length; i++)
+          h[i] = hash[pictures.get(i)];
+        HashIndex index = new HashIndex(h, distance, WINDOW);
+        for (int i = 0; i < h.length; i++)
+          dropped[pictures.get(i)] = index.group(i) != i;
+      }
+
+      List<File> kept = new ArrayList<File>();
+      for (int i = 0; i < images.length; i++)
+        if (!dropped[i]) kept.add(images[i]);
+      return kept.toArray(new File[kept.size()]);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * @param file
+   *          the picture
+   * @return the difference hash of the picture
+   * @throws IOException
+   *           if the picture could not be read
+   */
+  static long hash(File file) throws IOException {
+    try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
+      Iterator<ImageReader> readers = iis == null ? null : ImageIO.getImageReaders(iis);
+      if (readers == null || !readers.hasNext()) throw new IOException("can not read " + file);
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(iis, true, true);
+        ImageReadParam param = reader.getDefaultReadParam();
+        int step = Math.max(1, Math.min(reader.getWidth(0), reader.getHeight(0)) / SAMPLE);
+        param.setSourceSubsampling(step, step, 0, 0);
+        return hash(reader.read(0, param));
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  /**
+   * @param image
+   *          the picture, small enough to be read pixel by pixel
+   * @return the difference hash of the picture
+   */
+  static long hash(BufferedImage image) {
+    int w = image.getWidth();
+    int h = image.getHeight();
+    long[] sum = new long[9 * 8];
+    int[] count = new int[9 * 8];
+    int[] row = new int[w];
+    for (int y = 0; y < h; y++) {
+      image.getRGB(0, y, w, 1, row, 0, w);
+      int cy = y * 8 / h;
+      for (int x = 0; x < w; x++) {
+        int p = row[x];
+        int c = cy * 9 + x * 9 / w;
+        // luma in integer weights
+        sum[c] += 299 * (p >> 16 & 0xFF) + 587 * (p >> 8 & 0xFF) + 114 * (p & 0xFF);
+        count[c]++;
+      }
+    }
+
+    long hash = 0;
+    for (int y = 0; y < 8; y++)
+      for (int x = 0; x < 8; x++) {
+        int c = y * 9 + x;
+        // compare the means without a division
+        boolean brighter = sum[c + 1] * Math.max(1, count[c]) > sum[c] * Math.max(1, count[c + 1]);
+        hash = hash << 1 | (brighter ? 1 : 0);
+      }
+    return hash;
+  }
+}
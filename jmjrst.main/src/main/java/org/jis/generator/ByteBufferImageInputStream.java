@@ -0,0 +1,145 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * <p>
+ * An ImageInputStream reading from a ByteBuffer holding the bytes of a file
+ * read at once. The decoder copies straight out of
+ * the buffer, there is no cache and no system call per refill as with the
+ * streams of ImageIO.createImageInputStream.
+ * </p>
+ */
+public class ByteBufferImageInputStream extends ImageInputStreamImpl {
+
+  private ByteBuffer buffer;
+
+  /**
+   * bytes read with another value than in the buffer
+   */
+  private long[]     replaced = new long[0];
+  private byte[]     values   = new byte[0];
+
+  /**
+   * @param buffer
+   *          the image from position 0 to the limit
+   */
+  public ByteBufferImageInputStream(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  /**
+   * @param data
+   *          the bytes of the image
+   */
+  public ByteBufferImageInputStream(byte[] data) {
+    this(ByteBuffer.wrap(data));
+  }
+
+  /**
+   * <p>
+   * read the file into memory, files larger than the prefetch of the Pipeline
+   * are opened the usual way
+   * </p>
+   *
+   * @param file
+   *          the image
+   * @return the stream, null if the file could not be opened by ImageIO
+   * @throws IOException
+   *           if the file could not be read
+   */
+  public static ImageInputStream open(File file) throws IOException {
+    if (file.length() > Pipeline.PREFETCH_BYTES || !file.isFile())
+      return ImageIO.createImageInputStream(file);
+
+    return new ByteBufferImageInputStream(Files.readAllBytes(file.toPath()));
+  }
+
+  /**
+   * <p>
+   * read the byte at the position as the value, the buffer itself is not
+   * changed, it may be read-only or shared with the caller
+   * </p>
+   *
+   * @param position
+   *          position of the byte
+   * @param value
+   *          the value read
+   */
+  void replace(long position, byte value) {
+    replaced = Arrays.copyOf(replaced, replaced.length + 1);
+    values = Arrays.copyOf(values, values.length + 1);
+    replaced[replaced.length - 1] = position;
+    values[values.length - 1] = value;
+  }
+
+  public int read() throws IOException {
+    checkClosed();
+    bitOffset = 0;
+    if (streamPos >= buffer.limit()) return -1;
+    for (int i = 0; i < replaced.length; i++)
+      if (replaced[i] == streamPos) {
+        streamPos++;
+        return values[i] & 0xFF;
+      }
+    return buffer.get((int) streamPos++) & 0xFF;
+  }
+
+  public int read(byte[] b, int off, int len) throws IOException {
+    checkClosed();
+    if (off < 0 || len < 0 || off + len > b.length || off + len < 0)
+      throw new IndexOutOfBoundsException();
+    bitOffset = 0;
+    if (len == 0) return 0;
+
+    long remaining = buffer.limit() - streamPos;
+    if (remaining <= 0) return -1;
+    int n = (int) Math.min(len, remaining);
+    buffer.get((int) streamPos, b, off, n);
+    for (int i = 0; i < replaced.length; i++)
+      if (replaced[i] >= streamPos && replaced[i] < streamPos + n)
+        b[off + (int) (replaced[i] - streamPos)] = values[i];
+    streamPos += n;
+    return n;
+  }
+
+  public long length() {
+    return buffer == null ? -1 : buffer.limit();
+  }
+
+  public boolean isCached() {
+    return true;
+  }
+
+  public boolean isCachedMemory() {
+    return true;
+  }
+
+  public void close() throws IOException {
+    super.close();
+    buffer = null;
+  }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_Profile;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * Converts the pixels of an image with an embedded RGB profile to sRGB, and
+ * optionally to linear light for the resamplers. Only matrix/TRC profiles are
+ * converted, as used by cameras for Adobe RGB, Display P3 and the like: three
+ * tone curves to linear light, a 3x3 matrix to linear sRGB and the sRGB curve.
+ * The curves are sampled into lookup tables once per profile, the transforms
+ * are cached by a checksum of the profile, so a batch from the same camera
+ * builds them once. The reader is kept from converting the pixels itself with
+ * a ColorConvertOp per image.
+ * </p>
+ */
+class ColorTransform {
+
+  /**
+   * steps of the table from linear light to sRGB
+   */
+  private static final int                          ENCODE_STEPS = 1 << 14;
+
+  private static final float[]                      SRGB_DECODE  = new float[256];
+  private static final float[]                      SRGB_ENCODE  = new float[ENCODE_STEPS + 1];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      double v = i / 255.0;
+      SRGB_DECODE[i] = (float) (v <= 0.04045 ? v / 12.92 : Math.pow((v + 0.055) / 1.055, 2.4));
+    }
+    for (int i = 0; i <= ENCODE_STEPS; i++) {
+      double v = (double) i / ENCODE_STEPS;
+      SRGB_ENCODE[i] = (float) (255 * (v <= 0.0031308 ? v * 12.92
+          : 1.055 * Math.pow(v, 1 / 2.4) - 0.055));
+    }
+  }
+
+  /**
+   * sRGB pixels as they are
+   */
+  static final ColorTransform                       IDENTITY     = new ColorTransform(null,
+                                                                     null, false, false);
+
+  /**
+   * sRGB pixels to linear light
+   */
+  static final ColorTransform                       SRGB_LINEAR  = new ColorTransform(srgbTable(),
+                                                                     null, true, false);
+
+  private static final int                          CACHED       = 64;
+
+  private static final Map<String, ColorTransform[]> cache        = new ConcurrentHashMap<String, ColorTransform[]>();
+
+  /**
+   * linear light of the r, g and b values, 256 each
+   */
+  private final float[]                             table;
+
+  /**
+   * linear light of the profile to linear sRGB, row by row, null if the
+   * profile has the sRGB primaries
+   */
+  private final float[]                             matrix;
+  private final boolean                             linear;
+  private final boolean                             raw;
+
+  private ColorTransform(float[] table, float[] matrix, boolean linear, boolean raw) {
+    this.table = table;
+    this.matrix = matrix;
+    this.linear = linear;
+    this.raw = raw;
+  }
+
+  /**
+   * @param icc
+   *          the embedded profile, null for none
+   * @param linear
+   *          true to convert to linear light, for the resamplers
+   * @return the transform of the profile, of sRGB if the profile is no
+   *         matrix/TRC RGB profile
+   */
+  static ColorTransform get(byte[] icc, boolean linear) {
+    ColorTransform fallback = linear ? SRGB_LINEAR : IDENTITY;
+    if (icc == null) return fallback;
+
+    CRC32 crc = new CRC32();
+    crc.update(icc);
+    String key = crc.getValue() + "_" + icc.length;
+    ColorTransform[] transforms = cache.get(key);
+    if (transforms == null) {
+      transforms = create(icc);
+      if (cache.size() >= CACHED) cache.clear();
+      cache.put(key, transforms);
+    }
+    if (transforms.length == 0) return fallback;
+    return transforms[linear ? 1 : 0];
+  }
+
+  /**
+   * @return true if the pixels have to be decoded without the profile
+   */
+  boolean isRaw() {
+    return raw;
+  }
+
+  /**
+   * @return true if the values are linear light
+   */
+  boolean isLinear() {
+    return linear;
+  }
+
+  /**
+   * @return true if the pixels are left as they are
+   */
+  boolean isIdentity() {
+    return table == null;
+  }
+
+  /**
+   * @param p
+   *          a pixel, 0xRRGGBB
+   * @param rgb
+   *          receives r, g and b from 0 to 255, linear light or sRGB
+   */
+  void convert(int p, float[] rgb) {
+    float r = table[p >> 16 & 0xFF];
+    float g = table[256 + (p >> 8 & 0xFF)];
+    float b = table[512 + (p & 0xFF)];
+    if (matrix != null) {
+      float lr = r;
+      float lg = g;
+      r = matrix[0] * lr + matrix[1] * lg + matrix[2] * b;
+      g = matrix[3] * lr + matrix[4] * lg + matrix[5] * b;
+      b = matrix[6] * lr + matrix[7] * lg + matrix[8] * b;
+    }
+    if (linear) {
+      rgb[0] = r * 255;
+      rgb[1] = g * 255;
+      rgb[2] = b * 255;
+    } else {
+      rgb[0] = encode(r);
+      rgb[1] = encode(g);
+      rgb[2] = encode(b);
+    }
+  }
+
+  /**
+   * @param linear
+   *          linear light from 0 to 1
+   * @return the sRGB value from 0 to 255
+   */
+  static float encode(float linear) {
+    if (!(linear > 0)) return 0;
+    if (linear >= 1) return 255;
+    return SRGB_ENCODE[(int) (linear * ENCODE_STEPS + 0.5f)];
+  }
+
+  /**
+   * <p>
+   * convert the pixels of a TYPE_INT_RGB image in place, for images which are
+   * not scaled by a resampler
+   * </p>
+   *
+   * @param image
+   *          the image
+   */
+  void apply(BufferedImage image) {
+    if (isIdentity() || linear || image.getType() != BufferedImage.TYPE_INT_RGB) return;
+    WritableRaster raster = image.getRaster();
+    int w = image.getWidth();
+    int[] row = new int[w];
+    float[] rgb = new float[3];
+    for (int y = 0; y < image.getHeight(); y++) {
+      raster.getDataElements(0, y, w, 1, row);
+      for (int x = 0; x < w; x++) {
+        convert(row[x], rgb);
+        row[x] = Math.round(rgb[0]) << 16 | Math.round(rgb[1]) << 8 | Math.round(rgb[2]);
+      }
+      raster.setDataElements(0, y, w, 1, row);
+    }
+  }
+
+  /**
+   * @return the transform to sRGB and to linear light, empty if the profile
+   *         is not supported
+   */
+  private static ColorTransform[] create(byte[] icc) {
+    try {
+      ICC_Profile profile = ICC_Profile.getInstance(icc);
+      if (profile.getColorSpaceType() != ColorSpace.TYPE_RGB
+          || profile.getPCSType() != ColorSpace.TYPE_XYZ) return new ColorTransform[0];
+      float[] table = new float[768];
+      int[] trc = {
+          ICC_Profile.icSigRedTRCTag, ICC_Profile.icSigGreenTRCTag, ICC_Profile.icSigBlueTRCTag
+      };
+      for (int c = 0; c < 3; c++)
+        if (!curve(profile.getData(trc[c]), table, c * 256)) return new ColorTransform[0];
+      double[] primaries = primaries(profile);
+      if (primaries == null) return new ColorTransform[0];
+
+      double[] srgb = primaries(ICC_Profile.getInstance(ColorSpace.CS_sRGB));
+      double[] m = multiply(invert(srgb), primaries);
+      float[] matrix = new float[9];
+      boolean identity = true;
+      for (int i = 0; i < 9; i++) {
+        matrix[i] = (float) m[i];
+        identity &= Math.abs(m[i] - (i % 4 == 0 ? 1 : 0)) < 0.002;
+      }
+      if (identity) matrix = null;
+      for (int i = 0; i < 768; i++)
+        identity &= Math.abs(table[i] - SRGB_DECODE[i % 256]) < 0.002;
+
+      // an sRGB profile needs no conversion, but the reader would do it
+      return new ColorTransform[] {
+          identity ? new ColorTransform(null, null, false, true)
+              : new ColorTransform(table, matrix, false, true),
+          new ColorTransform(table, matrix, true, true)
+      };
+    } catch (RuntimeException e) {
+      // a broken profile
+      return new ColorTransform[0];
+    }
+  }
+
+  private static float[] srgbTable() {
+    float[] table = new float[768];
+    for (int i = 0; i < 768; i++)
+      table[i] = SRGB_DECODE[i % 256];
+    return table;
+  }
+
+  /**
+   * <p>
+   * sample a curv or para tone curve into the table
+   * </p>
+   *
+   * @return false if the curve has another type
+   */
+  private static boolean curve(byte[] data, float[] table, int offset) {
+    if (data == null || data.length < 12) return false;
+    ByteBuffer b = ByteBuffer.wrap(data);
+    int type = b.getInt(0);
+    if (type == 0x63757276) { // curv
+      int n = b.getInt(8);
+      for (int i = 0; i < 256; i++) {
+        double x = i / 255.0;
+        double y;
+        if (n == 0) y = x;
+        else if (n == 1) y = Math.pow(x, (b.getShort(12) & 0xFFFF) / 256.0);
+        else {
+          double pos = x * (n - 1);
+          int j = Math.min((int) pos, n - 2);
+          double lo = b.getShort(12 + 2 * j) & 0xFFFF;
+          double hi = b.getShort(14 + 2 * j) & 0xFFFF;
+          y = (lo + (hi - lo) * (pos - j)) / 65535;
+        }
+        table[offset + i] = (float) y;
+      }
+      return true;
+    }
+    if (type == 0x70617261) { // para
+      int function = b.getShort(8);
+      int[] counts = {
+          1, 3, 4, 5, 7
+      };
+      if (function < 0 || function >= counts.length) return false;
+      double[] p = new double[7];
+      for (int i = 0; i < counts[function]; i++)
+        p[i] = b.getInt(12 + 4 * i) / 65536.0;
+      double g = p[0], a = p[1], bb = p[2], c = p[3], d = p[4], e = p[5], f = p[6];
+      for (int i = 0; i < 256; i++) {
+        double x = i / 255.0;
+        double y;
+        switch (function) {
+        case 0:
+          y = Math.pow(x, g);
+          break;
+        case 1:
+          y = x >= -bb / a ? Math.pow(a * x + bb, g) : 0;
+          break;
+        case 2:
+          y = x >= -bb / a ? Math.pow(a * x + bb, g) + c : c;
+          break;
+        case 3:
+          y = x >= d ? Math.pow(a * x + bb, g) : c * x;
+          break;
+        default:
+          y = x >= d ? Math.pow(a * x + bb, g) + e : c * x + f;
+          break;
+        }
+        table[offset + i] = (float) Math.max(0, Math.min(1, y));
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return the XYZ of the red, green and blue colorants as columns, null if
+   *         the profile has none
+   */
+  private static double[] primaries(ICC_Profile profile) {
+    int[] tags = {
+        ICC_Profile.icSigRedColorantTag, ICC_Profile.icSigGreenColorantTag,
+        ICC_Profile.icSigBlueColorantTag
+    };
+    double[] m = new double[9];
+    for (int c = 0; c < 3; c++) {
+      byte[] data = profile.getData(tags[c]);
+      if (data == null || data.length < 20) return null;
+      ByteBuffer b = ByteBuffer.wrap(data);
+      for (int i = 0; i < 3; i++)
+        m[i * 3 + c] = b.getInt(8 + 4 * i) / 65536.0;
+    }
+    return m;
+  }
+
+  private static double[] multiply(double[] a, double[] b) {
+    double[] m = new double[9];
+    for (int i = 0; i < 3; i++)
+      for (int j = 0; j < 3; j++)
+        for (int k = 0; k < 3; k++)
+          m[i * 3 + j] += a[i * 3 + k] * b[k * 3 + j];
+    return m;
+  }
+
+  private static double[] invert(double[] m) {
+    double det = m[0] * (m[4] * m[8] - m[5] * m[7]) - m[1] * (m[3] * m[8] - m[5] * m[6])
+        + m[2] * (m[3] * m[7] - m[4] * m[6]);
+    return new double[] {
+        (m[4] * m[8] - m[5] * m[7]) / det, (m[2] * m[7] - m[1] * m[8]) / det,
+        (m[1] * m[5] - m[2] * m[4]) / det, (m[5] * m[6] - m[3] * m[8]) / det,
+        (m[0] * m[8] - m[2] * m[6]) / det, (m[2] * m[3] - m[0] * m[5]) / det,
+        (m[3] * m[7] - m[4] * m[6]) / det, (m[1] * m[6] - m[0] * m[7]) / det,
+        (m[0] * m[4] - m[1] * m[3]) / det
+    };
+  }
+}
@@ -15,52 +15,71 @@
  */
 package org.jis.generator;
 
-import java.io.File;
 import java.io.IOException;
-import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.stream.ImageInputStream;
 
 import org.jis.Main;
-import org.jis.options.Options;
 
 /**
  * @author <a href="http://www.jgeppert.com">Johannes Geppert</a>
  * 
  *         <p>
- *         The class representing the Consumer side
+ *         The class representing the Consumer side, the codec stage of the
+ *         {@link Pipeline}. It decodes, scales and encodes the images in
+ *         memory, reading and writing the files is left to the I/O threads.
  *         </p>
  */
 public class Consumer implements Runnable {
-  protected Producer   producer;
-  private Main         m;
-  private boolean      zippen;
-  private Vector<File> zipIt;
+  protected Pipeline pipeline;
+  private Main       m;
 
-  public Consumer(Producer producer, Main m, boolean zippen, Vector<File> zipIt) {
+  public Consumer(Pipeline pipeline, Main m) {
     super();
-    this.producer = producer;
+    this.pipeline = pipeline;
     this.m = m;
-    this.zippen = zippen;
-    this.zipIt = zipIt;
   }
 
   public void run()
   {
     try
     {
-      while (producer.isDone() == false || producer.queue.size() > 0)
+      while (pipeline.isReadDone() == false || pipeline.read.size() > 0)
       {
 
-        if (m.p_monitor.isCanceled()) break;
+        if (pipeline.isCanceled()) break;
 
-        Element obj = producer.queue.take();
+        // the last job may be taken by another consumer meanwhile
+        Pipeline.Job job = pipeline.read.poll(100, TimeUnit.MILLISECONDS);
+        if (job == null) continue;
+        long start = System.nanoTime();
         try
         {
-          process(obj);
+          process(job);
         }
         catch (IOException e)
         {
           e.printStackTrace();
+          job.data = null;
+        }
+        catch (RuntimeException e)
+        {
+          e.printStackTrace();
+          job.data = null;
         }
+        // the sprite sheet is written with its last image
+        if (job.element.sprite != null) try
+        {
+          job.element.sprite.done();
+        }
+        catch (IOException e)
+        {
+          e.printStackTrace();
+          job.data = null;
+        }
+        pipeline.scaled(System.nanoTime() - start);
+        if (!pipeline.put(pipeline.encoded, job)) break;
       }
     }
     catch (InterruptedException ex)
@@ -69,58 +88,33 @@ public class Consumer implements Runnable {
     }
   }
 
-  void process(Element obj) throws IOException
+  void process(Pipeline.Job job) throws IOException
   {
+    Element obj = job.element;
     m.p_monitor.setNote("Aktuelles Bild: " + obj.file.getName());
-    try
-    {
-      m.jOutputDoc.insertString(m.jOutputDoc.getLength(), m.mes.getString("Generator.10"), m.outputAtr);
-      m.jOutputDoc.insertString(m.jOutputDoc.getLength(), obj.file.getName(), m.fileAtr);
-      m.jOutputDoc.insertString(m.jOutputDoc.getLength(), "\t . . . ", m.outputAtr);
-      m.text.setCaretPosition(m.jOutputDoc.getLength());
-    }
-    catch (Exception e)
-    {
-      System.out.print(m.mes.getString("Generator.10") + obj.file.toString() + "\t . . . ");
-    }
 
-    boolean error = false;
-
-    File out = new File(obj.outDir, producer.praefix + obj.file.getName());
-    out = m.generator.generateImage(obj.file, obj.outDir, true, obj.width, obj.height, producer.praefix);
-
-    // add file to the Files for ZIP
-    if (zippen) zipIt.addElement(out);
-
-    try
+    // an image scaled by another build meanwhile is scaled only once
+    if (obj.ladder == null && obj.sprite == null)
     {
-      m.jOutputDoc.insertString(m.jOutputDoc.getLength(), ". . .  ", m.outputAtr);
-      m.text.setCaretPosition(m.jOutputDoc.getLength());
-    }
-    catch (Exception e)
-    {
-      System.out.print(". . .  ");
+      job.data = m.generator.generateImage(obj.file, job.data, false, obj.width, obj.height, 0);
+      return;
     }
 
-    if (error == false) try
-    {
-      m.jOutputDoc.insertString(m.jOutputDoc.getLength(), m.mes.getString("Generator.40") + Options.ls, m.readyAtr);
-      m.text.setCaretPosition(m.jOutputDoc.getLength());
-    }
-    catch (Exception e)
-    {
-      System.out.println(m.mes.getString("Generator.40"));
-    }
-    else try
+    // files too large to be prefetched are read the usual way
+    ImageInputStream iis = job.data != null ? new ByteBufferImageInputStream(job.data) : ByteBufferImageInputStream.open(obj.file);
+    if (iis == null) throw new IOException("can not read " + obj.file);
+    try
     {
-      m.jOutputDoc.insertString(m.jOutputDoc.getLength(), m.mes.getString("Generator.42") + Options.ls, m.errorAtr);
-      m.text.setCaretPosition(m.jOutputDoc.getLength());
+      if (obj.ladder != null)
+      {
+        job.ladder = m.generator.generateLadder(iis, obj.ladder, obj.sizes());
+        job.data = job.ladder == null ? null : job.ladder[0];
+      }
+      else job.data = m.generator.generateImage(iis, false, obj.width, obj.height, obj.sprite, obj.index);
     }
-    catch (Exception e)
+    finally
     {
-      System.out.println(m.mes.getString("Generator.42"));
+      iis.close();
     }
-
-    producer.incrementIndex();
   }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+/**
+ * <p>
+ * A fingerprint of the content of a source image, equal for copies of the
+ * same file. Two CRCs with different polynomials are computed in one pass,
+ * both run on the CRC instructions of the CPU, so hashing is bound by the
+ * memory bandwidth. Together with the length they give 64 bits, enough to
+ * find the candidates for copies in a photo collection, but two linear
+ * checksums can collide, so equal files are compared byte by byte before
+ * one stands in for the other. Files which are not in memory are read in
+ * chunks.
+ * </p>
+ */
+class ContentHash {
+
+  /**
+   * read and hashed at once
+   */
+  private static final int  CHUNK = 1 << 20;
+
+  private final CRC32       crc32  = new CRC32();
+  private final CRC32C      crc32c = new CRC32C();
+  private long              length;
+
+  private ContentHash() {
+  }
+
+  private void update(ByteBuffer buffer) {
+    length += buffer.remaining();
+    crc32.update(buffer.duplicate());
+    crc32c.update(buffer);
+  }
+
+  private String value() {
+    return Long.toHexString(crc32c.getValue() << 32 | crc32.getValue()) + "_" + length;
+  }
+
+  /**
+   * @param data
+   *          the content of the file
+   * @return the fingerprint of the content
+   */
+  static String of(byte[] data) {
+    ContentHash hash = new ContentHash();
+    hash.update(ByteBuffer.wrap(data));
+    return hash.value();
+  }
+
+  /**
+   * @param file
+   *          the file, read in chunks
+   * @return the fingerprint of the content
+   * @throws IOException
+   *           if the file could not be read
+   */
+  static String of(File file) throws IOException {
+    ContentHash hash = new ContentHash();
+    ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK);
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      while (channel.read(buffer) >= 0) {
+        buffer.flip();
+        hash.update(buffer);
+        buffer.clear();
+      }
+    }
+    return hash.value();
+  }
+}
@@ -8,6 +8,13 @@ public class Element {
   public final int width;
   public final int height;
   public final File outDir;
+  final SpriteSheet sprite;
+  final int[] ladder;
+  /**
+   * images of a fixed size scaled along with the ladder, each into its own
+   * directory
+   */
+  final Element[] sizes;
   
   
   
@@ -18,5 +25,60 @@ public class Element {
     this.width = width;
     this.height = height;
     this.outDir = outDir;
+    this.sprite = null;
+    this.ladder = null;
+    this.sizes = null;
+  }
+
+  /**
+   * a small image drawn into the sprite sheet of its page
+   */
+  Element(int index, File file, int width, int height, SpriteSheet sprite) {
+    this.file = file;
+    this.index = index;
+    this.width = width;
+    this.height = height;
+    this.outDir = sprite.file.getParentFile();
+    this.sprite = sprite;
+    this.ladder = null;
+    this.sizes = null;
+  }
+
+  /**
+   * an image scaled to every width of a ladder, each width into its own
+   * directory, and to the sizes from the same decode
+   */
+  Element(int index, File file, int[] ladder, Element[] sizes, File outDir) {
+    this.file = file;
+    this.index = index;
+    this.width = ladder[0];
+    this.height = 0;
+    this.outDir = outDir;
+    this.sprite = null;
+    this.ladder = ladder;
+    this.sizes = sizes;
+  }
+
+  /**
+   * @return width and height of the sizes
+   */
+  int[][] sizes() {
+    int[][] sizes = new int[this.sizes.length][];
+    for (int i = 0; i < sizes.length; i++)
+      sizes[i] = new int[] {
+        this.sizes[i].width, this.sizes[i].height
+      };
+    return sizes;
+  }
+
+  /**
+   * @return the directory of the images scaled to the width
+   */
+  static File ladderDir(File outDir, int width) {
+    return new File(outDir, ladderName(width));
+  }
+
+  static String ladderName(int width) {
+    return "w" + width;
   }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jis.options.Options;
+
+/**
+ * <p>
+ * The registry of the output formats. A new format only needs an
+ * {@link ImageEncoder} registered under its name.
+ * </p>
+ */
+public class Encoders {
+
+  public static final String                     JPEG     = "jpg";
+  public static final String                     PNG      = "png";
+
+  private static final Map<String, ImageEncoder> encoders = new ConcurrentHashMap<String, ImageEncoder>();
+
+  static {
+    register(JPEG, new JpegEncoder());
+    register(PNG, new PngEncoder());
+  }
+
+  private Encoders() {
+  }
+
+  /**
+   * @param format
+   *          name of the format, as stored in the Options
+   * @param encoder
+   *          the encoder for the format
+   */
+  public static void register(String format, ImageEncoder encoder) {
+    encoders.put(format, encoder);
+  }
+
+  /**
+   * @param format
+   *          name of the format
+   * @return the encoder of the format, the JPEG encoder for unknown formats
+   */
+  public static ImageEncoder get(String format) {
+    ImageEncoder encoder = format == null ? null : encoders.get(format);
+    return encoder != null ? encoder : encoders.get(JPEG);
+  }
+
+  /**
+   * @return the encoder of the format chosen in the Options
+   */
+  public static ImageEncoder getDefault() {
+    return get(Options.getInstance().getOutputFormat());
+  }
+
+  /**
+   * @param name
+   *          file name of the source image
+   * @return file name of the scaled image in the format of the Options
+   */
+  public static String outputName(String name) {
+    return outputName(name, getDefault());
+  }
+
+  /**
+   * @param name
+   *          file name of the source image
+   * @param encoder
+   *          encoder of the scaled image
+   * @return the name with the suffix of the format if it has the suffix of
+   *         another format, other names are kept
+   */
+  public static String outputName(String name, ImageEncoder encoder) {
+    int dot = name.lastIndexOf('.');
+    if (dot < 0) return name;
+    String suffix = name.substring(dot + 1);
+    for (String s : encoder.getSuffixes())
+      if (s.equalsIgnoreCase(suffix)) return name;
+
+    for (ImageEncoder other : encoders.values())
+      for (String s : other.getSuffixes())
+        if (s.equalsIgnoreCase(suffix))
+          return name.substring(0, dot) + "." + encoder.getSuffixes()[0];
+    return name;
+  }
+}
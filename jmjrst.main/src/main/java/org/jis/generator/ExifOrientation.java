@@ -0,0 +1,355 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+
+import org.w3c.dom.NodeList;
+
+/**
+ * <p>
+ * Reads and patches the EXIF Orientation tag of a JPEG. A rotation only
+ * rewrites the two bytes of the tag through a FileChannel, the image data is
+ * not touched. The tag can only be changed in place, a JPEG without it has to
+ * be rotated the usual way. The tag can also be read and patched in the
+ * metadata of a JPEG decoded from memory.
+ * </p>
+ */
+public class ExifOrientation {
+
+  /**
+   * the image is stored upright
+   */
+  public static final int     NORMAL          = 1;
+
+  private static final int    TAG_ORIENTATION = 0x0112;
+  private static final int    TYPE_SHORT      = 3;
+
+  /**
+   * the orientations after a clockwise rotation by 90 degrees, indexed by the
+   * orientation before
+   */
+  private static final int[]  ROTATE_90       = {
+      0, 6, 7, 8, 5, 2, 3, 4, 1
+  };
+
+  private static final byte[] EXIF_HEADER     = {
+      'E', 'x', 'i', 'f', 0, 0
+  };
+
+  private static final String JPEG_METADATA   = "javax_imageio_jpeg_image_1.0";
+
+  /*
+   * <p> Position and byte order of the orientation value in the file </p>
+   */
+  private static class Location {
+    long      position;
+    ByteOrder order;
+    int       value;
+  }
+
+  private ExifOrientation() {
+  }
+
+  /**
+   * @param file
+   *          the JPEG
+   * @return the orientation of the JPEG, NORMAL if it has no orientation tag
+   * @throws IOException
+   *           if the file could not be read
+   */
+  public static int read(File file) throws IOException {
+    try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      Location l = locate(fc);
+      return l == null ? NORMAL : l.value;
+    }
+  }
+
+  /**
+   * @param metadata
+   *          the metadata of a decoded image, may be null
+   * @return the orientation of the image, NORMAL if the metadata has no
+   *         orientation tag
+   */
+  public static int read(IIOMetadata metadata) {
+    IIOMetadataNode tree = tree(metadata);
+    IIOMetadataNode exif = tree == null ? null : exif(tree);
+    if (exif == null) return NORMAL;
+    return parse(ByteBuffer.wrap((byte[]) exif.getUserObject())).value;
+  }
+
+  /**
+   * @param segment
+   *          the payload of an APP1 segment
+   * @return the orientation of the image, NORMAL if the segment has no
+   *         orientation tag
+   */
+  static int read(ByteBuffer segment) {
+    Location l = parse(segment);
+    return l == null ? NORMAL : l.value;
+  }
+
+  /**
+   * <p>
+   * overwrite the orientation tag in the metadata, e.g. before it is copied to
+   * a scaled image
+   * </p>
+   *
+   * @param metadata
+   *          the metadata of a decoded JPEG
+   * @param orientation
+   *          the new orientation, 1 to 8
+   * @return false if the metadata has no orientation tag
+   */
+  public static boolean write(IIOMetadata metadata, int orientation) {
+    IIOMetadataNode tree = tree(metadata);
+    IIOMetadataNode exif = tree == null ? null : exif(tree);
+    if (exif == null) return false;
+
+    byte[] data = ((byte[]) exif.getUserObject()).clone();
+    Location l = parse(ByteBuffer.wrap(data));
+    ByteBuffer.wrap(data).order(l.order).putShort((int) l.position, (short) orientation);
+    exif.setUserObject(data);
+    try {
+      metadata.setFromTree(JPEG_METADATA, tree);
+      return true;
+    } catch (IIOInvalidTreeException e) {
+      return false;
+    }
+  }
+
+  /**
+   * <p>
+   * overwrite the orientation tag in place
+   * </p>
+   *
+   * @param file
+   *          the JPEG
+   * @param orientation
+   *          the new orientation, 1 to 8
+   * @return false if the JPEG has no orientation tag
+   * @throws IOException
+   *           if the file could not be read or written
+   */
+  public static boolean write(File file, int orientation) throws IOException {
+    try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      Location l = locate(fc);
+      if (l == null) return false;
+      if (l.value != orientation) patch(fc, l, orientation);
+      return true;
+    }
+  }
+
+  /**
+   * <p>
+   * rotate the JPEG by changing its orientation tag
+   * </p>
+   *
+   * @param file
+   *          the JPEG
+   * @param degrees
+   *          clockwise rotation, a multiple of 90
+   * @return false if the JPEG has no orientation tag
+   * @throws IOException
+   *           if the file could not be read or written
+   */
+  public static boolean rotate(File file, int degrees) throws IOException {
+    try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      Location l = locate(fc);
+      if (l == null) return false;
+      int orientation = rotate(l.value, degrees);
+      if (orientation != l.value) patch(fc, l, orientation);
+      return true;
+    }
+  }
+
+  /**
+   * @param orientation
+   *          the orientation, 1 to 8
+   * @param degrees
+   *          clockwise rotation, a multiple of 90
+   * @return the orientation of the rotated image
+   */
+  public static int rotate(int orientation, int degrees) {
+    if (degrees % 90 != 0) throw new IllegalArgumentException("degree must be a multiple of 90!");
+    int steps = ((degrees / 90) % 4 + 4) % 4;
+    for (int i = 0; i < steps; i++)
+      orientation = ROTATE_90[orientation];
+    return orientation;
+  }
+
+  /**
+   * <p>
+   * turn a decoded image upright
+   * </p>
+   *
+   * @param image
+   *          the image as stored in the file
+   * @param orientation
+   *          the orientation of the file
+   * @return the image as it should be displayed
+   */
+  public static BufferedImage apply(BufferedImage image, int orientation) {
+    int w = image.getWidth();
+    int h = image.getHeight();
+    AffineTransform t;
+
+    switch (orientation) {
+    case 2:
+      t = new AffineTransform(-1, 0, 0, 1, w, 0);
+      break;
+    case 3:
+      t = new AffineTransform(-1, 0, 0, -1, w, h);
+      break;
+    case 4:
+      t = new AffineTransform(1, 0, 0, -1, 0, h);
+      break;
+    case 5:
+      t = new AffineTransform(0, 1, 1, 0, 0, 0);
+      break;
+    case 6:
+      t = new AffineTransform(0, 1, -1, 0, h, 0);
+      break;
+    case 7:
+      t = new AffineTransform(0, -1, -1, 0, h, w);
+      break;
+    case 8:
+      t = new AffineTransform(0, -1, 1, 0, 0, w);
+      break;
+    default:
+      return image;
+    }
+
+    boolean swap = orientation >= 5;
+    int type = image.getType() == BufferedImage.TYPE_CUSTOM ? BufferedImage.TYPE_INT_RGB : image
+        .getType();
+    BufferedImage returnImage = new BufferedImage(swap ? h : w, swap ? w : h, type);
+    Graphics2D g = returnImage.createGraphics();
+    g.drawImage(image, t, null);
+    g.dispose();
+    return returnImage;
+  }
+
+  private static void patch(FileChannel fc, Location l, int orientation) throws IOException {
+    ByteBuffer b = ByteBuffer.allocate(2).order(l.order);
+    b.putShort(0, (short) orientation);
+    while (b.hasRemaining())
+      fc.write(b, l.position + b.position());
+  }
+
+  /**
+   * find the orientation tag in IFD0 of the EXIF segment
+   */
+  private static Location locate(FileChannel fc) throws IOException {
+    ByteBuffer head = ByteBuffer.allocate(4);
+    if (!readFully(fc, head, 0) || (head.get(0) & 0xFF) != 0xFF || (head.get(1) & 0xFF) != 0xD8)
+      return null;
+
+    long pos = 2;
+    while (readFully(fc, head, pos)) {
+      if ((head.get(0) & 0xFF) != 0xFF) return null;
+      int marker = head.get(1) & 0xFF;
+      // the EXIF segment comes before the image data
+      if (marker == 0xDA || marker == 0xD9 || (marker >= 0xC0 && marker <= 0xCF)) return null;
+      int len = head.getShort(2) & 0xFFFF;
+
+      if (marker == 0xE1 && len > 2 + EXIF_HEADER.length + 8) {
+        ByteBuffer seg = ByteBuffer.allocate(len - 2);
+        if (!readFully(fc, seg, pos + 4)) return null;
+        Location l = parse(seg);
+        if (l != null) {
+          l.position += pos + 4;
+          return l;
+        }
+      }
+      pos += 2 + len;
+    }
+    return null;
+  }
+
+  private static IIOMetadataNode tree(IIOMetadata metadata) {
+    if (metadata == null || !JPEG_METADATA.equals(metadata.getNativeMetadataFormatName()))
+      return null;
+    return (IIOMetadataNode) metadata.getAsTree(JPEG_METADATA);
+  }
+
+  /**
+   * the APP1 node of the JPEG metadata with an orientation tag
+   */
+  private static IIOMetadataNode exif(IIOMetadataNode tree) {
+    NodeList unknown = tree.getElementsByTagName("unknown");
+    for (int i = 0; i < unknown.getLength(); i++) {
+      IIOMetadataNode node = (IIOMetadataNode) unknown.item(i);
+      if (!"225".equals(node.getAttribute("MarkerTag"))
+          || !(node.getUserObject() instanceof byte[])) continue;
+      if (parse(ByteBuffer.wrap((byte[]) node.getUserObject())) != null) return node;
+    }
+    return null;
+  }
+
+  private static Location parse(ByteBuffer seg) {
+    for (int i = 0; i < EXIF_HEADER.length; i++)
+      if (seg.get(i) != EXIF_HEADER[i]) return null;
+
+    int tiff = EXIF_HEADER.length;
+    if (seg.get(tiff) == 'I' && seg.get(tiff + 1) == 'I') seg.order(ByteOrder.LITTLE_ENDIAN);
+    else if (seg.get(tiff) == 'M' && seg.get(tiff + 1) == 'M') seg.order(ByteOrder.BIG_ENDIAN);
+    else return null;
+
+    long ifd = tiff + (seg.getInt(tiff + 4) & 0xFFFFFFFFL);
+    if (ifd + 2 > seg.limit()) return null;
+    int entries = seg.getShort((int) ifd) & 0xFFFF;
+
+    for (int i = 0; i < entries; i++) {
+      int entry = (int) ifd + 2 + 12 * i;
+      if (entry + 12 > seg.limit()) return null;
+      if ((seg.getShort(entry) & 0xFFFF) != TAG_ORIENTATION) continue;
+      if ((seg.getShort(entry + 2) & 0xFFFF) != TYPE_SHORT || seg.getInt(entry + 4) != 1)
+        return null;
+
+      Location l = new Location();
+      l.position = entry + 8;
+      l.order = seg.order();
+      l.value = seg.getShort(entry + 8) & 0xFFFF;
+      if (l.value < 1 || l.value > 8) l.value = NORMAL;
+      return l;
+    }
+    return null;
+  }
+
+  private static boolean readFully(FileChannel fc, ByteBuffer b, long pos) throws IOException {
+    b.clear();
+    while (b.hasRemaining()) {
+      int n = fc.read(b, pos + b.position());
+      if (n < 0) return false;
+    }
+    return true;
+  }
+}
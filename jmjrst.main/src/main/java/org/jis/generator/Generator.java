@@ -16,7 +16,6 @@
 package org.jis.generator;
 
 import java.awt.Color;
-import java.awt.Font;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.RenderingHints;
@@ -24,14 +23,22 @@ import java.awt.geom.AffineTransform;
 import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.Locale;
 import java.util.Vector;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -52,10 +59,12 @@ import javax.imageio.stream.MemoryCacheImageOutputStream;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
 import javax.swing.filechooser.FileFilter;
 import javax.swing.filechooser.FileSystemView;
 
 import org.jis.Main;
+import org.jis.Messages;
 import org.jis.options.Options;
 
 /**
@@ -67,17 +76,30 @@ import org.jis.options.Options;
  */
 public class Generator {
   public final static double ROTATE_90 = Math.toRadians(90);
+  public final static double ROTATE_180 = Math.toRadians(180);
   public final static double ROTATE_270 = Math.toRadians(270);
   public final static double ROTATE_M90 = Math.toRadians(-90);
   public final static double ROTATE_M270 = Math.toRadians(-270);
 
   private Main m;
+  private Messages mes;
   private Options o;
   private File zipFile = null;
   private Vector<File> zipIt;
   private boolean zippen = false;
   private float quality;
 
+  /**
+   * images being generated right now, single images get the idle CPUs
+   */
+  private final AtomicInteger activeJobs = new AtomicInteger();
+
+  /**
+   * images being scaled right now, by source and parameters, an image asked
+   * for again meanwhile is scaled only once
+   */
+  private final SingleFlight<String, byte[]> flights = new SingleFlight<String, byte[]>();
+
   /**
    * @param m
    * 		a reference to the Main Class.
@@ -86,6 +108,7 @@ public class Generator {
     super();
     this.m = m;
     this.o = Options.getInstance();
+    this.mes = m != null ? m.mes : new Messages(o.getLocal());
     this.quality = quality;
   }
 
@@ -232,25 +255,7 @@ public class Generator {
                 Options.getInstance().getVmax(), new File(Options.getInstance().getOutput_dir()));
 
           Producer producer = new Producer(m, elements, m.mes.getString("Generator.22"));
-          Thread producerThread = new Thread(producer);
-          int cpus = Runtime.getRuntime().availableProcessors();
-          Thread consumerThreads[] = new Thread[cpus];
-          for (int i = 0; i < cpus; i++) {
-            consumerThreads[i] = new Thread(new Consumer(producer, m, zippen, zipIt));
-          }
-
-          producerThread.start();
-          for (int i = 0; i < cpus; i++) {
-            consumerThreads[i].start();
-          }
-
-          try {
-            producerThread.join();
-            for (int i = 0; i < cpus; i++) {
-              consumerThreads[i].join();
-            }
-          } catch (InterruptedException ignore) {
-          }
+          new Pipeline(producer, m, zippen, zipIt).run();
 
           try {
             m.jOutputDoc.insertString(m.jOutputDoc.getLength(),
@@ -301,20 +306,227 @@ public class Generator {
       String praefix) throws IOException {
 
     // Output Image
-    File fo = new File(iout, praefix + imageFile.getName());
+    File fo = new File(iout, praefix + Encoders.outputName(imageFile.getName()));
+
+    byte[] encoded = generateImage(imageFile, null, print, width, height, 0);
+    if (encoded != null) try {
+      Files.write((iout.isDirectory() ? fo : iout).toPath(), encoded);
+    } catch (IOException e) {
+      if (m != null) m.error = true;
+    }
+
+    return fo;
+  }
+
+  /**
+   * <p>
+   * scale the Image and encode it in memory in the output format of the
+   * Options, so decoding and encoding need no file access
+   * </p>
+   *
+   * @param iis
+   *          ImageInputStream, the input image
+   * @param print
+   *          boolean, Logs for GUI
+   * @param width
+   *          int, width of the scaled image
+   * @param height
+   *          int, heigth of the scaled image
+   * @return the encoded scaled image, null if it could not be scaled
+   * @throws IOException
+   *           if the image could not be read
+   */
+  public byte[] generateImage(ImageInputStream iis, boolean print, int width, int height)
+      throws IOException {
+    byte[][] encoded = generate(iis, print, width, height, null, 0, null, 0);
+    return encoded == null ? null : encoded[0];
+  }
 
-    ImageInputStream iis = ImageIO.createImageInputStream(imageFile);
+  /**
+   * <p>
+   * scale the Image like {@link #generateImage(ImageInputStream, boolean, int, int)},
+   * a JPEG is encoded with the given quality instead of the quality of the
+   * Options
+   * </p>
+   *
+   * @param quality
+   *          the JPEG quality from 0 to 1, 0 for the quality of the Options
+   */
+  public byte[] generateImage(ImageInputStream iis, int width, int height, float quality)
+      throws IOException {
+    byte[][] encoded = generate(iis, false, width, height, null, 0, null, quality);
+    return encoded == null ? null : encoded[0];
+  }
+
+  /**
+   * <p>
+   * scale the image of a file like
+   * {@link #generateImage(ImageInputStream, int, int, float)}. Concurrent calls
+   * for the same file, size and quality share one scaling and get the same
+   * array, which must not be modified.
+   * </p>
+   *
+   * @param file
+   *          the input image
+   * @param quality
+   *          the JPEG quality from 0 to 1, 0 for the quality of the Options
+   * @return the encoded scaled image, null if it could not be scaled
+   * @throws IOException
+   *           if the image could not be read
+   */
+  public byte[] generateImage(File file, int width, int height, float quality)
+      throws IOException {
+    return generateImage(file, null, false, width, height, quality);
+  }
+
+  /**
+   * @param data
+   *          the prefetched content of the file, null to read the file
+   */
+  byte[] generateImage(final File file, final byte[] data, final boolean print, final int width,
+      final int height, final float quality) throws IOException {
+    // the source is identified by path, size and time, the output format and
+    // quality are the parameters of the Options which change between builds
+    String key = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified() + "|"
+        + width + "x" + height + "|" + (quality > 0 ? quality : o.getQuality()) + "|"
+        + o.getOutputFormat();
+    return flights.run(key, new Callable<byte[]>() {
+      public byte[] call() throws IOException {
+        ImageInputStream iis = data != null ? new ByteBufferImageInputStream(data)
+            : ByteBufferImageInputStream.open(file);
+        if (iis == null) throw new IOException("can not read " + file);
+        try {
+          byte[][] encoded = generate(iis, print, width, height, null, 0, null, quality);
+          return encoded == null ? null : encoded[0];
+        } finally {
+          iis.close();
+        }
+      }
+    });
+  }
+
+  /**
+   * <p>
+   * scale the Image like {@link #generateImage(ImageInputStream, boolean, int, int)},
+   * but draw it into its cell of a sprite sheet instead of encoding it
+   * </p>
+   *
+   * @param sprite
+   *          the sprite sheet of the page, null to encode the image
+   * @param index
+   *          index of the image in the gallery
+   * @return the encoded scaled image, an empty array if drawn into the sprite
+   *         sheet, null if it could not be scaled
+   * @throws IOException
+   *           if the image could not be read
+   */
+  byte[] generateImage(ImageInputStream iis, boolean print, int width, int height,
+      SpriteSheet sprite, int index) throws IOException {
+    byte[][] encoded = generate(iis, print, width, height, sprite, index, null, 0);
+    return encoded == null ? null : encoded[0];
+  }
+
+  /**
+   * <p>
+   * scale the Image to every width of a ladder with a single decode. Only the
+   * largest width is scaled from the decoded image, every smaller one from
+   * the width before.
+   * </p>
+   *
+   * @param iis
+   *          ImageInputStream, the input image
+   * @param widths
+   *          the widths in descending order
+   * @return the encoded scaled images in the order of the widths, null if
+   *         they could not be scaled
+   * @throws IOException
+   *           if the image could not be read
+   */
+  byte[][] generateLadder(ImageInputStream iis, int[] widths) throws IOException {
+    return generateLadder(iis, widths, new int[0][]);
+  }
+
+  /**
+   * @param sizes
+   *          width and height of further images scaled from the same decode,
+   *          like the sizes of {@link #generateImage(ImageInputStream, boolean,
+   *          int, int)}
+   * @return the encoded images of the widths followed by those of the sizes
+   */
+  byte[][] generateLadder(ImageInputStream iis, int[] widths, int[][] sizes) throws IOException {
+    return generate(iis, false, widths[0], 0, null, 0, widths, sizes, 0);
+  }
+
+  private byte[][] generate(ImageInputStream iis, boolean print, int width, int height,
+      SpriteSheet sprite, int index, int[] ladder, float quality) throws IOException {
+    return generate(iis, print, width, height, sprite, index, ladder, new int[0][], quality);
+  }
+
+  private byte[][] generate(ImageInputStream iis, boolean print, int width, int height,
+      SpriteSheet sprite, int index, int[] ladder, int[][] sizes, float quality)
+      throws IOException {
+    // the raw metadata segments, no metadata tree is built
+    MetadataSegments metadata = MetadataSegments.read(iis);
+    // an embedded profile is converted by a cached transform, not by the
+    // reader, in linear light for the best quality
+    boolean linear = Options.getInstance().getModus() == Options.MODUS_QUALITY;
+    ColorTransform transform = ColorTransform.get(metadata.getIccProfile(), linear);
+    if (transform.isRaw() && !metadata.hideIccProfile(iis))
+      transform = ColorTransform.get(null, linear);
     Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+    if (!readers.hasNext()) throw new IOException("not an image");
     ImageReader reader = readers.next();
-    reader.setInput(iis, true);
-    BufferedImage image = reader.read(0, null);
 
-    IIOMetadata imageMetadata = reader.getImageMetadata(0);
+    // the pixel arrays are reused for the next image
+    PixelPool pool = PixelPool.getInstance();
+    boolean strips;
+    BufferedImage decoded;
+    try {
+      reader.setInput(iis, true);
+      // a very large image is scaled in strips and never decoded completely
+      strips = StripResampler.isLarge(reader);
+      decoded = strips ? null : pool.read(reader);
+    } catch (IOException e) {
+      reader.dispose();
+      throw e;
+    } catch (RuntimeException e) {
+      // the decoder ran past the data of a corrupt image
+      reader.dispose();
+      throw new IOException(e);
+    }
+    BufferedImage image = decoded;
+    BufferedImage resized = null;
+    BufferedImage bimage = null;
 
+    byte[][] encoded = null;
+    activeJobs.incrementAndGet();
     try {
+      // show the image upright, the orientation of the copied metadata is
+      // reset below
+      int orientation = metadata.getOrientation();
+      boolean swap = orientation >= 5;
+      if (!strips)
+        image = ExifOrientation.apply(image, orientation);
+
       // get width and height of the origianl image
-      int w = image.getWidth(null);
-      int h = image.getHeight(null);
+      int w = strips ? reader.getWidth(0) : image.getWidth(null);
+      int h = strips ? reader.getHeight(0) : image.getHeight(null);
+      if (strips && swap) {
+        w = reader.getHeight(0);
+        h = reader.getWidth(0);
+      }
+
+      // the sizes are scaled along the ladder, as widths in the aspect ratio
+      // of the image, and the largest of all is scaled from the decoded image
+      int[] widths = ladder;
+      if (ladder != null) {
+        widths = Arrays.copyOf(ladder, ladder.length + sizes.length);
+        for (int s = 0; s < sizes.length; s++)
+          widths[ladder.length + s] = fitWidth(w, h, sizes[s][0], sizes[s][1]);
+        for (int x : widths)
+          width = Math.max(width, x);
+        height = 0;
+      }
 
       // if image in landscape format?
       if ((w >= h || height == 0) && width > 0) {
@@ -326,9 +538,15 @@ public class Generator {
         double w1 = w;
         width = (int) (w1 / tmp);
       }
+      // an image scaled in strips is not scaled up, that would need it
+      // decoded completely
+      if (strips && (width > w || height > h)) {
+        width = w;
+        height = h;
+      }
 
       // Create new Image
-      BufferedImage bimage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      bimage = pool.borrow(width, height, BufferedImage.TYPE_INT_RGB);
 
       // get graphics of the new Image
       Graphics2D g = bimage.createGraphics();
@@ -377,20 +595,29 @@ public class Generator {
       // create a scaled instance of the new Image
       Image scale;
 
-      if (width < 300 || height < 300)
+      if (strips) {
+        resized = StripResampler.resize(reader, swap ? height : width, swap ? width : height,
+            transform);
+        scale = ExifOrientation.apply(resized, orientation);
+      } else if (width <= w && height <= h)
+        // area averaged like SCALE_SMOOTH, but into a pooled image. With less
+        // images than CPUs the image itself is split.
+        scale = resized = ParallelResampler.resize(image, width, height,
+            (long) w * h >= ParallelResampler.PARALLEL_PIXELS
+                && activeJobs.get() < Runtime.getRuntime().availableProcessors(), transform);
+      else if (width < 300 || height < 300)
         scale = image.getScaledInstance(width, height, Image.SCALE_AREA_AVERAGING);
       else
         scale = image.getScaledInstance(width, height, Image.SCALE_SMOOTH);
       g.drawImage(scale, 0, 0, null);
+      // the resamplers convert the colors themselves
+      if (resized == null && transform.isRaw())
+        ColorTransform.get(metadata.getIccProfile(), false).apply(bimage);
 
-      int font_size = (int) (width * 0.02);
+      if (ladder != null) return encodeLadder(bimage, widths, metadata, linear, quality);
 
-      if (o.isCopyright()) {
-        g.setColor(new Color(o.getCopyright_r(), o.getCopyright_g(), o.getCopyright_b()));
-        Font font1 = new Font("Helvetica", Font.BOLD, font_size);
-        g.setFont(font1);
-        g.drawString(o.getCopyrightText(), font_size, height - (2 * font_size));
-      }
+      // the text or logo is rendered once per size and blended in
+      if (o.isCopyright()) Watermark.getInstance().apply(bimage);
 
       // Print process info for the GUI
       if (print)
@@ -403,39 +630,111 @@ public class Generator {
           System.out.print(". . ");
         }
 
-      // create new File for the new Image
-      ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
-      ImageOutputStream ios;
-
-      if (iout.isDirectory()) {
-        ios = new MemoryCacheImageOutputStream(new FileOutputStream(fo));
-      } else {
-        ios = new MemoryCacheImageOutputStream(new FileOutputStream(iout));
-      }
-      writer.setOutput(ios);
-
-      JPEGImageWriteParam iwparam = new JPEGImageWriteParam(Locale.getDefault());
-      iwparam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-
-      // set JPEG Quality
-      iwparam.setCompressionQuality(o.getQuality());
-      iwparam.setOptimizeHuffmanTables(true);
-
-      // copy the metadata
-      if (o.isCopyMetadata()) {
-        writer.write(null, new IIOImage(bimage, null, imageMetadata), iwparam);
-      } else {
-        writer.write(null, new IIOImage(bimage, null, null), iwparam);
+      if (sprite != null) {
+        sprite.draw(index, bimage);
+        bimage.getGraphics().dispose();
+        return new byte[][] {
+          new byte[0]
+        };
       }
 
+      encoded = new byte[][] {
+        encode(bimage, metadata, quality)
+      };
       bimage.getGraphics().dispose();
-      writer.dispose();
 
     } catch (Exception l) {
-      m.error = true;
+      if (m != null) m.error = true;
+    } finally {
+      activeJobs.decrementAndGet();
+      reader.dispose();
+      pool.release(decoded);
+      pool.release(resized);
+      pool.release(bimage);
     }
 
-    return fo;
+    return encoded;
+  }
+
+  /**
+   * <p>
+   * scale the image down the ladder, each width from the next larger one.
+   * The watermark is drawn after the next width is scaled, so it is not
+   * scaled along.
+   * </p>
+   *
+   * @param image
+   *          the image scaled to the largest width
+   * @param widths
+   *          the widths in any order
+   * @return the encoded images in the order of the widths
+   */
+  private byte[][] encodeLadder(BufferedImage image, final int[] widths,
+      MetadataSegments metadata, boolean linear, float quality) throws IOException {
+    PixelPool pool = PixelPool.getInstance();
+    // the images are sRGB now
+    ColorTransform transform = ColorTransform.get(null, linear);
+    Integer[] order = new Integer[widths.length];
+    for (int i = 0; i < order.length; i++)
+      order[i] = i;
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return Integer.compare(widths[b], widths[a]);
+      }
+    });
+    byte[][] encoded = new byte[widths.length][];
+    BufferedImage rung = image;
+    try {
+      for (int i = 0; i < order.length; i++) {
+        BufferedImage next = null;
+        if (i + 1 < order.length) {
+          int width = widths[order[i + 1]];
+          int height = Math.max(1, Math.min(rung.getHeight(),
+              (int) ((long) image.getHeight() * width / image.getWidth())));
+          next = ParallelResampler.resize(rung, Math.min(width, rung.getWidth()), height, false,
+              transform);
+        }
+        if (o.isCopyright()) Watermark.getInstance().apply(rung);
+        encoded[order[i]] = encode(rung, metadata, quality);
+        if (rung != image) pool.release(rung);
+        rung = next;
+      }
+    } finally {
+      if (rung != image) pool.release(rung);
+    }
+    return encoded;
+  }
+
+  /**
+   * @return the width an image of w x h is scaled to for the size, as in
+   *         generate
+   */
+  static int fitWidth(int w, int h, int width, int height) {
+    if ((w >= h || height == 0) && width > 0) return width;
+    return (int) (w / ((double) h / height));
+  }
+
+  /**
+   * <p>
+   * encode the image in the format of the Options with the chosen metadata
+   * segments
+   * </p>
+   *
+   * @param quality
+   *          the JPEG quality, 0 for the quality of the Options
+   */
+  private byte[] encode(BufferedImage image, MetadataSegments metadata, float quality)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ImageOutputStream ios = new MemoryCacheImageOutputStream(bytes);
+    ImageEncoder encoder = Encoders.getDefault();
+    MetadataSegments copied = o.isCopyMetadata() ? metadata.filter(o.getMetadataKeep(),
+        o.getMetadataStrip(), image.getWidth(), image.getHeight()) : null;
+    if (quality > 0 && encoder instanceof JpegEncoder)
+      ((JpegEncoder) encoder).encode(image, copied, ios, quality);
+    else encoder.encode(image, copied, ios);
+    ios.close();
+    return bytes.toByteArray();
   }
 
   /**
@@ -447,6 +746,9 @@ public class Generator {
    * 		File
    */
   public void rotate(File file) {
+    if (rotateExif(file, 90)) return;
+    if (rotateLossless(file, 90)) return;
+
     BufferedImage i = null;
     IIOMetadata imeta = null;
 
@@ -496,7 +798,7 @@ public class Generator {
       writer.dispose();
       System.out.println("Bild gespeichert!");
     } catch (Exception l) {
-      m.error = true;
+      if (m != null) m.error = true;
     }
   }
 
@@ -561,52 +863,98 @@ public class Generator {
    * 		int, heigth of the scaled image
    */
   public void generateText(File input, File output, int width, int height) {
+    generateText(input, output, width, height, false);
+  }
+
+  /**
+   * <p>
+   * Resize the Images without the GUI, when the Programm is started with Arguments
+   * </p>
+   *
+   * @param input
+   * 		File, the Input Directory
+   * @param output
+   * 		File, the Output Directory
+   * @param width
+   * 		int, width of the scaled image
+   * @param height
+   * 		int, heigth of the scaled image
+   * @param recursive
+   * 		boolean, resize the images of the sub directories too, the directory
+   * 		structure is kept in the output directory
+   */
+  public void generateText(final File input, File output, int width, int height,
+      final boolean recursive) {
 
     // check if mass resize or single picture resize
     if (input.isDirectory() && output.isDirectory())
       try {
 
-        // get all JPEGs of the directory
-        File[] dir = input.listFiles();
-        Vector<File> v = new Vector<File>();
-        for (int i = 0; i < dir.length; i++)
-          // text.setText(text.getText() + dir[i].toString() + "\n");
-          try {
-            String end = dir[i].toString()
-                .substring(dir[i].toString().lastIndexOf(".") + 1, dir[i].toString().length());
-            if (dir[i].isFile() && (end.equalsIgnoreCase("jpg") || end.equalsIgnoreCase("jpeg")))
-              v.addElement(dir[i]);
-          } catch (Exception st) {
+        // find the JPEGs in the background and resize them as they are found
+        final BlockingQueue<File> found = new LinkedBlockingQueue<File>();
+        final AtomicInteger total = new AtomicInteger();
+        final File end = input;
+        Thread discovery = new Thread() {
+          public void run() {
+            try {
+              new ImageDiscovery().discover(input, recursive, new ImageDiscovery.Listener() {
+                public void found(File image) {
+                  total.incrementAndGet();
+                  found.add(image);
+                }
+              });
+            } finally {
+              found.add(end);
+            }
           }
-
-        // print info message
-        System.out.println(v.size() + m.mes.getString("Generator.28") + input.toString() + m.mes
-            .getString("Generator.29") + quality + m.mes.getString("Generator.30") + Options.ls
-            + Options.ls);
+        };
+        discovery.start();
+        // the info message needs the number of images, most directories are
+        // listed by then, a large tree gets it as soon as it is listed
+        discovery.join(1000);
+        boolean announced = false;
 
         // resize the images
-        for (int i = 0; i < v.size(); i++) {
-          System.out
-              .print(m.mes.getString("Generator.10") + v.elementAt(i).getName() + "\t . . . ");
-          generateImage(v.elementAt(i), output, true, o.getHmax(), o.getVmax(),
-              m.mes.getString("Generator.22"));
-          System.out.println(m.mes.getString("Generator.12"));
+        int count = 0;
+        for (File image = found.take(); image != end; image = found.take()) {
+          if (!announced && !discovery.isAlive()) {
+            printInfo(input, total.get());
+            announced = true;
+          }
+          File dir = output;
+          if (recursive) {
+            dir = new File(output,
+                input.toPath().relativize(image.getParentFile().toPath()).toString());
+            dir.mkdirs();
+          }
+          System.out.print(mes.getString("Generator.10") + image.getName() + "\t . . . ");
+          generateImage(image, dir, true, o.getHmax(), o.getVmax(),
+              mes.getString("Generator.22"));
+          System.out.println(mes.getString("Generator.12"));
+          count++;
         }
-        System.out.println(Options.ls + v.size() + m.mes.getString("Generator.46") + Options.ls);
+        if (!announced) printInfo(input, total.get());
+        System.out.println(Options.ls + count + mes.getString("Generator.46") + Options.ls);
       } catch (Exception ex) {
         System.out.println(ex);
       }
     else if (input.isFile()) {
       try {
         // resize single image
-        generateImage(input, output, true, o.getHmax(), o.getVmax(),
-            m.mes.getString("Generator.22"));
+        generateImage(input, output, false, o.getHmax(), o.getVmax(),
+            mes.getString("Generator.22"));
       } catch (Exception e) {
         e.printStackTrace();
       }
     }
   }
 
+  private void printInfo(File input, int images) {
+    System.out.println(images + mes.getString("Generator.28") + input.toString() + mes
+        .getString("Generator.29") + quality + mes.getString("Generator.30") + Options.ls
+        + Options.ls);
+  }
+
   /**
    * <p>
    * <b>Not used because loose of Metadata and Quality</b> rotate the Image and
@@ -615,8 +963,11 @@ public class Generator {
    *
    * @param file
    * 		File
+   * @return false if the Image could not be rotated
    */
-  public void rotate(File file, int angel) {
+  public boolean rotate(File file, int angel) {
+    if (angel % 90 == 0 && (rotateExif(file, angel) || rotateLossless(file, angel))) return true;
+
     BufferedImage i = null;
     IIOMetadata imeta = null;
 
@@ -630,18 +981,18 @@ public class Generator {
     } catch (IOException e) {
       System.err.println("Error while reading File: " + file.getAbsolutePath());
       e.printStackTrace();
-      return;
+      return false;
     }
 
     try {
       // get width and height of the origianl image
       int w = i.getWidth(null);
       int h = i.getHeight(null);
-      rotateImage(i, 90);
       System.out.println("Width: " + w + " Height :" + h);
 
       System.out.println("Drehe Bild:" + file.getAbsolutePath());
-      i = rotateImage(i, angel);
+      for (int r = 0; r < ((angel / 90) % 4 + 4) % 4; r++)
+        i = rotateImage(i, ROTATE_90);
 
       FileOutputStream fos = new FileOutputStream(file);
 
@@ -649,7 +1000,7 @@ public class Generator {
       ImageOutputStream ios = ImageIO.createImageOutputStream(fos);
       writer.setOutput(ios);
       ImageWriteParam iwparam = new JPEGImageWriteParam(Locale.getDefault());
-      iwparam.setCompressionMode(ImageWriteParam.MODE_COPY_FROM_METADATA);
+      iwparam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
 
       // set JPEG Quality
       iwparam.setCompressionQuality(0.92f);
@@ -660,8 +1011,118 @@ public class Generator {
       fos.close();
 
       System.out.println("Bild gespeichert!");
+      return true;
     } catch (Exception l) {
-      m.error = true;
+      if (m != null) m.error = true;
+      return false;
+    }
+  }
+
+  /**
+   * <p>
+   * rotate the Images in parallel and show the progress, an unfinished batch
+   * is rolled back
+   * </p>
+   *
+   * @param files
+   * 		the Images to rotate
+   * @param degrees
+   * 		clockwise rotation in degrees
+   */
+  public void rotate(final File[] files, final int degrees) {
+    if (files.length == 0)
+      return;
+
+    // the batches run one after the other, no new one is started meanwhile
+    m.menu.rotate_left.setEnabled(false);
+    m.menu.rotate_right.setEnabled(false);
+    Thread t = new Thread() {
+      public void run() {
+        m.p_monitor = new ProgressMonitor(m, m.mes.getString("Menu.19"),
+            m.mes.getString("Generator.10"), 0, files.length);
+        m.p_monitor.setMillisToPopup(0);
+        m.p_monitor.setMillisToDecideToPopup(0);
+        m.status.setStatusOn();
+        final AtomicInteger done = new AtomicInteger();
+
+        int rotated = 0;
+        try {
+          rotated = new BatchRotation(Generator.this).rotate(Arrays.asList(files), degrees,
+              new BatchRotation.Listener() {
+                public void rotated(File file, boolean success) {
+                  m.p_monitor.setProgress(done.incrementAndGet());
+                  m.p_monitor.setNote(file.getName());
+                  if (!success)
+                    m.error = true;
+                }
+              });
+        } catch (IOException e) {
+          System.err.println("Error while rotating: " + e.getMessage());
+          m.error = true;
+        }
+
+        try {
+          m.jOutputDoc.insertString(m.jOutputDoc.getLength(),
+              Options.ls + rotated + m.mes.getString("Menu.20") + Options.ls, m.readyAtr);
+          m.text.setCaretPosition(m.jOutputDoc.getLength());
+        } catch (Exception e) {
+          System.out.println(Options.ls + rotated + m.mes.getString("Menu.20") + Options.ls);
+        }
+        m.status.setStatusOff();
+        m.p_monitor.close();
+        SwingUtilities.invokeLater(new Runnable() {
+          public void run() {
+            m.menu.rotate_left.setEnabled(true);
+            m.menu.rotate_right.setEnabled(true);
+          }
+        });
+      }
+    };
+    t.start();
+  }
+
+  /**
+   * <p>
+   * rotate the JPEG in the DCT domain, without loss of quality
+   * </p>
+   *
+   * @param file
+   * 		File
+   * @param degrees
+   * 		clockwise rotation in degrees
+   * @return false if the image has to be rotated by decoding it
+   */
+  private boolean rotateLossless(File file, int degrees) {
+    try {
+      return JpegTransform.rotate(file, degrees);
+    } catch (IOException e) {
+      System.err.println("Error while rotating File: " + file.getAbsolutePath());
+      return false;
+    } catch (RuntimeException e) {
+      // the parser ran past the data of a corrupt JPEG, the decoder may cope
+      System.err.println("Error while rotating File: " + file.getAbsolutePath());
+      return false;
+    }
+  }
+
+  /**
+   * <p>
+   * rotate the JPEG by changing its EXIF orientation, if enabled in the options
+   * </p>
+   *
+   * @param file
+   * 		File
+   * @param degrees
+   * 		clockwise rotation in degrees
+   * @return false if the image has to be rotated in its pixels
+   */
+  private boolean rotateExif(File file, int degrees) {
+    if (!o.isExifRotation()) return false;
+    try {
+      return ExifOrientation.rotate(file, degrees);
+    } catch (IOException e) {
+      System.err.println("Error while rotating File: " + file.getAbsolutePath());
+      return false;
     }
   }
 
@@ -679,11 +1140,29 @@ public class Generator {
     if (rotate < 0) {
       positiveRotate += Math.toRadians(360);
     }
+    int quadrants = 0;
+    if (positiveRotate == Generator.ROTATE_90)
+      quadrants = 1;
+    else if (positiveRotate == Generator.ROTATE_180)
+      quadrants = 2;
+    else if (positiveRotate == Generator.ROTATE_270)
+      quadrants = 3;
+
+    // rotate the pixel arrays directly if the image type allows it
+    if (quadrants > 0) {
+      BufferedImage fast = RasterRotation.rotate(image, quadrants);
+      if (fast != null)
+        return fast;
+    }
+
     if (positiveRotate == Generator.ROTATE_90) {
       transform.translate(height, 0);
       transform.rotate(Generator.ROTATE_90);
       width = image.getHeight(); // swap
       height = image.getWidth();
+    } else if (positiveRotate == Generator.ROTATE_180) {
+      transform.translate(width, height);
+      transform.rotate(Generator.ROTATE_180);
     } else if (positiveRotate == Generator.ROTATE_270) {
       transform.translate(0, width);
       transform.rotate(Generator.ROTATE_270);
@@ -693,9 +1172,12 @@ public class Generator {
       throw new IllegalArgumentException("degree must be a multiple of 90!");
     }
 
-    // Return a new Image
-    BufferedImage returnImage = new BufferedImage(width, height,
-        image.getColorModel().getColorSpace().getType());
+    // Return a new Image of the same type, a custom type is drawn slowly
+    int type = image.getType();
+    if (type == BufferedImage.TYPE_CUSTOM)
+      type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB
+          : BufferedImage.TYPE_INT_RGB;
+    BufferedImage returnImage = new BufferedImage(width, height, type);
     Graphics2D g = returnImage.createGraphics();
     g.drawImage(image, transform, null);
 
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+/**
+ * <p>
+ * Groups 64 bit perceptual hashes of pictures in gallery order within a
+ * Hamming distance. A picture joins the group of a picture at most a window
+ * of places before it, if it is within the distance of the first picture of
+ * that group. So a group only grows through neighbours, and all of it is near
+ * the picture which is kept, a slow pan does not become one group by a chain
+ * of similar frames.
+ * </p>
+ */
+class HashIndex {
+
+  private final int[] group;
+
+  /**
+   * @param hashes
+   *          the hashes, numbered by their position in gallery order
+   * @param distance
+   *          the largest Hamming distance of near duplicates
+   * @param window
+   *          the most places a picture may be after the last one of its group
+   */
+  HashIndex(long[] hashes, int distance, int window) {
+    group = new int[hashes.length];
+    for (int j = 0; j < hashes.length; j++) {
+      group[j] = j;
+      for (int i = j - 1; i >= 0 && i >= j - window; i--)
+        if (Long.bitCount(hashes[group[i]] ^ hashes[j]) <= distance) {
+          group[j] = group[i];
+          break;
+        }
+    }
+  }
+
+  /**
+   * @param i
+   *          number of a hash
+   * @return number of the first hash of its group
+   */
+  int group(int i) {
+    return group[i];
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>
+ * Finds the JPEGs below a directory. Sub directories are walked in parallel on
+ * a fork/join pool and every file is identified by its magic bytes, not by its
+ * extension. Found images are handed to the listener as soon as they are
+ * identified, so a batch can start before the walk is finished.
+ * </p>
+ */
+public class ImageDiscovery {
+
+  /**
+   * <p>
+   * Receives the found images, called concurrently from the walking threads
+   * </p>
+   */
+  public interface Listener {
+    void found(File image);
+  }
+
+  /**
+   * start of every JPEG, SOI marker followed by the next marker
+   */
+  private static final byte[] JPEG_MAGIC = {
+      (byte) 0xFF, (byte) 0xD8, (byte) 0xFF
+  };
+
+  private final int           parallelism;
+
+  /**
+   * walk with two threads per CPU, the walk waits for the file system most of
+   * the time
+   */
+  public ImageDiscovery() {
+    this(2 * Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param parallelism
+   *          number of threads walking the directories
+   */
+  public ImageDiscovery(int parallelism) {
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * <p>
+   * find all JPEGs of a directory, blocks until the walk is finished
+   * </p>
+   *
+   * @param dir
+   *          the directory to walk
+   * @param recursive
+   *          walk the sub directories too
+   * @param listener
+   *          receives the found images
+   */
+  public void discover(File dir, boolean recursive, Listener listener)
+  {
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try
+    {
+      pool.invoke(new DirectoryTask(dir.toPath(), recursive, listener));
+    }
+    finally
+    {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * @param file
+   *          the file to check
+   * @return true if the file starts with the JPEG magic bytes
+   */
+  public static boolean isJpeg(Path file)
+  {
+    try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ))
+    {
+      ByteBuffer magic = ByteBuffer.allocate(JPEG_MAGIC.length);
+      while (magic.hasRemaining())
+        if (fc.read(magic) < 0) return false;
+      for (int i = 0; i < JPEG_MAGIC.length; i++)
+        if (magic.get(i) != JPEG_MAGIC[i]) return false;
+      return true;
+    }
+    catch (IOException e)
+    {
+      return false;
+    }
+  }
+
+  /*
+   * <p> Checks the files of one directory and forks a task for each sub
+   * directory </p>
+   */
+  private static class DirectoryTask extends RecursiveAction {
+    private static final long serialVersionUID = -6251706838960263442L;
+
+    private final Path        dir;
+    private final boolean     recursive;
+    private final Listener    listener;
+
+    DirectoryTask(Path dir, boolean recursive, Listener listener) {
+      this.dir = dir;
+      this.recursive = recursive;
+      this.listener = listener;
+    }
+
+    protected void compute()
+    {
+      List<DirectoryTask> subTasks = new ArrayList<DirectoryTask>();
+
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir))
+      {
+        for (Path p : stream)
+        {
+          BasicFileAttributes attrs;
+          try
+          {
+            // do not follow links, a linked directory could lead into a loop
+            attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+          }
+          catch (IOException e)
+          {
+            continue;
+          }
+
+          if (attrs.isDirectory())
+          {
+            if (recursive)
+            {
+              DirectoryTask t = new DirectoryTask(p, true, listener);
+              t.fork();
+              subTasks.add(t);
+            }
+          }
+          else if (attrs.isRegularFile() && attrs.size() >= JPEG_MAGIC.length && isJpeg(p))
+          {
+            listener.found(p.toFile());
+          }
+        }
+      }
+      catch (IOException e)
+      {
+        System.err.println("Error while reading Directory: " + dir);
+      }
+
+      for (DirectoryTask t : subTasks)
+        t.join();
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * <p>
+ * Writes a scaled image in an output format. The encoders are registered in
+ * {@link Encoders} by format name, the format of the scaled images is chosen
+ * in the Options.
+ * </p>
+ */
+public interface ImageEncoder {
+
+  /**
+   * @return the file suffixes of the format, the first one is used for new
+   *         files
+   */
+  String[] getSuffixes();
+
+  /**
+   * @param image
+   *          the scaled image
+   * @param metadata
+   *          the metadata segments of the source image to be copied, null for
+   *          none
+   * @param out
+   *          receives the encoded image
+   * @throws IOException
+   *           if the image could not be encoded
+   */
+  void encode(BufferedImage image, MetadataSegments metadata, ImageOutputStream out)
+      throws IOException;
+}
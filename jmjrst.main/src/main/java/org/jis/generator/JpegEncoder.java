@@ -0,0 +1,253 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.jis.options.Options;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * <p>
+ * Writes JPEGs with the quality, progressive scans, chroma subsampling and
+ * restart interval of the Options. Subsampling and restart interval are set in
+ * the SOF and DRI markers of the JPEG metadata. With a target size in the
+ * Options the quality is binary searched per image, below the quality of the
+ * Options, until the JPEG fits. The attempts are encoded into buffers which
+ * are reused, only the chosen one is written. The metadata segments are
+ * inserted when the chosen JPEG is written, they count towards the target.
+ * </p>
+ */
+public class JpegEncoder implements ImageEncoder {
+
+  private static final String JPEG_METADATA = "javax_imageio_jpeg_image_1.0";
+
+  /**
+   * lowest quality of the search
+   */
+  private static final float  MIN_QUALITY   = 0.05f;
+
+  /**
+   * a JPEG this much below the target is good enough
+   */
+  private static final float  TOLERANCE     = 0.05f;
+
+  private static final int    MAX_ATTEMPTS  = 8;
+
+  private final QualityCache  cache;
+
+  /**
+   * the attempt and the best JPEG so far of every thread
+   */
+  private final ThreadLocal<Buffer[]> buffers = new ThreadLocal<Buffer[]>() {
+    protected Buffer[] initialValue() {
+      return new Buffer[] {
+          new Buffer(), new Buffer()
+      };
+    }
+  };
+
+  /*
+   * <p> A ByteArrayOutputStream which is written without a copy </p>
+   */
+  private static class Buffer extends ByteArrayOutputStream {
+    void writeTo(MetadataSegments metadata, ImageOutputStream out) throws IOException {
+      if (metadata == null) out.write(buf, 0, count);
+      else metadata.write(buf, count, out);
+    }
+  }
+
+  public JpegEncoder() {
+    this(QualityCache.getInstance());
+  }
+
+  /**
+   * @param cache
+   *          the qualities found for a target size
+   */
+  JpegEncoder(QualityCache cache) {
+    this.cache = cache;
+  }
+
+  public String[] getSuffixes() {
+    return new String[] {
+        "jpg", "jpeg"
+    };
+  }
+
+  public void encode(BufferedImage image, MetadataSegments metadata, ImageOutputStream out)
+      throws IOException {
+    encode(image, metadata, out, Options.getInstance().getQuality());
+  }
+
+  /**
+   * @param quality
+   *          the quality instead of the quality of the Options, the highest
+   *          quality of the search for a target size
+   */
+  public void encode(BufferedImage image, MetadataSegments metadata, ImageOutputStream out,
+      float quality) throws IOException {
+    Options o = Options.getInstance();
+    if (o.getTargetSize() <= 0 && metadata == null) {
+      encode(image, out, quality);
+      return;
+    }
+
+    Buffer buffer;
+    if (o.getTargetSize() <= 0) {
+      buffer = buffers.get()[0];
+      buffer.reset();
+      encode(image, buffer, quality);
+    } else {
+      long target = o.getTargetSize() * 1024L;
+      buffer = encodeToSize(image, metadata == null ? target : target - metadata.size(), quality);
+    }
+    buffer.writeTo(metadata, out);
+  }
+
+  /**
+   * <p>
+   * search the highest quality up to the quality of the Options whose JPEG is
+   * not larger than the target. The smallest JPEG is taken if none fits.
+   * </p>
+   *
+   * @param target
+   *          maximum size of the JPEG without metadata in bytes
+   * @param quality
+   *          the highest quality
+   * @return the buffer with the JPEG, valid until the next image of the thread
+   */
+  private Buffer encodeToSize(BufferedImage image, long target, float quality) throws IOException {
+    Options o = Options.getInstance();
+    String key = QualityCache.key(image, target + "_" + quality + "_" + o.getSubsampling()
+        + "_" + o.isProgressive() + "_" + o.getRestartInterval());
+
+    Buffer[] b = buffers.get();
+    Buffer attempt = b[0];
+    Buffer best = null;
+    float bestQuality = MIN_QUALITY;
+    float lo = MIN_QUALITY;
+    float hi = quality;
+
+    // start with the quality of the last build, it usually fits at once
+    float cached = cache.get(key);
+    float q = cached > 0 && cached <= hi ? cached : hi;
+    for (int i = 0; i < MAX_ATTEMPTS; i++) {
+      attempt.reset();
+      encode(image, attempt, q);
+
+      if (attempt.size() <= target) {
+        best = attempt;
+        bestQuality = q;
+        attempt = b[0] == best ? b[1] : b[0];
+        lo = q;
+        if (q >= hi || best.size() >= target * (1 - TOLERANCE)) break;
+      } else {
+        hi = q;
+      }
+      if (hi - lo < 0.01f) break;
+      q = (lo + hi) / 2;
+    }
+
+    if (best == null) {
+      best = attempt;
+      best.reset();
+      encode(image, best, MIN_QUALITY);
+    }
+    cache.put(key, bestQuality);
+    return best;
+  }
+
+  private void encode(BufferedImage image, Buffer buffer, float quality) throws IOException {
+    ImageOutputStream ios = new MemoryCacheImageOutputStream(buffer);
+    encode(image, ios, quality);
+    ios.close();
+  }
+
+  void encode(BufferedImage image, ImageOutputStream out, float quality) throws IOException {
+    Options o = Options.getInstance();
+    ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+    try {
+      writer.setOutput(out);
+
+      JPEGImageWriteParam iwparam = new JPEGImageWriteParam(Locale.getDefault());
+      iwparam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+
+      // set JPEG Quality
+      iwparam.setCompressionQuality(quality);
+      iwparam.setOptimizeHuffmanTables(true);
+      if (o.isProgressive()) iwparam.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+
+      IIOMetadata metadata = null;
+      if (o.getSubsampling() != Options.SUBSAMPLING_420 || o.getRestartInterval() > 0) {
+        metadata = writer.getDefaultImageMetadata(
+            ImageTypeSpecifier.createFromRenderedImage(image), iwparam);
+        tune(metadata, o.getSubsampling(), o.getRestartInterval());
+      }
+
+      writer.write(null, new IIOImage(image, null, metadata), iwparam);
+    } finally {
+      writer.dispose();
+    }
+  }
+
+  /**
+   * set the sampling factors of the components and the DRI marker
+   */
+  static void tune(IIOMetadata metadata, int subsampling, int restartInterval)
+      throws IOException {
+    if (!JPEG_METADATA.equals(metadata.getNativeMetadataFormatName())) return;
+    IIOMetadataNode tree = (IIOMetadataNode) metadata.getAsTree(JPEG_METADATA);
+
+    // only the luma is sampled at full resolution in 4:2:0
+    NodeList specs = tree.getElementsByTagName("componentSpec");
+    if (specs.getLength() == 3) {
+      String luma = subsampling == Options.SUBSAMPLING_444 ? "1" : "2";
+      for (int i = 0; i < specs.getLength(); i++) {
+        IIOMetadataNode spec = (IIOMetadataNode) specs.item(i);
+        spec.setAttribute("HsamplingFactor", i == 0 ? luma : "1");
+        spec.setAttribute("VsamplingFactor", i == 0 ? luma : "1");
+      }
+    }
+
+    Node sequence = tree.getElementsByTagName("markerSequence").item(0);
+    NodeList dri = tree.getElementsByTagName("dri");
+    for (int i = dri.getLength() - 1; i >= 0; i--)
+      dri.item(i).getParentNode().removeChild(dri.item(i));
+    if (restartInterval > 0 && sequence != null) {
+      IIOMetadataNode node = new IIOMetadataNode("dri");
+      node.setAttribute("interval", "" + restartInterval);
+      sequence.insertBefore(node, tree.getElementsByTagName("sof").item(0));
+    }
+
+    metadata.setFromTree(JPEG_METADATA, tree);
+  }
+}
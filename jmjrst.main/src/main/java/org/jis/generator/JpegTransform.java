@@ -0,0 +1,828 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Lossless rotation of baseline JPEGs by 90, 180 and 270 degrees. The
+ * quantized DCT coefficients are decoded, the coefficient blocks are
+ * transposed and mirrored and encoded again with optimized Huffman tables, like
+ * jpegtran does. No pixel is decoded, so there is no generation loss and
+ * rotating four times gives the same coefficients again. Like jpegtran
+ * -perfect, only images whose edges moving to the top or left end on an MCU
+ * boundary are rotated, a partial MCU there would have to be trimmed and
+ * the pixels would be lost. All APP and COM
+ * segments are kept.
+ * </p>
+ * <p>
+ * Only sequential huffman coded JPEGs with a single scan are supported,
+ * everything else has to be rotated by decoding the pixels.
+ * </p>
+ */
+public class JpegTransform {
+
+  private static final int[] ZIGZAG = {
+      0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5, 12, 19, 26, 33, 40, 48, 41, 34, 27,
+      20, 13, 6, 7, 14, 21, 28, 35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51, 58,
+      59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63
+  };
+
+  private static final int SOF0 = 0xC0;
+  private static final int SOF1 = 0xC1;
+  private static final int DHT = 0xC4;
+  private static final int SOI = 0xD8;
+  private static final int EOI = 0xD9;
+  private static final int SOS = 0xDA;
+  private static final int DQT = 0xDB;
+  private static final int DRI = 0xDD;
+  private static final int COM = 0xFE;
+
+  /*
+   * <p> A component of the frame with its quantized coefficients in natural
+   * order, 64 per block </p>
+   */
+  private static class Component {
+    int id;
+    int h;
+    int v;
+    int tq;
+    int td;
+    int ta;
+    int blocksW;
+    int blocksH;
+    short[] coef;
+    int pred;
+  }
+
+  /*
+   * <p> A huffman table for decoding and encoding </p>
+   */
+  private static class HuffTable {
+    int[] bits = new int[17];
+    int[] vals = new int[256];
+    int count;
+
+    // decoding
+    int[] maxcode = new int[18];
+    int[] valptr = new int[17];
+    int[] mincode = new int[17];
+
+    // encoding
+    int[] code = new int[256];
+    int[] size = new int[256];
+
+    void build() {
+      int k = 0;
+      int c = 0;
+      for (int l = 1; l <= 16; l++) {
+        valptr[l] = k;
+        mincode[l] = c;
+        for (int i = 0; i < bits[l]; i++) {
+          code[vals[k]] = c;
+          size[vals[k]] = l;
+          k++;
+          c++;
+        }
+        maxcode[l] = bits[l] > 0 ? c - 1 : -1;
+        c <<= 1;
+      }
+      maxcode[17] = Integer.MAX_VALUE;
+      count = k;
+    }
+  }
+
+  /*
+   * <p> Reads the entropy coded data bit by bit </p>
+   */
+  private static class BitReader {
+    private final byte[] data;
+    int pos;
+    private int buf;
+    private int cnt;
+
+    BitReader(byte[] data, int pos) {
+      this.data = data;
+      this.pos = pos;
+    }
+
+    int bit() {
+      if (cnt == 0) {
+        int b = 0;
+        if (pos < data.length) {
+          b = data[pos] & 0xFF;
+          if (b == 0xFF) {
+            int next = pos + 1 < data.length ? data[pos + 1] & 0xFF : 0;
+            if (next == 0) {
+              pos += 2;
+            } else {
+              // a marker, feed zeros until the decoder reaches it
+              b = 0;
+            }
+          } else {
+            pos++;
+          }
+        }
+        buf = b;
+        cnt = 8;
+      }
+      cnt--;
+      return (buf >> cnt) & 1;
+    }
+
+    int bits(int n) {
+      int v = 0;
+      for (int i = 0; i < n; i++)
+        v = (v << 1) | bit();
+      return v;
+    }
+
+    int decode(HuffTable t) throws IOException {
+      int c = bit();
+      int l = 1;
+      while (c > t.maxcode[l]) {
+        c = (c << 1) | bit();
+        if (++l > 16) throw new IOException("corrupt huffman data");
+      }
+      return t.vals[t.valptr[l] + c - t.mincode[l]];
+    }
+
+    /**
+     * skip to the next RST marker
+     */
+    void restart() throws IOException {
+      cnt = 0;
+      while (pos + 1 < data.length && !((data[pos] & 0xFF) == 0xFF && (data[pos + 1] & 0xF8) == 0xD0))
+        pos++;
+      if (pos + 1 >= data.length) throw new IOException("missing restart marker");
+      pos += 2;
+    }
+  }
+
+  /*
+   * <p> Writes the entropy coded data with byte stuffing, or only counts the
+   * symbols for the optimized huffman tables </p>
+   */
+  private static class BitWriter {
+    final ByteArrayOutputStream out;
+    final int[][] dcFreq;
+    final int[][] acFreq;
+    private int buf;
+    private int cnt;
+
+    BitWriter(ByteArrayOutputStream out, int[][] dcFreq, int[][] acFreq) {
+      this.out = out;
+      this.dcFreq = dcFreq;
+      this.acFreq = acFreq;
+    }
+
+    void bits(int value, int n) {
+      if (out == null) return;
+      for (int i = n - 1; i >= 0; i--) {
+        buf = (buf << 1) | ((value >> i) & 1);
+        if (++cnt == 8) {
+          out.write(buf);
+          if (buf == 0xFF) out.write(0);
+          buf = 0;
+          cnt = 0;
+        }
+      }
+    }
+
+    void symbol(HuffTable t, int[] freq, int symbol) {
+      if (out == null) freq[symbol]++;
+      else bits(t.code[symbol], t.size[symbol]);
+    }
+
+    void flush() {
+      if (out != null && cnt > 0) bits(0x7F, 8 - cnt);
+    }
+  }
+
+  private final List<byte[]> segments = new ArrayList<byte[]>();
+  private final int[][] qtables = new int[4][];
+  private final HuffTable[] dcTables = new HuffTable[4];
+  private final HuffTable[] acTables = new HuffTable[4];
+  private int width;
+  private int height;
+  private int hmax;
+  private int vmax;
+  private int restartInterval;
+  private Component[] components;
+  private Component[] scan;
+
+  private JpegTransform() {
+  }
+
+  /**
+   * <p>
+   * rotate a JPEG file losslessly, the file is replaced atomically
+   * </p>
+   *
+   * @param file
+   *          the JPEG file
+   * @param degrees
+   *          clockwise rotation, 90, 180 or 270
+   * @return false if the JPEG can not be rotated losslessly and was left
+   *         untouched
+   * @throws IOException
+   *           if the file could not be read or written
+   */
+  public static boolean rotate(File file, int degrees) throws IOException {
+    if (degrees % 360 == 0) return true;
+    byte[] rotated = rotate(Files.readAllBytes(file.toPath()), degrees);
+    if (rotated == null) return false;
+
+    Path tmp = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), ".rotate", ".tmp");
+    try {
+      Files.write(tmp, rotated);
+      copyPermissions(file.toPath(), tmp);
+      Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+    return true;
+  }
+
+  /**
+   * <p>
+   * give a temp file the permissions and the group of the file it replaces,
+   * a temp file is only readable by its owner
+   * </p>
+   */
+  static void copyPermissions(Path original, Path tmp) throws IOException {
+    PosixFileAttributeView view = Files.getFileAttributeView(original, PosixFileAttributeView.class);
+    // not a POSIX file system
+    if (view == null) return;
+    PosixFileAttributes attributes = view.readAttributes();
+    Files.setPosixFilePermissions(tmp, attributes.permissions());
+    try {
+      Files.getFileAttributeView(tmp, PosixFileAttributeView.class).setGroup(attributes.group());
+    } catch (IOException e) {
+      // only a member of the group may set it
+    }
+  }
+
+  /**
+   * @param jpeg
+   *          the JPEG data
+   * @param degrees
+   *          clockwise rotation, 90, 180 or 270
+   * @return the rotated JPEG or null if the JPEG can not be rotated losslessly
+   * @throws IOException
+   *           if the JPEG is corrupt
+   */
+  public static byte[] rotate(byte[] jpeg, int degrees) throws IOException {
+    degrees = ((degrees % 360) + 360) % 360;
+    if (degrees % 90 != 0) throw new IllegalArgumentException("degree must be a multiple of 90!");
+    if (degrees == 0) return jpeg;
+
+    JpegTransform t = new JpegTransform();
+    if (!t.read(jpeg)) return null;
+    return t.transform(degrees);
+  }
+
+  // ---------------------------------------------------------------- decoding
+
+  private boolean read(byte[] d) throws IOException {
+    if (d.length < 4 || (d[0] & 0xFF) != 0xFF || (d[1] & 0xFF) != SOI) return false;
+    int pos = 2;
+    boolean decoded = false;
+
+    while (pos + 4 <= d.length) {
+      if ((d[pos] & 0xFF) != 0xFF) throw new IOException("marker expected");
+      int marker = d[pos + 1] & 0xFF;
+      if (marker == 0xFF) {
+        pos++;
+        continue;
+      }
+      if (marker == EOI) break;
+      int len = ((d[pos + 2] & 0xFF) << 8) | (d[pos + 3] & 0xFF);
+      int start = pos + 4;
+      int end = pos + 2 + len;
+      if (end > d.length) throw new IOException("truncated segment");
+
+      if ((marker >= 0xE0 && marker <= 0xEF) || marker == COM) {
+        byte[] seg = new byte[len + 2];
+        System.arraycopy(d, pos, seg, 0, seg.length);
+        segments.add(seg);
+      } else if (marker == DQT) {
+        readDQT(d, start, end);
+      } else if (marker == DHT) {
+        readDHT(d, start, end);
+      } else if (marker == DRI) {
+        restartInterval = ((d[start] & 0xFF) << 8) | (d[start + 1] & 0xFF);
+      } else if (marker == SOF0 || marker == SOF1) {
+        if (!readSOF(d, start)) return false;
+      } else if (marker == SOS) {
+        // a second scan means a non interleaved or progressive image
+        if (decoded || components == null || !readSOS(d, start)) return false;
+        pos = decode(d, end);
+        decoded = true;
+        continue;
+      } else if (marker >= 0xC0 && marker <= 0xCF) {
+        // progressive, lossless or arithmetic coded
+        return false;
+      }
+      pos = end;
+    }
+    return decoded;
+  }
+
+  private void readDQT(byte[] d, int pos, int end) {
+    while (pos < end) {
+      int pq = (d[pos] & 0xFF) >> 4;
+      int tq = d[pos] & 0x0F;
+      pos++;
+      int[] table = new int[64];
+      for (int k = 0; k < 64; k++) {
+        if (pq == 0) {
+          table[ZIGZAG[k]] = d[pos++] & 0xFF;
+        } else {
+          table[ZIGZAG[k]] = ((d[pos] & 0xFF) << 8) | (d[pos + 1] & 0xFF);
+          pos += 2;
+        }
+      }
+      qtables[tq] = table;
+    }
+  }
+
+  private void readDHT(byte[] d, int pos, int end) {
+    while (pos < end) {
+      int tc = (d[pos] & 0xFF) >> 4;
+      int th = d[pos] & 0x0F;
+      pos++;
+      HuffTable t = new HuffTable();
+      int n = 0;
+      for (int l = 1; l <= 16; l++) {
+        t.bits[l] = d[pos++] & 0xFF;
+        n += t.bits[l];
+      }
+      for (int i = 0; i < n; i++)
+        t.vals[i] = d[pos++] & 0xFF;
+      t.build();
+      if (tc == 0) dcTables[th] = t;
+      else acTables[th] = t;
+    }
+  }
+
+  private boolean readSOF(byte[] d, int pos) {
+    if ((d[pos] & 0xFF) != 8) return false;
+    height = ((d[pos + 1] & 0xFF) << 8) | (d[pos + 2] & 0xFF);
+    width = ((d[pos + 3] & 0xFF) << 8) | (d[pos + 4] & 0xFF);
+    int n = d[pos + 5] & 0xFF;
+    if (height == 0 || width == 0 || n == 0) return false;
+    components = new Component[n];
+    pos += 6;
+    for (int i = 0; i < n; i++) {
+      Component c = new Component();
+      c.id = d[pos] & 0xFF;
+      c.h = (d[pos + 1] & 0xFF) >> 4;
+      c.v = d[pos + 1] & 0x0F;
+      c.tq = d[pos + 2] & 0xFF;
+      if (c.h < 1 || c.h > 4 || c.v < 1 || c.v > 4) return false;
+      hmax = Math.max(hmax, c.h);
+      vmax = Math.max(vmax, c.v);
+      components[i] = c;
+      pos += 3;
+    }
+    return true;
+  }
+
+  private boolean readSOS(byte[] d, int pos) {
+    int n = d[pos++] & 0xFF;
+    if (n != components.length) return false;
+    scan = new Component[n];
+    for (int i = 0; i < n; i++) {
+      int id = d[pos] & 0xFF;
+      for (Component c : components)
+        if (c.id == id) scan[i] = c;
+      if (scan[i] == null) return false;
+      scan[i].td = (d[pos + 1] & 0xFF) >> 4;
+      scan[i].ta = d[pos + 1] & 0x0F;
+      if (dcTables[scan[i].td] == null || acTables[scan[i].ta] == null) return false;
+      pos += 2;
+    }
+    // spectral selection and successive approximation of a sequential scan
+    return (d[pos] & 0xFF) == 0 && (d[pos + 1] & 0xFF) == 63 && (d[pos + 2] & 0xFF) == 0;
+  }
+
+  private int decode(byte[] d, int pos) throws IOException {
+    boolean interleaved = scan.length > 1;
+    int mcusX = ceil(width, 8 * hmax);
+    int mcusY = ceil(height, 8 * vmax);
+    for (Component c : components) {
+      if (interleaved) {
+        c.blocksW = mcusX * c.h;
+        c.blocksH = mcusY * c.v;
+      } else {
+        c.blocksW = ceil(ceil(width * c.h, hmax), 8);
+        c.blocksH = ceil(ceil(height * c.v, vmax), 8);
+      }
+      c.coef = new short[c.blocksW * c.blocksH * 64];
+      c.pred = 0;
+    }
+
+    BitReader in = new BitReader(d, pos);
+    int mcus = interleaved ? mcusX * mcusY : scan[0].blocksW * scan[0].blocksH;
+    for (int mcu = 0; mcu < mcus; mcu++) {
+      if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+        in.restart();
+        for (Component c : scan)
+          c.pred = 0;
+      }
+      if (interleaved) {
+        int mx = mcu % mcusX;
+        int my = mcu / mcusX;
+        for (Component c : scan)
+          for (int v = 0; v < c.v; v++)
+            for (int h = 0; h < c.h; h++)
+              decodeBlock(in, c, ((my * c.v + v) * c.blocksW + mx * c.h + h) * 64);
+      } else {
+        decodeBlock(in, scan[0], mcu * 64);
+      }
+    }
+
+    // continue behind the entropy coded data
+    int p = in.pos;
+    while (p + 1 < d.length && !((d[p] & 0xFF) == 0xFF && d[p + 1] != 0 && (d[p + 1] & 0xF8) != 0xD0))
+      p++;
+    return p;
+  }
+
+  private void decodeBlock(BitReader in, Component c, int offset) throws IOException {
+    int t = in.decode(dcTables[c.td]);
+    int diff = t == 0 ? 0 : extend(in.bits(t), t);
+    c.pred += diff;
+    c.coef[offset] = (short) c.pred;
+
+    HuffTable ac = acTables[c.ta];
+    for (int k = 1; k < 64;) {
+      int rs = in.decode(ac);
+      int r = rs >> 4;
+      int s = rs & 15;
+      if (s == 0) {
+        if (r != 15) break;
+        k += 16;
+        continue;
+      }
+      k += r;
+      if (k > 63) throw new IOException("corrupt coefficient data");
+      c.coef[offset + ZIGZAG[k]] = (short) extend(in.bits(s), s);
+      k++;
+    }
+  }
+
+  private static int extend(int v, int t) {
+    return v < (1 << (t - 1)) ? v - (1 << t) + 1 : v;
+  }
+
+  private static int ceil(int a, int b) {
+    return (a + b - 1) / b;
+  }
+
+  // --------------------------------------------------------------- transform
+
+  private byte[] transform(int degrees) throws IOException {
+    boolean interleaved = scan.length > 1;
+    boolean transpose = degrees != 180;
+    int unitX = interleaved ? 8 * hmax : 8;
+    int unitY = interleaved ? 8 * vmax : 8;
+
+    // a partial MCU on an edge which moves to the top or left can not be
+    // moved, the pixel rotation keeps it
+    int w = width;
+    int h = height;
+    if ((degrees == 90 || degrees == 180) && h % unitY != 0) return null;
+    if ((degrees == 270 || degrees == 180) && w % unitX != 0) return null;
+
+    int outW = transpose ? h : w;
+    int outH = transpose ? w : h;
+    int outHmax = transpose ? vmax : hmax;
+    int outVmax = transpose ? hmax : vmax;
+    int outMcusX = ceil(outW, 8 * outHmax);
+    int outMcusY = ceil(outH, 8 * outVmax);
+
+    Component[] out = new Component[components.length];
+    for (int i = 0; i < components.length; i++) {
+      Component src = components[i];
+      Component c = new Component();
+      c.id = src.id;
+      c.tq = src.tq;
+      c.td = src.td;
+      c.ta = src.ta;
+      c.h = transpose ? src.v : src.h;
+      c.v = transpose ? src.h : src.v;
+      if (interleaved) {
+        c.blocksW = outMcusX * c.h;
+        c.blocksH = outMcusY * c.v;
+      } else {
+        c.blocksW = ceil(outW, 8);
+        c.blocksH = ceil(outH, 8);
+      }
+      c.coef = new short[c.blocksW * c.blocksH * 64];
+
+      // number of whole blocks of the source on the axes which move
+      int srcW = interleaved ? w / 8 * src.h / hmax : w / 8;
+      int srcH = interleaved ? h / 8 * src.v / vmax : h / 8;
+
+      for (int dy = 0; dy < c.blocksH; dy++) {
+        for (int dx = 0; dx < c.blocksW; dx++) {
+          int sx;
+          int sy;
+          if (degrees == 90) {
+            sx = dy;
+            sy = srcH - 1 - dx;
+          } else if (degrees == 270) {
+            sx = srcW - 1 - dy;
+            sy = dx;
+          } else {
+            sx = srcW - 1 - dx;
+            sy = srcH - 1 - dy;
+          }
+          // blocks of the padding are copied from the edge
+          sx = Math.max(0, Math.min(sx, src.blocksW - 1));
+          sy = Math.max(0, Math.min(sy, src.blocksH - 1));
+          transformBlock(src.coef, (sy * src.blocksW + sx) * 64, c.coef,
+              (dy * c.blocksW + dx) * 64, degrees);
+        }
+      }
+      out[i] = c;
+    }
+
+    Component[] outScan = new Component[scan.length];
+    for (int i = 0; i < scan.length; i++)
+      for (int j = 0; j < components.length; j++)
+        if (components[j] == scan[i]) outScan[i] = out[j];
+
+    return write(out, outScan, outW, outH, outMcusX, outMcusY, transpose);
+  }
+
+  private static void transformBlock(short[] src, int s, short[] dst, int d, int degrees) {
+    for (int r = 0; r < 8; r++) {
+      for (int c = 0; c < 8; c++) {
+        if (degrees == 90) {
+          // transpose and mirror the columns
+          int v = src[s + c * 8 + r];
+          dst[d + r * 8 + c] = (short) ((c & 1) == 0 ? v : -v);
+        } else if (degrees == 270) {
+          // transpose and mirror the rows
+          int v = src[s + c * 8 + r];
+          dst[d + r * 8 + c] = (short) ((r & 1) == 0 ? v : -v);
+        } else {
+          int v = src[s + r * 8 + c];
+          dst[d + r * 8 + c] = (short) (((r + c) & 1) == 0 ? v : -v);
+        }
+      }
+    }
+  }
+
+  // ---------------------------------------------------------------- encoding
+
+  private byte[] write(Component[] comps, Component[] outScan, int outW, int outH, int mcusX,
+      int mcusY, boolean transpose) throws IOException {
+    // first pass counts the symbols for the optimized huffman tables
+    int[][] dcFreq = new int[4][257];
+    int[][] acFreq = new int[4][257];
+    encode(new BitWriter(null, dcFreq, acFreq), outScan, mcusX, mcusY, null, null);
+
+    HuffTable[] dc = new HuffTable[4];
+    HuffTable[] ac = new HuffTable[4];
+    for (Component c : outScan) {
+      if (dc[c.td] == null) dc[c.td] = optimalTable(dcFreq[c.td]);
+      if (ac[c.ta] == null) ac[c.ta] = optimalTable(acFreq[c.ta]);
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(0xFF);
+    out.write(SOI);
+    for (byte[] seg : segments)
+      out.write(seg);
+
+    // quantization tables, transposed with the coefficients
+    for (int i = 0; i < 4; i++) {
+      if (qtables[i] == null) continue;
+      boolean wide = false;
+      for (int q : qtables[i])
+        wide |= q > 255;
+      marker(out, DQT, 1 + (wide ? 128 : 64));
+      out.write((wide ? 0x10 : 0) | i);
+      for (int k = 0; k < 64; k++) {
+        int n = ZIGZAG[k];
+        int q = qtables[i][transpose ? (n % 8) * 8 + n / 8 : n];
+        if (wide) out.write(q >> 8);
+        out.write(q & 0xFF);
+      }
+    }
+
+    marker(out, SOF0, 6 + 3 * comps.length);
+    out.write(8);
+    out.write(outH >> 8);
+    out.write(outH & 0xFF);
+    out.write(outW >> 8);
+    out.write(outW & 0xFF);
+    out.write(comps.length);
+    for (Component c : comps) {
+      out.write(c.id);
+      out.write((c.h << 4) | c.v);
+      out.write(c.tq);
+    }
+
+    for (int i = 0; i < 4; i++) {
+      if (dc[i] != null) writeDHT(out, 0, i, dc[i]);
+      if (ac[i] != null) writeDHT(out, 1, i, ac[i]);
+    }
+
+    marker(out, SOS, 4 + 2 * outScan.length);
+    out.write(outScan.length);
+    for (Component c : outScan) {
+      out.write(c.id);
+      out.write((c.td << 4) | c.ta);
+    }
+    out.write(0);
+    out.write(63);
+    out.write(0);
+
+    BitWriter bw = new BitWriter(out, null, null);
+    encode(bw, outScan, mcusX, mcusY, dc, ac);
+    bw.flush();
+
+    out.write(0xFF);
+    out.write(EOI);
+    return out.toByteArray();
+  }
+
+  private static void marker(ByteArrayOutputStream out, int marker, int len) {
+    out.write(0xFF);
+    out.write(marker);
+    out.write((len + 2) >> 8);
+    out.write((len + 2) & 0xFF);
+  }
+
+  private static void writeDHT(ByteArrayOutputStream out, int tc, int th, HuffTable t) {
+    marker(out, DHT, 17 + t.count);
+    out.write((tc << 4) | th);
+    for (int l = 1; l <= 16; l++)
+      out.write(t.bits[l]);
+    for (int i = 0; i < t.count; i++)
+      out.write(t.vals[i]);
+  }
+
+  private static void encode(BitWriter out, Component[] scan, int mcusX, int mcusY,
+      HuffTable[] dc, HuffTable[] ac) {
+    for (Component c : scan)
+      c.pred = 0;
+
+    if (scan.length > 1) {
+      for (int my = 0; my < mcusY; my++)
+        for (int mx = 0; mx < mcusX; mx++)
+          for (Component c : scan)
+            for (int v = 0; v < c.v; v++)
+              for (int h = 0; h < c.h; h++)
+                encodeBlock(out, c, ((my * c.v + v) * c.blocksW + mx * c.h + h) * 64, dc, ac);
+    } else {
+      Component c = scan[0];
+      for (int b = 0; b < c.blocksW * c.blocksH; b++)
+        encodeBlock(out, c, b * 64, dc, ac);
+    }
+  }
+
+  private static void encodeBlock(BitWriter out, Component c, int offset, HuffTable[] dc,
+      HuffTable[] ac) {
+    int diff = c.coef[offset] - c.pred;
+    c.pred = c.coef[offset];
+    int nbits = bitCount(diff);
+    out.symbol(dc == null ? null : dc[c.td], out.dcFreq == null ? null : out.dcFreq[c.td], nbits);
+    if (nbits > 0) out.bits(diff < 0 ? diff - 1 : diff, nbits);
+
+    HuffTable t = ac == null ? null : ac[c.ta];
+    int[] freq = out.acFreq == null ? null : out.acFreq[c.ta];
+    int run = 0;
+    for (int k = 1; k < 64; k++) {
+      int v = c.coef[offset + ZIGZAG[k]];
+      if (v == 0) {
+        run++;
+        continue;
+      }
+      while (run > 15) {
+        out.symbol(t, freq, 0xF0);
+        run -= 16;
+      }
+      nbits = bitCount(v);
+      out.symbol(t, freq, (run << 4) | nbits);
+      out.bits(v < 0 ? v - 1 : v, nbits);
+      run = 0;
+    }
+    if (run > 0) out.symbol(t, freq, 0x00);
+  }
+
+  private static int bitCount(int v) {
+    return v == 0 ? 0 : 32 - Integer.numberOfLeadingZeros(Math.abs(v));
+  }
+
+  /**
+   * <p>
+   * build the optimal huffman table for the symbol frequencies, see Annex K.2
+   * of the JPEG standard
+   * </p>
+   */
+  private static HuffTable optimalTable(int[] counts) {
+    long[] freq = new long[257];
+    for (int i = 0; i < 256; i++)
+      freq[i] = counts[i];
+    // reserved symbol, no code may consist of ones only
+    freq[256] = 1;
+
+    int[] codesize = new int[257];
+    int[] others = new int[257];
+    for (int i = 0; i < 257; i++)
+      others[i] = -1;
+
+    while (true) {
+      int c1 = -1;
+      long v = Long.MAX_VALUE;
+      for (int i = 0; i <= 256; i++)
+        if (freq[i] > 0 && freq[i] <= v) {
+          v = freq[i];
+          c1 = i;
+        }
+      int c2 = -1;
+      v = Long.MAX_VALUE;
+      for (int i = 0; i <= 256; i++)
+        if (freq[i] > 0 && freq[i] <= v && i != c1) {
+          v = freq[i];
+          c2 = i;
+        }
+      if (c2 < 0) break;
+
+      freq[c1] += freq[c2];
+      freq[c2] = 0;
+      codesize[c1]++;
+      while (others[c1] >= 0) {
+        c1 = others[c1];
+        codesize[c1]++;
+      }
+      others[c1] = c2;
+      codesize[c2]++;
+      while (others[c2] >= 0) {
+        c2 = others[c2];
+        codesize[c2]++;
+      }
+    }
+
+    int[] bits = new int[33];
+    for (int i = 0; i <= 256; i++)
+      if (codesize[i] > 0) bits[codesize[i]]++;
+
+    // limit the code length to 16 bits
+    for (int i = 32; i > 16; i--) {
+      while (bits[i] > 0) {
+        int j = i - 2;
+        while (bits[j] == 0)
+          j--;
+        bits[i] -= 2;
+        bits[i - 1]++;
+        bits[j + 1] += 2;
+        bits[j]--;
+      }
+    }
+    int i = 16;
+    while (bits[i] == 0)
+      i--;
+    // remove the reserved symbol
+    bits[i]--;
+
+    HuffTable t = new HuffTable();
+    System.arraycopy(bits, 1, t.bits, 1, 16);
+    int p = 0;
+    for (int l = 1; l <= 32; l++)
+      for (int s = 0; s < 256; s++)
+        if (codesize[s] == l) t.vals[p++] = s;
+    t.build();
+    return t;
+  }
+}
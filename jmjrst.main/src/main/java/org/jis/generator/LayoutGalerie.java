@@ -24,8 +24,19 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import javax.swing.JOptionPane;
 import javax.swing.ProgressMonitor;
 
@@ -122,6 +133,38 @@ public class LayoutGalerie {
 	      {
 	        m.status.setStatusOn();
 	        // createCSS();
+
+	        // only the first picture of every burst
+	        if (o.isBurstFilter())
+	        {
+	          int all = images.length;
+	          String filtered;
+	          boolean failed = true;
+	          try
+	          {
+	            images = BurstFilter.onePerBurst(images, o.getBurstDistance());
+	            filtered = (all - images.length) + m.mes.getString("Generator.58");
+	            failed = false;
+	          }
+	          catch (InterruptedException e)
+	          {
+	            // the gallery is built unfiltered, whoever interrupted sees it
+	            Thread.currentThread().interrupt();
+	            filtered = m.mes.getString("Generator.59") + e;
+	          }
+	          catch (RuntimeException e)
+	          {
+	            filtered = m.mes.getString("Generator.59") + e;
+	          }
+	          try
+	          {
+	            m.jOutputDoc.insertString(m.jOutputDoc.getLength(), filtered + ls + ls, failed ? m.errorAtr : m.outputAtr);
+	          }
+	          catch (Exception e)
+	          {
+	            System.out.println(filtered);
+	          }
+	        }
 	
 	        StringBuilder sb_file = new StringBuilder("");
 	        try
@@ -163,6 +206,8 @@ public class LayoutGalerie {
 	          small.mkdir();
 	          if (layout.isMediumCreate()) medium.mkdir();
 	          if (layout.isBigCreate()) big.mkdir();
+	          for (int width : layout.getSrcset())
+	            Element.ladderDir(directory, width).mkdir();
 	        }
 	        catch (Exception e)
 	        {
@@ -187,6 +232,17 @@ public class LayoutGalerie {
 	        File out_m;
 	        File out_b;
 	        ArrayList<Element> elements = new ArrayList<Element>();
+
+	        // the small images of a page are packed into one sprite sheet
+	        int perPage = layout.getType().equalsIgnoreCase("multiple") ? layout.getMax_pictures_on_site() : images.length;
+	        SpriteSheet sprite = null;
+
+	        // the width ladder is scaled down from the largest width
+	        int[] ladder = new int[layout.getSrcset().length];
+	        for (int i = 0; i < ladder.length; i++)
+	          ladder[i] = layout.getSrcset()[ladder.length - 1 - i];
+	        // no width is scaled up, the srcset names only the widths there are
+	        int[] widths = ladder.length > 0 ? uprightWidths(images) : null;
 	
 	        for (int i = 0; i < images.length; i++)
 	        {
@@ -205,9 +261,18 @@ public class LayoutGalerie {
 	          j++;
 	          count++;
 	
+	          // the sizes of an image with a ladder are scaled from its decode
+	          int[] rungs = ladder.length > 0 ? fit(ladder, widths[i]) : ladder;
+	          ArrayList<Element> sizes = new ArrayList<Element>();
+
 	          // generate small image
-	          out_s = new File(small, images[i].getName());
-	          elements.add(new Element(i, images[i], layout.getSmallWidth(), layout.getSmallHeight(), small));
+	          out_s = new File(small, Encoders.outputName(images[i].getName()));
+	          if (layout.isSprite())
+	          {
+	            if (i % perPage == 0) sprite = new SpriteSheet(small, i / perPage, i, Math.min(perPage, images.length - i), layout.getSmallWidth(), layout.getSmallHeight());
+	            elements.add(new Element(i, images[i], layout.getSmallWidth(), layout.getSmallHeight(), sprite));
+	          }
+	          else sizes.add(new Element(i, images[i], layout.getSmallWidth(), layout.getSmallHeight(), small));
 	
 	          try
 	          {
@@ -221,10 +286,10 @@ public class LayoutGalerie {
 	          }
 	
 	          // generate medium image
-	          out_m = new File(medium, images[i].getName());
+	          out_m = new File(medium, Encoders.outputName(images[i].getName()));
 	          if (layout.isMediumCreate())
 	          {
-	            elements.add(new Element(i, images[i], layout.getMediumWidth(), layout.getMediumHeight(), medium));
+	            sizes.add(new Element(i, images[i], layout.getMediumWidth(), layout.getMediumHeight(), medium));
 	          }
 	
 	          try
@@ -239,26 +304,28 @@ public class LayoutGalerie {
 	          }
 	
 	          // generate big image
-	          out_b = new File(big, images[i].getName());
+	          out_b = new File(big, Encoders.outputName(images[i].getName()));
 	          if (layout.isBigCreate())
 	          {
-	            elements.add(new Element(i, images[i], layout.getBigWidth(), layout.getBigHeight(), big));
+	            sizes.add(new Element(i, images[i], layout.getBigWidth(), layout.getBigHeight(), big));
 	          }
+	          if (rungs.length > 0) elements.add(new Element(i, images[i], rungs, sizes.toArray(new Element[sizes.size()]), directory));
+	          else elements.addAll(sizes);
 	
 	          if (layout.isMediumCreate())
 	          {
 	
 	            if (i == 0)
 	            {
-	              createPreview(i, medium, out_m.getName(), out_b.getName(), false, true);
+	              createPreview(i, medium, out_m.getName(), out_b.getName(), rungs, false, true);
 	            }
 	            else if (i == (images.length - 1))
 	            {
-	              createPreview(i, medium, out_m.getName(), out_b.getName(), true, false);
+	              createPreview(i, medium, out_m.getName(), out_b.getName(), rungs, true, false);
 	            }
 	            else
 	            {
-	              createPreview(i, medium, out_m.getName(), out_b.getName(), true, true);
+	              createPreview(i, medium, out_m.getName(), out_b.getName(), rungs, true, true);
 	            }
 	          }
 	
@@ -277,6 +344,7 @@ public class LayoutGalerie {
 	
 	          // TABLE CELL
 	          String titel = createTitle(out_s.getName());
+	          String thumb = sprite != null ? SpriteSheet.element(i, titel) : "<img src=\"small/" + out_s.getName() + "\"" + srcset("", out_s.getName(), rungs, layout.getSmallWidth() + "px") + " alt=\"" + titel + "\" />";
 	          String listType = "div";
 	          if (layout.getListType().equalsIgnoreCase("list"))
 	          {
@@ -287,15 +355,12 @@ public class LayoutGalerie {
 	            StringBuffer oc = new StringBuffer(layout.getOnclickSmall());
 	            if (oc.indexOf("::inum::") > 0) oc.replace(oc.indexOf("::inum::"), oc.indexOf("::inum::") + 8, "" + i);
 	
-	            sb_files.append("      <" + listType + " class=\"picture\" id=\"pi" + i + "\"><a href=\"#\" class=\"imagelink\" id=\"api" + i + "\" onClick=\"" + oc.toString() + "\"  " + layout.getAProperty() + " title=\"" + titel + "\"><img src=\"small/" + out_s.getName()
-	                            + "\" alt=\"" + titel + "\" /></a></" + listType + ">\n");
+	            sb_files.append("      <" + listType + " class=\"picture\" id=\"pi" + i + "\"><a href=\"#\" class=\"imagelink\" id=\"api" + i + "\" onClick=\"" + oc.toString() + "\"  " + layout.getAProperty() + " title=\"" + titel + "\">" + thumb + "</a></" + listType + ">\n");
 	          }
 	          else
 	          {
-	            if (layout.isMediumCreate()) sb_files.append("      <" + listType + " class=\"picture\" id=\"pi" + i + "\"><a class=\"imagelink\" id=\"api" + i + "\" href=\"medium/image" + i + ".html\" " + layout.getAProperty() + " title=\"" + titel + "\"><img src=\"small/"
-	                                                         + out_s.getName() + "\" alt=\"" + titel + "\" /></a></" + listType + ">\n");
-	            else sb_files.append("      <" + listType + " class=\"picture\" id=\"pi" + i + "\"><a class=\"imagelink\" id=\"api" + i + "\" href=\"big/" + out_b.getName() + "\" " + layout.getAProperty() + " title=\"" + titel + "\"><img src=\"small/" + out_s.getName() + "\" alt=\""
-	                                 + titel + "\" /></a></" + listType + ">\n");
+	            if (layout.isMediumCreate()) sb_files.append("      <" + listType + " class=\"picture\" id=\"pi" + i + "\"><a class=\"imagelink\" id=\"api" + i + "\" href=\"medium/image" + i + ".html\" " + layout.getAProperty() + " title=\"" + titel + "\">" + thumb + "</a></" + listType + ">\n");
+	            else sb_files.append("      <" + listType + " class=\"picture\" id=\"pi" + i + "\"><a class=\"imagelink\" id=\"api" + i + "\" href=\"big/" + out_b.getName() + "\" " + layout.getAProperty() + " title=\"" + titel + "\">" + thumb + "</a></" + listType + ">\n");
 	          }
 	
 	          try
@@ -323,6 +388,7 @@ public class LayoutGalerie {
 	            if (sb_file.indexOf("::footer::") > 0) sb_file.replace(sb_file.indexOf("::footer::"), sb_file.indexOf("::footer::") + 10, m.mes.getString("Generator.47") + m.mes.getString("Main.0") + " " + m.mes.getString("AboutBox.22") + " " + m.mes.getString("Version")
 	                                                                                                                                      + "</a><br />" + layout.getFooter());
 	
+	            if (sprite != null) linkSprite(sb_file, sprite);
 	            if (page > 0) index = "index" + page + "." + layout.getPrefix();
 	
 	            sb_files = new StringBuilder("");
@@ -367,6 +433,7 @@ public class LayoutGalerie {
 	          if (sb_file.indexOf("::pages::") > 0) sb_file.replace(sb_file.indexOf("::pages::"), sb_file.indexOf("::pages::") + 9, sb_pages.toString());
 	          if (sb_file.indexOf("::footer::") > 0) sb_file.replace(sb_file.indexOf("::footer::"), sb_file.indexOf("::footer::") + 10, m.mes.getString("Generator.47") + m.mes.getString("Main.0") + " " + m.mes.getString("AboutBox.22") + " " + m.mes.getString("Version")
 	                                                                                                                                    + "</a><br />" + layout.getFooter());
+	          if (sprite != null) linkSprite(sb_file, sprite);
 	          if (page > 0) index = "index" + page + "." + layout.getPrefix() + "";
 	          try
 	          {
@@ -393,31 +460,7 @@ public class LayoutGalerie {
 	
 	        Element[] els = new Element[ elements.size()];
 	        Producer producer = new Producer(m, elements.toArray(els), "");
-	        Thread producerThread = new Thread(producer);
-	        int cpus = Runtime.getRuntime().availableProcessors();
-	        Thread consumerThreads[] = new Thread[ cpus];
-	        for (int i = 0; i < cpus; i++)
-	        {
-	          consumerThreads[i] = new Thread(new Consumer(producer, m, false, null));
-	        }
-	
-	        producerThread.start();
-	        for (int i = 0; i < cpus; i++)
-	        {
-	          consumerThreads[i].start();
-	        }
-	
-	        try
-	        {
-	          producerThread.join();
-	          for (int i = 0; i < cpus; i++)
-	          {
-	            consumerThreads[i].join();
-	          }
-	        }
-	        catch (InterruptedException ignore)
-	        {
-	        }
+	        new Pipeline(producer, m, false, null).run();
 	
 	        m.status.setStatusOff();
 	        m.p_monitor.close();
@@ -427,10 +470,11 @@ public class LayoutGalerie {
     }
   }
 
-  private void createPreview(int t, File file, String m_name, String b_name, boolean back, boolean next)
+  private void createPreview(int t, File file, String m_name, String b_name, int[] ladder, boolean back, boolean next)
   {
     StringBuilder sb = new StringBuilder();
     String title = createTitle(m_name);
+    String srcset = srcset("../", m_name, ladder, layout.getSizes());
 
     String listType = "div";
     if (layout.getListType().equalsIgnoreCase("list"))
@@ -505,15 +549,15 @@ public class LayoutGalerie {
           StringBuffer oc = new StringBuffer(layout.getOnclickMedium());
           if (oc.indexOf("::inum::") > 0) oc.replace(oc.indexOf("::inum::"), oc.indexOf("::inum::") + 8, "" + t);
 
-          sb.replace(sb.indexOf("::pic::"), sb.indexOf("::pic::") + 8, "<" + listType + " id=\"preview\"><a href=\"\" onClick=\"" + oc.toString() + "\" title=\"" + title + "\"><img src=\"" + m_name + "\" alt=\"" + title + "\" /></a></" + listType + ">\n");
+          sb.replace(sb.indexOf("::pic::"), sb.indexOf("::pic::") + 8, "<" + listType + " id=\"preview\"><a href=\"\" onClick=\"" + oc.toString() + "\" title=\"" + title + "\"><img src=\"" + m_name + "\"" + srcset + " alt=\"" + title + "\" /></a></" + listType + ">\n");
 
         }
         else
         {
-          sb.replace(sb.indexOf("::pic::"), sb.indexOf("::pic::") + 8, "<" + listType + " id=\"preview\"><a href=\"../big/" + b_name + "\" title=\"" + title + "\"><img src=\"" + m_name + "\" alt=\"" + title + "\" /></a></" + listType + ">\n");
+          sb.replace(sb.indexOf("::pic::"), sb.indexOf("::pic::") + 8, "<" + listType + " id=\"preview\"><a href=\"../big/" + b_name + "\" title=\"" + title + "\"><img src=\"" + m_name + "\"" + srcset + " alt=\"" + title + "\" /></a></" + listType + ">\n");
         }
       }
-      else sb.replace(sb.indexOf("::pic::"), sb.indexOf("::pic::") + 8, "<" + listType + " id=\"preview\"><img src=\"" + m_name + "\" alt=\"" + title + "\" /></" + listType + ">\n");
+      else sb.replace(sb.indexOf("::pic::"), sb.indexOf("::pic::") + 8, "<" + listType + " id=\"preview\"><img src=\"" + m_name + "\"" + srcset + " alt=\"" + title + "\" /></" + listType + ">\n");
     }
     if (sb.indexOf("::footer::") > 0) sb.replace(sb.indexOf("::footer::"), sb.indexOf("::footer::") + 10, m.mes.getString("Generator.47") + m.mes.getString("Main.0") + " " + m.mes.getString("AboutBox.22") + " " + m.mes.getString("Version") + "</a><br />" + layout.getFooter());
 
@@ -529,6 +573,15 @@ public class LayoutGalerie {
     }
   }
 
+  /**
+   * link the style sheet with the offsets of the small images into the page
+   */
+  private void linkSprite(StringBuilder sb, SpriteSheet sprite)
+  {
+    int head = sb.indexOf("</head>");
+    sb.insert(Math.max(head, 0), "<link rel=\"stylesheet\" type=\"text/css\" href=\"small/" + sprite.css.getName() + "\" />\n");
+  }
+
   public void copyDir(File quelle, File ziel) throws FileNotFoundException, IOException
   {
     File[] files = quelle.listFiles();
@@ -560,6 +613,117 @@ public class LayoutGalerie {
     out.close();
   }
 
+  /**
+   * @param dir
+   *          path from the page to the gallery directory
+   * @param name
+   *          file name of the scaled image
+   * @param ladder
+   *          the widths scaled for the image, in descending order
+   * @param sizes
+   *          the displayed width of the image
+   * @return the srcset and sizes attributes of the width ladder, empty
+   *         without a ladder
+   */
+  private String srcset(String dir, String name, int[] ladder, String sizes)
+  {
+    if (ladder.length == 0) return "";
+
+    StringBuilder sb = new StringBuilder(" srcset=\"");
+    for (int i = ladder.length - 1; i >= 0; i--)
+    {
+      if (i < ladder.length - 1) sb.append(", ");
+      sb.append(dir + Element.ladderName(ladder[i]) + "/" + name + " " + ladder[i] + "w");
+    }
+    return sb.append("\" sizes=\"" + sizes + "\"").toString();
+  }
+
+  /**
+   * @param ladder
+   *          widths in descending order
+   * @return the widths not larger than the width of the image
+   */
+  static int[] fit(int[] ladder, int width)
+  {
+    int first = 0;
+    while (first < ladder.length && ladder[first] > width)
+      first++;
+    int[] fit = new int[ladder.length - first];
+    System.arraycopy(ladder, first, fit, 0, fit.length);
+    return fit;
+  }
+
+  /**
+   * @return the upright widths of the images, the headers are read in
+   *         parallel
+   */
+  static int[] uprightWidths(final File[] images)
+  {
+    int[] widths = new int[images.length];
+    ExecutorService pool = Executors.newFixedThreadPool(Pipeline.IO_THREADS);
+    try
+    {
+      List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+      for (final File image : images)
+        futures.add(pool.submit(new Callable<Integer>()
+        {
+          public Integer call()
+          {
+            return uprightWidth(image);
+          }
+        }));
+      for (int i = 0; i < widths.length; i++)
+        widths[i] = futures.get(i).get();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      Arrays.fill(widths, Integer.MAX_VALUE);
+    }
+    catch (ExecutionException e)
+    {
+      // uprightWidth catches every exception
+      throw new IllegalStateException(e.getCause());
+    }
+    finally
+    {
+      pool.shutdownNow();
+    }
+    return widths;
+  }
+
+  /**
+   * @return the width of the image as it is shown, from the header and the
+   *         EXIF orientation, without decoding it. Unknown for an unreadable
+   *         image, which fails when it is scaled.
+   */
+  static int uprightWidth(File file)
+  {
+    try (ImageInputStream iis = ImageIO.createImageInputStream(file))
+    {
+      Iterator<ImageReader> readers = iis == null ? null : ImageIO.getImageReaders(iis);
+      if (readers == null || !readers.hasNext()) return Integer.MAX_VALUE;
+      ImageReader reader = readers.next();
+      try
+      {
+        reader.setInput(iis, true);
+        return ExifOrientation.read(file) >= 5 ? reader.getHeight(0) : reader.getWidth(0);
+      }
+      finally
+      {
+        reader.dispose();
+      }
+    }
+    catch (IOException e)
+    {
+      return Integer.MAX_VALUE;
+    }
+    catch (RuntimeException e)
+    {
+      return Integer.MAX_VALUE;
+    }
+  }
+
   private String createTitle(String filename)
   {
     filename = filename.substring(0, filename.lastIndexOf("."));
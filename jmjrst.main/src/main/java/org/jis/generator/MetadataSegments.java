@@ -0,0 +1,419 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * <p>
+ * The metadata segments of a JPEG as raw bytes, read from the marker segments
+ * in front of the image data. They are written into the scaled JPEG as they
+ * are, there is no IIOMetadata tree per image. The segments are chosen by
+ * kind, "exif", "xmp", "icc", "iptc" and "comment". The EXIF segment is
+ * rebuilt without the tags to strip, e.g. the MakerNote or the thumbnail in
+ * IFD1, with the orientation reset and the dimensions of the scaled image.
+ * </p>
+ */
+public class MetadataSegments {
+
+  /**
+   * the metadata of an image without any
+   */
+  public static final MetadataSegments NONE             = new MetadataSegments(
+                                                            new ArrayList<byte[]>());
+
+  private static final int             APP0             = 0xE0;
+  private static final int             APP1             = 0xE1;
+  private static final int             APP2             = 0xE2;
+  private static final int             APP13            = 0xED;
+  private static final int             APP15            = 0xEF;
+  private static final int             COM              = 0xFE;
+
+  private static final int             TAG_ORIENTATION  = 0x0112;
+  private static final int             TAG_THUMBNAIL    = 0x0201;
+  private static final int             TAG_THUMB_LENGTH = 0x0202;
+  private static final int             TAG_EXIF_IFD     = 0x8769;
+  private static final int             TAG_GPS_IFD      = 0x8825;
+  private static final int             TAG_INTEROP_IFD  = 0xA005;
+  private static final int             TAG_MAKER_NOTE   = 0x927C;
+  private static final int             TAG_WIDTH        = 0xA002;
+  private static final int             TAG_HEIGHT       = 0xA003;
+
+  private static final int             SHORT            = 3;
+  private static final int             LONG             = 4;
+
+  /**
+   * bytes of a value of the TIFF types 1 to 13
+   */
+  private static final int[]           TYPE_SIZES       = {
+      0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8, 4
+                                                        };
+
+  /**
+   * "Exif\0\0" and the marker with its length
+   */
+  private static final int             TIFF             = 10;
+
+  private final List<byte[]>           segments;
+
+  /**
+   * stream positions of the markers of the ICC segments
+   */
+  private final List<Long>             iccMarkers       = new ArrayList<Long>();
+
+  private MetadataSegments(List<byte[]> segments) {
+    this.segments = segments;
+  }
+
+  /**
+   * <p>
+   * read the metadata segments, the stream is left at its position
+   * </p>
+   *
+   * @param iis
+   *          the image
+   * @return the segments, none if the image is no JPEG
+   * @throws IOException
+   *           if the image could not be read
+   */
+  public static MetadataSegments read(ImageInputStream iis) throws IOException {
+    MetadataSegments metadata = new MetadataSegments(new ArrayList<byte[]>());
+    long start = iis.getStreamPosition();
+    try {
+      if (iis.read() != 0xFF || iis.read() != 0xD8) return NONE;
+      while (true) {
+        long position = iis.getStreamPosition() + 1;
+        int ff = iis.read();
+        int marker = iis.read();
+        // the metadata comes before the frame
+        if (ff != 0xFF || marker < APP0 || marker == 0xFF) break;
+        int len = iis.readUnsignedShort();
+        if (len < 2) break;
+
+        byte[] segment = new byte[len + 2];
+        segment[0] = (byte) 0xFF;
+        segment[1] = (byte) marker;
+        segment[2] = (byte) (len >> 8);
+        segment[3] = (byte) len;
+        iis.readFully(segment, 4, len - 2);
+        String kind = kind(segment);
+        if (kind == null) continue;
+        metadata.segments.add(segment);
+        if (kind.equals("icc")) metadata.iccMarkers.add(position);
+      }
+    } catch (IOException e) {
+      // a truncated header, the segments so far are kept
+    } finally {
+      iis.seek(start);
+    }
+    return metadata;
+  }
+
+  /**
+   * @return the embedded ICC profile, null if there is none or a part is
+   *         missing
+   */
+  public byte[] getIccProfile() {
+    // the parts are numbered from 1 to their count
+    byte[][] parts = null;
+    int size = 0;
+    for (byte[] segment : segments) {
+      if (!"icc".equals(kind(segment)) || segment.length < 18) continue;
+      int seq = segment[16] & 0xFF;
+      int count = segment[17] & 0xFF;
+      if (parts == null) parts = new byte[count][];
+      if (seq < 1 || seq > parts.length || count != parts.length) return null;
+      parts[seq - 1] = segment;
+      size += segment.length - 18;
+    }
+    if (parts == null) return null;
+
+    byte[] icc = new byte[size];
+    int pos = 0;
+    for (byte[] part : parts) {
+      if (part == null) return null;
+      System.arraycopy(part, 18, icc, pos, part.length - 18);
+      pos += part.length - 18;
+    }
+    return icc;
+  }
+
+  /**
+   * <p>
+   * let the ICC segments read as unknown segments, so the reader decodes the
+   * pixels without converting them
+   * </p>
+   *
+   * @param iis
+   *          the stream the segments were read from
+   * @return false if the stream cannot hide them
+   */
+  boolean hideIccProfile(ImageInputStream iis) {
+    if (iccMarkers.isEmpty() || !(iis instanceof ByteBufferImageInputStream)) return false;
+    for (long position : iccMarkers)
+      ((ByteBufferImageInputStream) iis).replace(position, (byte) APP15);
+    return true;
+  }
+
+  /**
+   * @return the EXIF orientation, NORMAL if there is none
+   */
+  public int getOrientation() {
+    for (byte[] segment : segments)
+      if ("exif".equals(kind(segment))) try {
+        return ExifOrientation.read(ByteBuffer.wrap(segment, 4, segment.length - 4).slice());
+      } catch (IndexOutOfBoundsException e) {
+        return ExifOrientation.NORMAL;
+      }
+    return ExifOrientation.NORMAL;
+  }
+
+  /**
+   * @return bytes of all segments
+   */
+  public int size() {
+    int size = 0;
+    for (byte[] segment : segments)
+      size += segment.length;
+    return size;
+  }
+
+  /**
+   * <p>
+   * choose the segments for a scaled image of the source
+   * </p>
+   *
+   * @param keep
+   *          comma separated kinds of the segments to copy
+   * @param strip
+   *          comma separated EXIF tags to remove, hexadecimal or "makernote",
+   *          "thumbnail" and "gps"
+   * @param width
+   *          width of the scaled image
+   * @param height
+   *          height of the scaled image
+   * @return the segments to write
+   */
+  public MetadataSegments filter(String keep, String strip, int width, int height) {
+    Set<String> kinds = words(keep);
+    Set<String> words = words(strip);
+    Set<Integer> tags = new HashSet<Integer>();
+    for (String word : words)
+      if (word.equals("makernote")) tags.add(TAG_MAKER_NOTE);
+      else if (word.equals("gps")) tags.add(TAG_GPS_IFD);
+      else if (!word.equals("thumbnail")) try {
+        tags.add(Integer.parseInt(word.startsWith("0x") ? word.substring(2) : word, 16));
+      } catch (NumberFormatException e) {
+        // not a tag
+      }
+
+    List<byte[]> chosen = new ArrayList<byte[]>();
+    for (byte[] segment : segments) {
+      String kind = kind(segment);
+      if (!kinds.contains(kind)) continue;
+      if (kind.equals("exif"))
+        segment = rebuildExif(segment, tags, !words.contains("thumbnail"), width, height);
+      if (segment != null) chosen.add(segment);
+    }
+    return new MetadataSegments(chosen);
+  }
+
+  /**
+   * <p>
+   * write the JPEG with the segments behind its JFIF segment
+   * </p>
+   *
+   * @param jpeg
+   *          the JPEG written without metadata
+   * @param length
+   *          bytes of the JPEG in the array
+   * @param out
+   *          receives the JPEG
+   * @throws IOException
+   *           if the JPEG could not be written
+   */
+  public void write(byte[] jpeg, int length, ImageOutputStream out) throws IOException {
+    int pos = 2;
+    if (length > 6 && (jpeg[2] & 0xFF) == 0xFF && (jpeg[3] & 0xFF) == APP0)
+      pos = 4 + ((jpeg[4] & 0xFF) << 8 | jpeg[5] & 0xFF);
+    out.write(jpeg, 0, pos);
+    for (byte[] segment : segments)
+      out.write(segment);
+    out.write(jpeg, pos, length - pos);
+  }
+
+  /**
+   * @return the kind of the segment, null if it is not copied at all
+   */
+  static String kind(byte[] segment) {
+    int marker = segment[1] & 0xFF;
+    if (marker == COM) return "comment";
+    if (marker == APP1 && startsWith(segment, "Exif\0\0")) return "exif";
+    if (marker == APP1 && startsWith(segment, "http://ns.adobe.com/")) return "xmp";
+    if (marker == APP2 && startsWith(segment, "ICC_PROFILE\0")) return "icc";
+    if (marker == APP13 && startsWith(segment, "Photoshop 3.0\0")) return "iptc";
+    return null;
+  }
+
+  private static boolean startsWith(byte[] segment, String id) {
+    byte[] b = id.getBytes(StandardCharsets.ISO_8859_1);
+    if (segment.length < 4 + b.length) return false;
+    for (int i = 0; i < b.length; i++)
+      if (segment[4 + i] != b[i]) return false;
+    return true;
+  }
+
+  private static Set<String> words(String list) {
+    Set<String> words = new HashSet<String>();
+    if (list != null) for (String word : list.split(","))
+      if (word.trim().length() > 0) words.add(word.trim().toLowerCase(Locale.ENGLISH));
+    return words;
+  }
+
+  /**
+   * @return the EXIF segment with the IFDs written anew, null if it could not
+   *         be parsed
+   */
+  private static byte[] rebuildExif(byte[] segment, Set<Integer> strip, boolean thumbnail,
+      int width, int height) {
+    ByteBuffer in = ByteBuffer.wrap(segment, TIFF, segment.length - TIFF).slice();
+    if (in.remaining() < 8) return null;
+    if (in.get(0) == 'I' && in.get(1) == 'I') in.order(ByteOrder.LITTLE_ENDIAN);
+    else if (in.get(0) != 'M' || in.get(1) != 'M') return null;
+
+    ByteBuffer out = ByteBuffer.allocate(0xFFFF - TIFF + 2).order(in.order());
+    out.put(in.get(0)).put(in.get(1)).putShort((short) 42).putInt(8);
+    try {
+      Rebuild r = new Rebuild(in, out, strip, thumbnail, width, height);
+      r.ifd(in.getInt(4), 0);
+    } catch (RuntimeException e) {
+      // broken offsets or too large
+      return null;
+    }
+
+    byte[] exif = new byte[TIFF + out.position()];
+    System.arraycopy(segment, 0, exif, 0, TIFF);
+    exif[2] = (byte) ((exif.length - 2) >> 8);
+    exif[3] = (byte) (exif.length - 2);
+    out.flip();
+    out.get(exif, TIFF, out.remaining());
+    return exif;
+  }
+
+  /*
+   * <p> Copies the IFDs from in to out, the values too large for an entry
+   * behind the IFD </p>
+   */
+  private static class Rebuild {
+    final ByteBuffer   in;
+    final ByteBuffer   out;
+    final Set<Integer> strip;
+    final boolean      thumbnail;
+    final int          width;
+    final int          height;
+
+    Rebuild(ByteBuffer in, ByteBuffer out, Set<Integer> strip, boolean thumbnail, int width,
+        int height) {
+      this.in = in;
+      this.out = out;
+      this.strip = strip;
+      this.thumbnail = thumbnail;
+      this.width = width;
+      this.height = height;
+    }
+
+    /**
+     * @return offset of the copied IFD
+     */
+    int ifd(int offset, int depth) {
+      if (depth > 4 || offset < 8) throw new IllegalArgumentException("IFD " + offset);
+      int n = in.getShort(offset) & 0xFFFF;
+      List<Integer> entries = new ArrayList<Integer>();
+      int thumbLength = 0;
+      for (int i = 0; i < n; i++) {
+        int e = offset + 2 + 12 * i;
+        int tag = in.getShort(e) & 0xFFFF;
+        int type = in.getShort(e + 2) & 0xFFFF;
+        if (tag == TAG_THUMB_LENGTH) thumbLength = in.getInt(e + 8);
+        if (!strip.contains(tag) && type > 0 && type < TYPE_SIZES.length) entries.add(e);
+      }
+
+      align();
+      int start = out.position();
+      out.position(start + 2 + 12 * entries.size() + 4);
+      out.putShort(start, (short) entries.size());
+      for (int i = 0; i < entries.size(); i++) {
+        int e = entries.get(i);
+        int entry = start + 2 + 12 * i;
+        int tag = in.getShort(e) & 0xFFFF;
+        int type = in.getShort(e + 2) & 0xFFFF;
+        long count = in.getInt(e + 4) & 0xFFFFFFFFL;
+        out.putShort(entry, (short) tag);
+        out.putShort(entry + 2, (short) type);
+        out.putInt(entry + 4, (int) count);
+
+        long size = count * TYPE_SIZES[type];
+        if (tag == TAG_EXIF_IFD || tag == TAG_GPS_IFD || tag == TAG_INTEROP_IFD)
+          out.putInt(entry + 8, ifd(in.getInt(e + 8), depth + 1));
+        else if (tag == TAG_THUMBNAIL) out.putInt(entry + 8, copy(in.getInt(e + 8), thumbLength));
+        else if (size > 4) out.putInt(entry + 8, copy(in.getInt(e + 8), size));
+        else {
+          out.putInt(entry + 8, in.getInt(e + 8));
+          // the scaled image is upright
+          if (tag == TAG_ORIENTATION && type == SHORT) out.putShort(entry + 8, (short) 1);
+          if ((tag == TAG_WIDTH || tag == TAG_HEIGHT) && count == 1) {
+            int value = tag == TAG_WIDTH ? width : height;
+            if (type == SHORT) out.putShort(entry + 8, (short) value);
+            else if (type == LONG) out.putInt(entry + 8, value);
+          }
+        }
+      }
+
+      // IFD1 only holds the thumbnail
+      int next = in.getInt(offset + 2 + 12 * n);
+      out.putInt(start + 2 + 12 * entries.size(),
+          depth == 0 && thumbnail && next != 0 ? ifd(next, depth + 1) : 0);
+      return start;
+    }
+
+    /**
+     * @return offset of the copied value
+     */
+    private int copy(int offset, long size) {
+      if (offset < 0 || size < 0 || offset + size > in.limit())
+        throw new IllegalArgumentException("value " + offset);
+      align();
+      int at = out.position();
+      out.put(in.slice(offset, (int) size));
+      return at;
+    }
+
+    private void align() {
+      if (out.position() % 2 != 0) out.put((byte) 0);
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>
+ * Area averages a decoded image down, on the common fork/join pool or in the
+ * calling thread. The rows of the scaled image are split into bands, every
+ * band reads only the source rows it covers, so the bands are independent of
+ * each other. The rows are area averaged like the strips of
+ * {@link StripResampler}.
+ * </p>
+ */
+class ParallelResampler {
+
+  /**
+   * smaller images are not worth to be split
+   */
+  static final long        PARALLEL_PIXELS = 1L << 22;
+
+  /**
+   * a band is split as long as it covers more source pixels
+   */
+  private static final int BAND_PIXELS     = 1 << 19;
+
+  private ParallelResampler() {
+  }
+
+  /**
+   * @param image
+   *          the decoded image
+   * @param width
+   *          width of the scaled image, not larger than the image
+   * @param height
+   *          height of the scaled image, not larger than the image
+   * @return the scaled image, borrowed from the {@link PixelPool}
+   */
+  static BufferedImage resize(BufferedImage image, int width, int height) {
+    return resize(image, width, height, true);
+  }
+
+  /**
+   * @param parallel
+   *          false to scale in the calling thread
+   */
+  static BufferedImage resize(BufferedImage image, int width, int height, boolean parallel) {
+    return resize(image, width, height, parallel, null);
+  }
+
+  /**
+   * @param transform
+   *          converts the colors of the image, null for none
+   */
+  static BufferedImage resize(BufferedImage image, int width, int height, boolean parallel,
+      ColorTransform transform) {
+    BufferedImage returnImage = PixelPool.getInstance().borrow(width, height,
+        BufferedImage.TYPE_INT_RGB);
+    StripResampler.Columns columns = new StripResampler.Columns(image.getWidth(), width,
+        transform);
+    Band band = new Band(image, returnImage, columns, 0, height);
+    if (parallel) ForkJoinPool.commonPool().invoke(band);
+    else band.scale();
+    return returnImage;
+  }
+
+  /*
+   * <p> Scales the target rows [from, to) </p>
+   */
+  private static class Band extends RecursiveAction {
+    private static final long            serialVersionUID = -1387447262757150402L;
+
+    private final BufferedImage          image;
+    private final BufferedImage          returnImage;
+    private final StripResampler.Columns columns;
+    private final int                    from;
+    private final int                    to;
+
+    Band(BufferedImage image, BufferedImage returnImage, StripResampler.Columns columns, int from,
+        int to) {
+      this.image = image;
+      this.returnImage = returnImage;
+      this.columns = columns;
+      this.from = from;
+      this.to = to;
+    }
+
+    protected void compute() {
+      double sy = (double) image.getHeight() / returnImage.getHeight();
+      if (to - from > 1 && (to - from) * sy * image.getWidth() > BAND_PIXELS) {
+        int mid = (from + to) >>> 1;
+        invokeAll(new Band(image, returnImage, columns, from, mid),
+            new Band(image, returnImage, columns, mid, to));
+        return;
+      }
+      scale();
+    }
+
+    void scale() {
+      double sy = (double) image.getHeight() / returnImage.getHeight();
+      int sw = image.getWidth();
+      int width = returnImage.getWidth();
+      int[] rgb = new int[sw];
+      float[] row = new float[width * 3];
+      float[] acc = new float[width * 3];
+      int[] out = new int[width];
+
+      for (int dy = from; dy < to; dy++) {
+        // the target row covers [dy * sy, (dy + 1) * sy) of the source rows
+        double top = dy * sy;
+        double bottom = Math.min((dy + 1) * sy, image.getHeight());
+        Arrays.fill(acc, 0);
+        double accWeight = 0;
+
+        for (int y = (int) top; y < bottom; y++) {
+          float wgt = (float) (Math.min(bottom, y + 1) - Math.max(top, y));
+          if (wgt <= 0) continue;
+          image.getRGB(0, y, sw, 1, rgb, 0, sw);
+          columns.horizontal(rgb, row);
+          for (int i = 0; i < acc.length; i++)
+            acc[i] += row[i] * wgt;
+          accWeight += wgt;
+        }
+
+        columns.emit(acc, accWeight, out);
+        returnImage.setRGB(0, dy, width, 1, out, 0, width);
+      }
+    }
+  }
+}
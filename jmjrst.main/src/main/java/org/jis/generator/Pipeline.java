@@ -0,0 +1,424 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.Vector;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jis.Main;
+import org.jis.options.Options;
+
+/**
+ * <p>
+ * Scales the elements of a Producer in three stages. Reader threads prefetch
+ * the bytes of the images, a {@link Consumer} per CPU decodes, scales and
+ * encodes them in memory and writer threads store the results. The stages
+ * are connected by bounded queues, so the readers wait when the CPUs are
+ * behind and the CPUs do not wait for a slow disk or network share.
+ * </p>
+ * <p>
+ * The readers hash the content of every image. Only the first copy of a
+ * content is scaled, the outputs of the other copies are linked to its
+ * outputs when all images are written.
+ * </p>
+ */
+public class Pipeline
+{
+
+  /**
+   * threads reading and writing files, storage with a high latency needs
+   * several requests at once
+   */
+  static final int     IO_THREADS     = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+  /**
+   * larger files are not prefetched, the Consumer streams them from the disk
+   */
+  static final long    PREFETCH_BYTES = 1L << 26;
+
+  /*
+   * <p> An element on its way through the stages </p>
+   */
+  static class Job
+  {
+    final Element element;
+    final File    out;
+    byte[]        data;
+    // the images of a width ladder followed by its sizes, the first one is
+    // the data
+    byte[][]      ladder;
+    // the job scaling the same content, null for the first copy
+    Job           original;
+    boolean       written;
+
+    Job(Element element, File out)
+    {
+      this.element = element;
+      this.out = out;
+    }
+  }
+
+  final Producer           producer;
+  final BlockingQueue<Job> read;
+  final BlockingQueue<Job> encoded;
+  private Main             m;
+  private boolean          zippen;
+  private Vector<File>     zipIt;
+  private volatile boolean readDone   = false;
+  private volatile boolean encodeDone = false;
+
+  /**
+   * the first job of every content and output size
+   */
+  private final ConcurrentHashMap<String, Job> unique     = new ConcurrentHashMap<String, Job>();
+  private final Queue<Job>                     duplicates = new ConcurrentLinkedQueue<Job>();
+  private final AtomicLong                     codecNanos = new AtomicLong();
+  private final AtomicInteger                  codecJobs  = new AtomicInteger();
+
+  public Pipeline(Producer producer, Main m, boolean zippen, Vector<File> zipIt)
+  {
+    int cpus = Runtime.getRuntime().availableProcessors();
+    this.producer = producer;
+    this.read = new LinkedBlockingQueue<Job>(cpus);
+    this.encoded = new LinkedBlockingQueue<Job>(cpus);
+    this.m = m;
+    this.zippen = zippen;
+    this.zipIt = zipIt;
+  }
+
+  /**
+   * <p>
+   * run the Producer and all stages, returns when every element is written
+   * or the progress monitor is canceled
+   * </p>
+   */
+  public void run()
+  {
+    int cpus = Runtime.getRuntime().availableProcessors();
+    Thread producerThread = new Thread(producer);
+    Thread readers[] = new Thread[IO_THREADS];
+    Thread consumers[] = new Thread[cpus];
+    Thread writers[] = new Thread[IO_THREADS];
+    for (int i = 0; i < IO_THREADS; i++)
+    {
+      readers[i] = new Thread(new Reader());
+      writers[i] = new Thread(new Writer());
+    }
+    for (int i = 0; i < cpus; i++)
+    {
+      consumers[i] = new Thread(new Consumer(this, m));
+    }
+
+    producerThread.start();
+    start(readers);
+    start(consumers);
+    start(writers);
+
+    try
+    {
+      producerThread.join();
+      join(readers);
+      readDone = true;
+      join(consumers);
+      encodeDone = true;
+      join(writers);
+      linkDuplicates();
+    }
+    catch (InterruptedException ignore)
+    {
+    }
+  }
+
+  /**
+   * count the time a consumer spent on a job
+   */
+  void scaled(long nanos)
+  {
+    codecNanos.addAndGet(nanos);
+    codecJobs.incrementAndGet();
+  }
+
+  boolean isReadDone()
+  {
+    return readDone;
+  }
+
+  boolean isCanceled()
+  {
+    return m.p_monitor.isCanceled();
+  }
+
+  /**
+   * <p>
+   * hand a job to the next stage, waits while the stage is busy
+   * </p>
+   *
+   * @return false if canceled meanwhile
+   */
+  boolean put(BlockingQueue<Job> queue, Job job) throws InterruptedException
+  {
+    while (!queue.offer(job, 100, TimeUnit.MILLISECONDS))
+      if (isCanceled()) return false;
+    return true;
+  }
+
+  private static void start(Thread[] threads)
+  {
+    for (int i = 0; i < threads.length; i++)
+      threads[i].start();
+  }
+
+  private static void join(Thread[] threads) throws InterruptedException
+  {
+    for (int i = 0; i < threads.length; i++)
+      threads[i].join();
+  }
+
+  /*
+   * <p> Reads the images of the Producer into memory </p>
+   */
+  private class Reader implements Runnable
+  {
+    public void run()
+    {
+      try
+      {
+        while (producer.isDone() == false || producer.queue.size() > 0)
+        {
+          if (isCanceled()) break;
+
+          Element obj = producer.queue.poll(100, TimeUnit.MILLISECONDS);
+          if (obj == null) continue;
+
+          Job job = new Job(obj, new File(obj.outDir, producer.praefix + Encoders.outputName(obj.file.getName())));
+          try
+          {
+            if (obj.file.length() <= PREFETCH_BYTES) job.data = Files.readAllBytes(obj.file.toPath());
+          }
+          catch (IOException e)
+          {
+            // the Consumer tries again and reports the error
+          }
+          // the cells of a sprite sheet need the pixels of every copy
+          if (obj.sprite == null) try
+          {
+            String key = (job.data != null ? ContentHash.of(job.data) : ContentHash.of(obj.file)) + "_" + obj.width + "x" + obj.height + Arrays.toString(obj.ladder) + (obj.ladder != null ? Arrays.deepToString(obj.sizes()) : "");
+            Job first = unique.putIfAbsent(key, job);
+            // the checksums only find candidates, a collision is scaled on its own
+            if (first != null && Files.mismatch(first.element.file.toPath(), obj.file.toPath()) == -1)
+            {
+              job.original = first;
+              job.data = null;
+              duplicates.add(job);
+              continue;
+            }
+          }
+          catch (IOException e)
+          {
+            // scaled on its own
+          }
+          if (!put(read, job)) break;
+        }
+      }
+      catch (InterruptedException ex)
+      {
+        System.out.println("READER INTERRUPTED");
+      }
+    }
+  }
+
+  /*
+   * <p> Writes the scaled images and logs them </p>
+   */
+  private class Writer implements Runnable
+  {
+    public void run()
+    {
+      try
+      {
+        while (encodeDone == false || encoded.size() > 0)
+        {
+          if (isCanceled()) break;
+
+          Job job = encoded.poll(100, TimeUnit.MILLISECONDS);
+          if (job == null) continue;
+
+          // a sprite sheet is written by its last consumer
+          boolean error = job.data == null;
+          if (!error && job.element.sprite == null) try
+          {
+            // never write through a link to the output of a duplicate
+            if (job.ladder != null) for (int i = 0; i < job.ladder.length; i++)
+            {
+              File out = ladderOut(job, i);
+              Files.deleteIfExists(out.toPath());
+              Files.write(out.toPath(), job.ladder[i]);
+            }
+            else
+            {
+              Files.deleteIfExists(job.out.toPath());
+              Files.write(job.out.toPath(), job.data);
+            }
+            job.written = true;
+          }
+          catch (IOException e)
+          {
+            error = true;
+          }
+
+          // add file to the Files for ZIP
+          if (zippen && !error && job.element.sprite == null) zip(job);
+          written(job.element, error);
+        }
+      }
+      catch (InterruptedException ex)
+      {
+        System.out.println("WRITER INTERRUPTED");
+      }
+    }
+  }
+
+  /**
+   * <p>
+   * give every duplicate the outputs of its original and log the time of
+   * scaling and the disk space saved, the duplicates were read to be hashed
+   * </p>
+   */
+  private void linkDuplicates()
+  {
+    int linked = 0;
+    long bytes = 0;
+    for (Job job : duplicates)
+    {
+      if (isCanceled()) break;
+
+      boolean error = !job.original.written;
+      if (!error) try
+      {
+        if (job.element.ladder != null) for (int i = 0; i < job.element.ladder.length + job.element.sizes.length; i++)
+        {
+          File original = ladderOut(job.original, i);
+          if (link(original, ladderOut(job, i))) bytes += original.length();
+        }
+        else if (link(job.original.out, job.out)) bytes += job.original.out.length();
+        linked++;
+      }
+      catch (IOException e)
+      {
+        error = true;
+      }
+
+      if (zippen && !error) zip(job);
+      written(job.element, error);
+    }
+    if (linked == 0) return;
+
+    long millis = codecJobs.get() == 0 ? 0 : codecNanos.get() / codecJobs.get() * linked / 1000000;
+    String saved = linked + m.mes.getString("Generator.55") + String.format("%.1f", bytes / 1048576.0) + m.mes.getString("Generator.56") + String.format("%.1f", millis / 1000.0) + m.mes.getString("Generator.57");
+    try
+    {
+      m.jOutputDoc.insertString(m.jOutputDoc.getLength(), saved + Options.ls, m.readyAtr);
+      m.text.setCaretPosition(m.jOutputDoc.getLength());
+    }
+    catch (Exception e)
+    {
+      System.out.println(saved);
+    }
+  }
+
+  /**
+   * <p>
+   * hard link the copy to the original, copy it where links are not
+   * supported
+   * </p>
+   *
+   * @return true if the copy takes no space of its own
+   */
+  static boolean link(File original, File copy) throws IOException
+  {
+    if (copy.equals(original)) return true;
+    Files.deleteIfExists(copy.toPath());
+    try
+    {
+      Files.createLink(copy.toPath(), original.toPath());
+      return true;
+    }
+    catch (IOException e)
+    {
+      Files.copy(original.toPath(), copy.toPath());
+    }
+    catch (UnsupportedOperationException e)
+    {
+      Files.copy(original.toPath(), copy.toPath());
+    }
+    return false;
+  }
+
+  /**
+   * @return the file of the i-th image of a ladder job, the widths come
+   *         before the sizes
+   */
+  private static File ladderOut(Job job, int i)
+  {
+    Element obj = job.element;
+    if (i < obj.ladder.length) return new File(Element.ladderDir(obj.outDir, obj.ladder[i]), job.out.getName());
+    return new File(obj.sizes[i - obj.ladder.length].outDir, job.out.getName());
+  }
+
+  /**
+   * add the outputs to the Files for ZIP, the widths of a ladder are left
+   * out
+   */
+  private void zip(Job job)
+  {
+    if (job.element.ladder == null) zipIt.addElement(job.out);
+    else for (int i = job.element.ladder.length; i < job.element.ladder.length + job.element.sizes.length; i++)
+      zipIt.addElement(ladderOut(job, i));
+  }
+
+  /**
+   * log the written element, the lines of the writers must not mix
+   */
+  private synchronized void written(Element obj, boolean error)
+  {
+    String result = m.mes.getString(error ? "Generator.42" : "Generator.40");
+    try
+    {
+      m.jOutputDoc.insertString(m.jOutputDoc.getLength(), m.mes.getString("Generator.10"), m.outputAtr);
+      m.jOutputDoc.insertString(m.jOutputDoc.getLength(), obj.file.getName(), m.fileAtr);
+      m.jOutputDoc.insertString(m.jOutputDoc.getLength(), "\t . . . . .  ", m.outputAtr);
+      m.jOutputDoc.insertString(m.jOutputDoc.getLength(), result + Options.ls, error ? m.errorAtr : m.readyAtr);
+      m.text.setCaretPosition(m.jOutputDoc.getLength());
+    }
+    catch (Exception e)
+    {
+      System.out.println(m.mes.getString("Generator.10") + obj.file.toString() + "\t . . . . .  " + result);
+    }
+
+    producer.incrementIndex();
+  }
+}
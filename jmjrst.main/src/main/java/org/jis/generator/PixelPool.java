@@ -0,0 +1,189 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+
+/**
+ * <p>
+ * Keeps the pixel arrays of decoded, scaled and encoded images for the next
+ * image, so a batch of photos from the same camera allocates them only once.
+ * The arrays are pooled by size class, width and height rounded up to a grid.
+ * A borrowed image is a view of exactly the requested size on an array of its
+ * class. Only TYPE_INT_RGB, TYPE_3BYTE_BGR and TYPE_BYTE_GRAY are pooled, the
+ * types the JPEG codecs and the resamplers work with.
+ * </p>
+ */
+class PixelPool {
+
+  /**
+   * width and height of a size class are multiples of it
+   */
+  private static final int                      GRID     = 64;
+
+  private static final Map<Integer, ColorModel> MODELS   = new HashMap<Integer, ColorModel>();
+
+  static {
+    for (int type : new int[] {
+        BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY
+    })
+      MODELS.put(type, new BufferedImage(1, 1, type).getColorModel());
+  }
+
+  private static final PixelPool instance = new PixelPool(Runtime.getRuntime().maxMemory() / 4);
+
+  private final long                                           budget;
+  private final AtomicLong                                     idle = new AtomicLong();
+  private final ConcurrentHashMap<Long, Deque<WritableRaster>> free = new ConcurrentHashMap<Long, Deque<WritableRaster>>();
+
+  /**
+   * @param budget
+   *          the pool keeps at most this many bytes of idle arrays
+   */
+  PixelPool(long budget) {
+    this.budget = budget;
+  }
+
+  /**
+   * @return the pool shared by all generators
+   */
+  static PixelPool getInstance() {
+    return instance;
+  }
+
+  /**
+   * @param width
+   *          width of the image
+   * @param height
+   *          height of the image
+   * @param type
+   *          a BufferedImage type
+   * @return an image of exactly the size, its pixels are undefined
+   */
+  BufferedImage borrow(int width, int height, int type) {
+    if (!isPooled(type)) return new BufferedImage(width, height, type);
+
+    int cw = roundUp(width);
+    int ch = roundUp(height);
+    Deque<WritableRaster> rasters = free.get(key(type, cw, ch));
+    WritableRaster raster = rasters == null ? null : rasters.pollFirst();
+    if (raster == null) raster = new BufferedImage(cw, ch, type).getRaster();
+    else idle.addAndGet(-bytes(raster, type));
+
+    WritableRaster view = raster;
+    if (cw != width || ch != height)
+      view = raster.createWritableChild(0, 0, width, height, 0, 0, null);
+    return new BufferedImage(MODELS.get(type), view, false, null);
+  }
+
+  /**
+   * <p>
+   * give a borrowed image back, it must not be used afterwards
+   * </p>
+   *
+   * @param image
+   *          the image, may be null
+   */
+  void release(BufferedImage image) {
+    if (image == null || !isPooled(image.getType())) return;
+
+    WritableRaster raster = image.getRaster();
+    if (raster.getParent() != null) raster = (WritableRaster) raster.getParent();
+    int cw = raster.getWidth();
+    int ch = raster.getHeight();
+    // only whole arrays of a size class
+    if (cw % GRID != 0 || ch % GRID != 0 || raster.getParent() != null) return;
+
+    long bytes = bytes(raster, image.getType());
+    if (idle.addAndGet(bytes) > budget) {
+      idle.addAndGet(-bytes);
+      return;
+    }
+    Deque<WritableRaster> rasters = free.get(key(image.getType(), cw, ch));
+    if (rasters == null) {
+      free.putIfAbsent(key(image.getType(), cw, ch), new ConcurrentLinkedDeque<WritableRaster>());
+      rasters = free.get(key(image.getType(), cw, ch));
+    }
+    rasters.offerFirst(raster);
+  }
+
+  /**
+   * <p>
+   * decode the image into a pooled image if the reader decodes to a pooled
+   * type
+   * </p>
+   *
+   * @param reader
+   *          reader with the image as input
+   * @return the decoded image, to be released
+   * @throws IOException
+   *           if the image could not be read
+   */
+  BufferedImage read(ImageReader reader) throws IOException {
+    ImageTypeSpecifier spec = reader.getImageTypes(0).next();
+    int type = spec.getBufferedImageType();
+    if (!isPooled(type)) return reader.read(0, null);
+
+    BufferedImage destination = borrow(reader.getWidth(0), reader.getHeight(0), type);
+    ImageReadParam param = reader.getDefaultReadParam();
+    param.setDestination(destination);
+    try {
+      return reader.read(0, param);
+    } catch (IOException e) {
+      release(destination);
+      throw e;
+    }
+  }
+
+  /**
+   * @return bytes of idle arrays in the pool
+   */
+  long idleBytes() {
+    return idle.get();
+  }
+
+  static boolean isPooled(int type) {
+    return MODELS.containsKey(type);
+  }
+
+  private static int roundUp(int size) {
+    return (size + GRID - 1) / GRID * GRID;
+  }
+
+  private static long bytes(WritableRaster raster, int type) {
+    long pixels = (long) raster.getWidth() * raster.getHeight();
+    if (type == BufferedImage.TYPE_INT_RGB) return pixels * 4;
+    if (type == BufferedImage.TYPE_3BYTE_BGR) return pixels * 3;
+    return pixels;
+  }
+
+  private static Long key(int type, int width, int height) {
+    return Long.valueOf((long) type << 48 | (long) width << 24 | height);
+  }
+}
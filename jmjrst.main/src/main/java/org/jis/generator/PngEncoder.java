@@ -0,0 +1,58 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * <p>
+ * Writes lossless PNGs with the strongest deflate level, for graphics which
+ * suffer from the artifacts of JPEG. The metadata of a JPEG has no PNG
+ * counterpart and is not copied.
+ * </p>
+ */
+public class PngEncoder implements ImageEncoder {
+
+  public String[] getSuffixes() {
+    return new String[] {
+      "png"
+    };
+  }
+
+  public void encode(BufferedImage image, MetadataSegments metadata, ImageOutputStream out)
+      throws IOException {
+    ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+    try {
+      writer.setOutput(out);
+      ImageWriteParam iwparam = writer.getDefaultWriteParam();
+      if (iwparam.canWriteCompressed()) {
+        iwparam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        // the lowest quality is the strongest compression, the pixels are kept
+        iwparam.setCompressionQuality(0.0f);
+      }
+      writer.write(null, new IIOImage(image, null, null), iwparam);
+    } finally {
+      writer.dispose();
+    }
+  }
+}
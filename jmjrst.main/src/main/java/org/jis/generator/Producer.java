@@ -15,9 +15,27 @@
  */
 package org.jis.generator;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
 import org.jis.Main;
 import org.jis.options.Options;
 
@@ -33,7 +51,7 @@ public class Producer implements Runnable {
   protected BlockingQueue<Element> queue;
   public final String              praefix;
   private Element[]                elements;
-  private boolean                  isDone = false;
+  private volatile boolean         isDone = false;
   private Main                     m;
 
   Producer(Main m, Element[] elements, String praefix) {
@@ -63,6 +81,10 @@ public class Producer implements Runnable {
   {
     try
     {
+      // the largest images first, so no large image is left over at the end
+      // when the other consumers are already idle
+      elements = orderByCost(elements);
+
       for (int i = 0; i < elements.length; i++)
       {
         if (m.p_monitor.isCanceled()) break;
@@ -78,6 +100,93 @@ public class Producer implements Runnable {
     isDone = true;
   }
 
+  /**
+   * <p>
+   * sort the elements by their estimated cost, largest first. The sizes are
+   * read from the image headers in parallel.
+   * </p>
+   *
+   * @param elements
+   *          the elements in list order
+   * @return the elements in descending cost
+   * @throws InterruptedException
+   *           if interrupted while reading the headers
+   */
+  static Element[] orderByCost(Element[] elements) throws InterruptedException
+  {
+    // a gallery has every image several times
+    final Map<File, Future<Long>> costs = new HashMap<File, Future<Long>>();
+    ExecutorService pool = Executors.newFixedThreadPool(2 * Runtime.getRuntime().availableProcessors());
+    try
+    {
+      for (final Element e : elements)
+      {
+        if (costs.containsKey(e.file)) continue;
+        costs.put(e.file, pool.submit(new Callable<Long>()
+        {
+          public Long call()
+          {
+            return estimateCost(e.file);
+          }
+        }));
+      }
+
+      final Map<File, Long> cost = new HashMap<File, Long>();
+      for (Map.Entry<File, Future<Long>> c : costs.entrySet())
+        cost.put(c.getKey(), c.getValue().get());
+
+      List<Element> sorted = new ArrayList<Element>(Arrays.asList(elements));
+      // stable, images of the same size stay in list order
+      sorted.sort(new Comparator<Element>()
+      {
+        public int compare(Element a, Element b)
+        {
+          return Long.compare(cost.get(b.file), cost.get(a.file));
+        }
+      });
+      return sorted.toArray(new Element[0]);
+    }
+    catch (ExecutionException e)
+    {
+      return elements;
+    }
+    finally
+    {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * @param file
+   *          the image
+   * @return the number of pixels from the image header, the file size if the
+   *         header could not be read
+   */
+  static long estimateCost(File file)
+  {
+    try (ImageInputStream iis = ImageIO.createImageInputStream(file))
+    {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+      if (readers.hasNext())
+      {
+        ImageReader reader = readers.next();
+        try
+        {
+          reader.setInput(iis, true, true);
+          return (long) reader.getWidth(0) * reader.getHeight(0);
+        }
+        finally
+        {
+          reader.dispose();
+        }
+      }
+    }
+    catch (IOException e)
+    {
+    }
+    return file.length();
+  }
+
   int index = 0;
 
   public synchronized void incrementIndex()
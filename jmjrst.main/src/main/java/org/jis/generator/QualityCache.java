@@ -0,0 +1,127 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+import org.jis.options.Options;
+
+/**
+ * <p>
+ * Remembers the JPEG quality found for a byte budget, so a rebuild of a
+ * gallery encodes every unchanged image only once. The images are identified
+ * by a checksum of their scaled pixels, which also notices changed sources
+ * and settings. New entries are appended to the cache file, a file with many
+ * outdated entries is rewritten when it is loaded.
+ * </p>
+ */
+class QualityCache {
+
+  private static final QualityCache instance = new QualityCache(new File(Options
+      .getInstance().getStateDir(), "quality.cache"));
+
+  private final File                file;
+  private Properties                qualities;
+
+  /**
+   * @param file
+   *          the cache file, created on the first entry
+   */
+  QualityCache(File file) {
+    this.file = file;
+  }
+
+  /**
+   * @return the cache in the state folder of the Options, shared by the
+   *         builds of every working directory
+   */
+  static QualityCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * @param image
+   *          the scaled image
+   * @param settings
+   *          everything else the size of the JPEG depends on
+   * @return the key of the image
+   */
+  static String key(BufferedImage image, String settings) {
+    int w = image.getWidth();
+    int h = image.getHeight();
+    CRC32 crc = new CRC32();
+    int[] row = new int[w];
+    ByteBuffer bytes = ByteBuffer.allocate(w * 4);
+    for (int y = 0; y < h; y++) {
+      image.getRGB(0, y, w, 1, row, 0, w);
+      bytes.clear();
+      bytes.asIntBuffer().put(row);
+      crc.update(bytes.array(), 0, w * 4);
+    }
+    return Long.toHexString(crc.getValue()) + "_" + w + "x" + h + "_" + settings;
+  }
+
+  /**
+   * @return the quality stored for the key, a negative value if there is none
+   */
+  synchronized float get(String key) {
+    String q = load().getProperty(key);
+    return q == null ? -1 : Float.parseFloat(q);
+  }
+
+  synchronized void put(String key, float quality) {
+    String q = "" + quality;
+    if (q.equals(load().setProperty(key, q))) return;
+    try (OutputStream out = new FileOutputStream(file, true)) {
+      out.write((key + "=" + q + "\n").getBytes(StandardCharsets.ISO_8859_1));
+    } catch (IOException e) {
+      System.err.println("Error while writing " + file);
+    }
+  }
+
+  private Properties load() {
+    if (qualities != null) return qualities;
+    qualities = new Properties();
+    if (!file.exists()) return qualities;
+
+    try {
+      try (InputStream in = new FileInputStream(file)) {
+        qualities.load(in);
+      }
+      // the file holds every entry ever appended
+      int lines = Files.readAllLines(file.toPath(), StandardCharsets.ISO_8859_1).size();
+      if (lines > 2 * qualities.size() + 100) {
+        try (OutputStream out = new FileOutputStream(file)) {
+          qualities.store(out, null);
+        }
+      }
+    } catch (IOException e) {
+      System.err.println("Error while reading " + file);
+    }
+    return qualities;
+  }
+}
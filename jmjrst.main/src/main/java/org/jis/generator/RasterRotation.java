@@ -0,0 +1,169 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>
+ * Rotates the pixel arrays of TYPE_INT_RGB, TYPE_3BYTE_BGR and TYPE_BYTE_GRAY
+ * images by multiples of 90 degrees. The source is walked in square tiles, so
+ * the scattered writes of a transpose stay in the cache. Large images are
+ * split into bands of tiles which are rotated on the common fork/join pool.
+ * </p>
+ */
+class RasterRotation {
+
+  /**
+   * edge length of a tile in pixels
+   */
+  private static final int TILE            = 64;
+
+  /**
+   * images with more pixels are rotated in parallel
+   */
+  private static final int PARALLEL_PIXELS = 1 << 20;
+
+  private RasterRotation() {
+  }
+
+  /**
+   * @param image
+   *          the image
+   * @param quadrants
+   *          clockwise rotation in steps of 90 degrees, 1 to 3
+   * @return the rotated image or null if the image has no supported layout
+   */
+  static BufferedImage rotate(BufferedImage image, int quadrants) {
+    int type = image.getType();
+    int pixel;
+    if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_BYTE_GRAY) pixel = 1;
+    else if (type == BufferedImage.TYPE_3BYTE_BGR) pixel = 3;
+    else return null;
+
+    int w = image.getWidth();
+    int h = image.getHeight();
+    WritableRaster raster = image.getRaster();
+    // sub images share the array of their parent
+    if (raster.getParent() != null || raster.getSampleModelTranslateX() != 0
+        || raster.getSampleModelTranslateY() != 0 || raster.getDataBuffer().getNumBanks() != 1
+        || raster.getDataBuffer().getOffset() != 0) return null;
+
+    boolean swap = quadrants != 2;
+    BufferedImage returnImage = new BufferedImage(swap ? h : w, swap ? w : h, type);
+
+    Object src;
+    Object dst;
+    int length;
+    if (type == BufferedImage.TYPE_INT_RGB) {
+      src = ((DataBufferInt) raster.getDataBuffer()).getData();
+      dst = ((DataBufferInt) returnImage.getRaster().getDataBuffer()).getData();
+      length = ((int[]) src).length;
+    } else {
+      src = ((DataBufferByte) raster.getDataBuffer()).getData();
+      dst = ((DataBufferByte) returnImage.getRaster().getDataBuffer()).getData();
+      length = ((byte[]) src).length;
+    }
+    if (length != w * h * pixel) return null;
+
+    Band band = new Band(src, dst, w, h, pixel, quadrants, 0, (h + TILE - 1) / TILE);
+    if ((long) w * h >= PARALLEL_PIXELS) ForkJoinPool.commonPool().invoke(band);
+    else band.compute();
+    return returnImage;
+  }
+
+  /*
+   * <p> Rotates the tile rows [from, to) of the source </p>
+   */
+  private static class Band extends RecursiveAction {
+    private static final long serialVersionUID = 3034471954151392640L;
+
+    private final Object      src;
+    private final Object      dst;
+    private final int         w;
+    private final int         h;
+    private final int         pixel;
+    private final int         quadrants;
+    private final int         from;
+    private final int         to;
+
+    Band(Object src, Object dst, int w, int h, int pixel, int quadrants, int from, int to) {
+      this.src = src;
+      this.dst = dst;
+      this.w = w;
+      this.h = h;
+      this.pixel = pixel;
+      this.quadrants = quadrants;
+      this.from = from;
+      this.to = to;
+    }
+
+    protected void compute() {
+      if (to - from > 1 && (long) (to - from) * TILE * w >= PARALLEL_PIXELS / 4) {
+        int mid = (from + to) >>> 1;
+        invokeAll(new Band(src, dst, w, h, pixel, quadrants, from, mid),
+            new Band(src, dst, w, h, pixel, quadrants, mid, to));
+        return;
+      }
+
+      for (int ty = from * TILE; ty < Math.min(to * TILE, h); ty += TILE)
+        for (int tx = 0; tx < w; tx += TILE)
+          tile(tx, ty, Math.min(tx + TILE, w), Math.min(ty + TILE, h));
+    }
+
+    private void tile(int x0, int y0, int x1, int y1) {
+      if (src instanceof int[]) {
+        int[] sa = (int[]) src;
+        int[] da = (int[]) dst;
+        for (int y = y0; y < y1; y++)
+          for (int x = x0; x < x1; x++)
+            da[target(x, y)] = sa[y * w + x];
+      } else if (pixel == 1) {
+        byte[] sa = (byte[]) src;
+        byte[] da = (byte[]) dst;
+        for (int y = y0; y < y1; y++)
+          for (int x = x0; x < x1; x++)
+            da[target(x, y)] = sa[y * w + x];
+      } else {
+        byte[] sa = (byte[]) src;
+        byte[] da = (byte[]) dst;
+        for (int y = y0; y < y1; y++) {
+          for (int x = x0; x < x1; x++) {
+            int s = (y * w + x) * 3;
+            int d = target(x, y) * 3;
+            da[d] = sa[s];
+            da[d + 1] = sa[s + 1];
+            da[d + 2] = sa[s + 2];
+          }
+        }
+      }
+    }
+
+    /**
+     * index of the source pixel (x, y) in the rotated image
+     */
+    private int target(int x, int y) {
+      if (quadrants == 1) return x * h + (h - 1 - y);
+      if (quadrants == 3) return (w - 1 - x) * h + y;
+      return (h - 1 - y) * w + (w - 1 - x);
+    }
+  }
+}
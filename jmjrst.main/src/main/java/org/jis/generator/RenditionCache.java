@@ -0,0 +1,154 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * The renditions of the {@link RenditionServer} on disk, one file per
+ * rendition named by the hash of its key. The least recently used files are
+ * deleted when the cache grows over its size. The order of use is kept in
+ * memory and in the modification times of the files, so it survives a
+ * restart. Only files named like a rendition are indexed and evicted, other
+ * files in the folder are never touched.
+ * </p>
+ */
+class RenditionCache {
+
+  /**
+   * the sub folder of the output which holds the cache
+   */
+  static final String                   DIR    = ".renditions";
+
+  private static final String           PREFIX = "rendition";
+
+  private static final Pattern          NAME   = Pattern.compile("[0-9a-f]{40}");
+
+  private final File                    dir;
+  private final long                    maxBytes;
+  private final LinkedHashMap<String, Long> files = new LinkedHashMap<String, Long>(16, 0.75f, true);
+  private long                          bytes;
+
+  /**
+   * @param dir
+   *          directory of the cache, created if missing
+   * @param maxBytes
+   *          size of the cache
+   */
+  RenditionCache(File dir, long maxBytes) {
+    this.dir = dir;
+    this.maxBytes = maxBytes;
+    dir.mkdirs();
+
+    File[] existing = dir.listFiles();
+    if (existing == null) return;
+    // the least recently used first
+    Arrays.sort(existing, new Comparator<File>() {
+      public int compare(File a, File b) {
+        return Long.compare(a.lastModified(), b.lastModified());
+      }
+    });
+    for (File f : existing) {
+      String name = f.getName();
+      // a rendition not completely written before a crash
+      if (name.startsWith(PREFIX) && name.endsWith(".tmp")) f.delete();
+      else if (f.isFile() && NAME.matcher(name).matches()) {
+        files.put(f.getName(), f.length());
+        bytes += f.length();
+      }
+    }
+  }
+
+  /**
+   * @param key
+   *          the source and the parameters of a rendition
+   * @return the name of the rendition in the cache, also its entity tag
+   */
+  static String name(String key) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+      StringBuilder sb = new StringBuilder();
+      for (byte b : digest)
+        sb.append(String.format("%02x", b));
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @param name
+   *          name of the rendition
+   * @return the file of the rendition, null if it is not cached
+   */
+  synchronized File get(String name) {
+    if (files.get(name) == null) return null;
+    File f = new File(dir, name);
+    if (!f.isFile()) {
+      bytes -= files.remove(name);
+      return null;
+    }
+    f.setLastModified(System.currentTimeMillis());
+    return f;
+  }
+
+  /**
+   * <p>
+   * store a rendition and evict the least recently used ones
+   * </p>
+   *
+   * @return the file of the rendition
+   */
+  File put(String name, byte[] data) throws IOException {
+    File tmp = File.createTempFile(PREFIX, ".tmp", dir);
+    Files.write(tmp.toPath(), data);
+    File f = new File(dir, name);
+    Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+
+    synchronized (this) {
+      Long old = files.put(name, (long) data.length);
+      bytes += data.length - (old == null ? 0 : old);
+      for (Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator(); bytes > maxBytes
+          && it.hasNext();) {
+        Map.Entry<String, Long> eldest = it.next();
+        // the new rendition stays even if it is larger than the cache
+        if (eldest.getKey().equals(name)) continue;
+        new File(dir, eldest.getKey()).delete();
+        bytes -= eldest.getValue();
+        it.remove();
+      }
+    }
+    return f;
+  }
+
+  synchronized long size() {
+    return bytes;
+  }
+}
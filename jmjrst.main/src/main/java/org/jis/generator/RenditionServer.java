@@ -0,0 +1,275 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jis.options.Options;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>
+ * Serves renditions of the images below a folder over HTTP, scaled on
+ * demand: <code>/img/{path}?w=&amp;h=&amp;q=</code>. The renditions are
+ * scaled by a bounded pool of one worker per CPU, a request finding the pool
+ * and its queue full gets a 503. Every rendition is kept in a
+ * {@link RenditionCache} on disk. Its name is a hash of the file, its size
+ * and modification time and the parameters, it serves as entity tag, so an
+ * If-None-Match is answered without scaling. Concurrent requests for the
+ * same rendition wait for the same worker. The server listens on the
+ * loopback interface only.
+ * </p>
+ */
+public class RenditionServer {
+
+  static final String                                  CONTEXT  = "/img/";
+
+  /**
+   * largest width or height of a rendition
+   */
+  static final int                                     MAX_SIZE = 8192;
+
+  private static final int                             QUEUE    = 64;
+
+  private final Generator                              generator;
+  private final Path                                   root;
+  private final RenditionCache                         cache;
+  private final HttpServer                             server;
+  private final ExecutorService                        workers;
+  private final SingleFlight<String, File>               flights  = new SingleFlight<String, File>();
+
+  /**
+   * @param generator
+   *          scales the images
+   * @param root
+   *          folder of the served images
+   * @param cache
+   *          the output folder, the renditions are kept in its sub folder
+   *          {@value RenditionCache#DIR}
+   * @param cacheBytes
+   *          size of the cache
+   * @param port
+   *          port on the loopback interface, 0 for any free port
+   * @throws IOException
+   *           if the port can not be bound
+   */
+  public RenditionServer(Generator generator, File root, File cache, long cacheBytes, int port)
+      throws IOException {
+    this.generator = generator;
+    this.root = root.toPath().toAbsolutePath().normalize();
+    this.cache = new RenditionCache(new File(cache, RenditionCache.DIR), cacheBytes);
+    int cpus = Runtime.getRuntime().availableProcessors();
+    this.workers = new ThreadPoolExecutor(cpus, cpus, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(QUEUE));
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+        0);
+    server.createContext(CONTEXT, new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          serve(exchange);
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    // the handlers only wait for the workers and stream files
+    server.setExecutor(Executors.newFixedThreadPool(4 * cpus));
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  /**
+   * <p>
+   * stop the server, the requests being served get some seconds to finish
+   * </p>
+   */
+  public void stop() {
+    server.stop(2);
+    workers.shutdown();
+  }
+
+  /**
+   * @return the bound port
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  private void serve(HttpExchange exchange) throws IOException {
+    String method = exchange.getRequestMethod();
+    if (!method.equals("GET") && !method.equals("HEAD")) {
+      send(exchange, 405, "GET or HEAD only");
+      return;
+    }
+
+    URI uri = exchange.getRequestURI();
+    Path file = root.resolve(uri.getPath().substring(CONTEXT.length())).normalize();
+    if (!file.startsWith(root) || !Files.isRegularFile(file)) {
+      send(exchange, 404, "not found");
+      return;
+    }
+
+    Map<String, String> query = query(uri.getRawQuery());
+    final int width;
+    final int height;
+    final float quality;
+    try {
+      width = Integer.parseInt(query.getOrDefault("w", "0"));
+      height = Integer.parseInt(query.getOrDefault("h", "0"));
+      quality = query.containsKey("q") ? Integer.parseInt(query.get("q")) / 100f : 0;
+    } catch (NumberFormatException e) {
+      send(exchange, 400, "w, h and q must be numbers");
+      return;
+    }
+    if (width < 0 || height < 0 || width + height == 0 || width > MAX_SIZE || height > MAX_SIZE
+        || quality < 0 || quality > 1) {
+      send(exchange, 400, "w or h from 1 to " + MAX_SIZE + ", q from 1 to 100");
+      return;
+    }
+
+    Options o = Options.getInstance();
+    String name = RenditionCache.name(file + "|" + Files.size(file) + "|"
+        + Files.getLastModifiedTime(file).toMillis() + "|" + width + "|" + height + "|"
+        + (quality > 0 ? quality : o.getQuality()) + "|" + outputOptions(o));
+    String etag = "\"" + name + "\"";
+    Headers headers = exchange.getResponseHeaders();
+    headers.set("ETag", etag);
+    headers.set("Cache-Control", "max-age=3600");
+    if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+      exchange.sendResponseHeaders(304, -1);
+      return;
+    }
+
+    File rendition;
+    try {
+      rendition = rendition(name, file.toFile(), width, height, quality);
+    } catch (RejectedExecutionException e) {
+      headers.set("Retry-After", "1");
+      send(exchange, 503, "busy");
+      return;
+    } catch (IOException e) {
+      send(exchange, 500, "can not scale " + uri.getPath());
+      return;
+    }
+
+    headers.set("Content-Type", Encoders.outputName(file.getFileName().toString()).toLowerCase()
+        .endsWith(".png") ? "image/png" : "image/jpeg");
+    byte[] data;
+    try {
+      data = Files.readAllBytes(rendition.toPath());
+    } catch (NoSuchFileException e) {
+      // evicted meanwhile
+      send(exchange, 503, "busy");
+      return;
+    }
+    if (method.equals("HEAD")) {
+      headers.set("Content-Length", "" + data.length);
+      exchange.sendResponseHeaders(200, -1);
+      return;
+    }
+    exchange.sendResponseHeaders(200, data.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(data);
+    }
+  }
+
+  /**
+   * @return the cached rendition, scaled by a worker if it is not cached.
+   *         Concurrent calls for the same rendition share the worker.
+   */
+  File rendition(final String name, final File file, final int width, final int height,
+      final float quality) throws IOException {
+    File cached = cache.get(name);
+    if (cached != null) return cached;
+
+    return SingleFlight.get(flights.submit(name, workers, new Callable<File>() {
+      public File call() throws IOException {
+        return scale(name, file, width, height, quality);
+      }
+    }));
+  }
+
+  private File scale(String name, File file, int width, int height, float quality)
+      throws IOException {
+    byte[] encoded = generator.generateImage(file, width, height, quality);
+    if (encoded == null) throw new IOException("can not scale " + file);
+    return cache.put(name, encoded);
+  }
+
+  /**
+   * @return every option which changes the bytes of a rendition, the cache
+   *         outlives a change of the options
+   */
+  static String outputOptions(Options o) {
+    StringBuilder sb = new StringBuilder(o.getOutputFormat());
+    sb.append('|').append(o.getModus()).append('|').append(o.isAntialiasing());
+    sb.append('|').append(o.isProgressive()).append('|').append(o.getSubsampling());
+    sb.append('|').append(o.getRestartInterval()).append('|').append(o.getTargetSize());
+    sb.append('|').append(o.isCopyMetadata()).append('|').append(o.getMetadataKeep());
+    sb.append('|').append(o.getMetadataStrip()).append('|').append(o.isCopyright());
+    if (o.isCopyright()) {
+      File logo = new File(o.getWatermarkLogo());
+      sb.append('|').append(o.getCopyrightText()).append('|').append(o.getCopyright_r());
+      sb.append(',').append(o.getCopyright_g()).append(',').append(o.getCopyright_b());
+      sb.append('|').append(o.getWatermarkLogo()).append('|').append(logo.lastModified());
+      sb.append('|').append(o.getWatermarkPosition()).append('|').append(o.getWatermarkOpacity());
+    }
+    return sb.toString();
+  }
+
+  private static Map<String, String> query(String raw) {
+    Map<String, String> query = new HashMap<String, String>();
+    if (raw == null) return query;
+    for (String pair : raw.split("&")) {
+      int eq = pair.indexOf('=');
+      if (eq > 0) query.put(pair.substring(0, eq), pair.substring(eq + 1));
+    }
+    return query;
+  }
+
+  private static void send(HttpExchange exchange, int status, String message) throws IOException {
+    byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+}
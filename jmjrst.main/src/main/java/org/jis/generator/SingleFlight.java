@@ -0,0 +1,152 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Runs a task only once for concurrent calls with the same key. The first
+ * caller starts the task, every caller arriving while it runs waits for the
+ * same future and gets the same result or exception. A key is forgotten when
+ * its task ends, so a later call runs the task again; results are not
+ * cached here.
+ * </p>
+ *
+ * @param <K>
+ *          the key of a task
+ * @param <V>
+ *          the result of a task, shared by all callers, it must not be
+ *          modified
+ */
+class SingleFlight<K, V> {
+
+  private final ConcurrentHashMap<K, CompletableFuture<V>> flights = new ConcurrentHashMap<K, CompletableFuture<V>>();
+
+  /**
+   * callers waiting for a task of another caller
+   */
+  private final AtomicInteger waiters = new AtomicInteger();
+
+  /**
+   * <p>
+   * run the task in the calling thread, or wait for the task of the same key
+   * started by another thread
+   * </p>
+   *
+   * @throws IOException
+   *           if the task failed
+   */
+  V run(K key, Callable<V> task) throws IOException {
+    CompletableFuture<V> future = new CompletableFuture<V>();
+    CompletableFuture<V> running = flights.putIfAbsent(key, future);
+    if (running != null) {
+      waiters.incrementAndGet();
+      try {
+        return get(running);
+      } finally {
+        waiters.decrementAndGet();
+      }
+    }
+
+    try {
+      V result = task.call();
+      future.complete(result);
+      return result;
+    } catch (Throwable t) {
+      future.completeExceptionally(t);
+      return get(future);
+    } finally {
+      flights.remove(key, future);
+    }
+  }
+
+  /**
+   * <p>
+   * start the task on the executor, or join the task of the same key
+   * </p>
+   *
+   * @return the future of the task
+   * @throws RejectedExecutionException
+   *           if the executor does not accept a new task
+   */
+  CompletableFuture<V> submit(final K key, Executor executor, final Callable<V> task) {
+    final CompletableFuture<V> future = new CompletableFuture<V>();
+    CompletableFuture<V> running = flights.putIfAbsent(key, future);
+    if (running != null) return running;
+
+    try {
+      executor.execute(new Runnable() {
+        public void run() {
+          try {
+            future.complete(task.call());
+          } catch (Throwable t) {
+            future.completeExceptionally(t);
+          } finally {
+            flights.remove(key, future);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      flights.remove(key, future);
+      future.completeExceptionally(e);
+      throw e;
+    }
+    return future;
+  }
+
+  /**
+   * @return the number of running tasks
+   */
+  int size() {
+    return flights.size();
+  }
+
+  /**
+   * @return the number of callers of {@link #run} waiting for another caller
+   */
+  int waiters() {
+    return waiters.get();
+  }
+
+  /**
+   * <p>
+   * wait for a task, its exception is thrown unwrapped
+   * </p>
+   */
+  static <V> V get(CompletableFuture<V> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) throw (IOException) cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new IOException(cause);
+    }
+  }
+}
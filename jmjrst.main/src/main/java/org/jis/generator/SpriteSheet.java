@@ -0,0 +1,191 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.jis.options.Options;
+
+/**
+ * <p>
+ * Packs the small images of a gallery page into one JPEG, so a page loads its
+ * thumbnails with a single request. The consumers draw each scaled image
+ * straight into its cell, it is never encoded on its own. The cells are
+ * squares of the larger small size, which holds an image of any aspect ratio.
+ * With the last cell the sheet is written together with a style sheet giving
+ * each thumbnail its offset and size.
+ * </p>
+ */
+class SpriteSheet {
+
+  final File            file;
+  final File            css;
+  private final int     first;
+  private final int     count;
+  private final int     cell;
+  private final int     columns;
+  private final int[]   widths;
+  private final int[]   heights;
+  private BufferedImage sheet;
+  private int           remaining;
+
+  /**
+   * @param dir
+   *          directory of the small images
+   * @param page
+   *          number of the gallery page
+   * @param first
+   *          index of the first image of the page
+   * @param count
+   *          number of images on the page
+   * @param width
+   *          width of the small images
+   * @param height
+   *          height of the small images
+   */
+  SpriteSheet(File dir, int page, int first, int count, int width, int height) {
+    this.file = new File(dir, "sprite" + page + ".jpg");
+    this.css = new File(dir, "sprite" + page + ".css");
+    this.first = first;
+    this.count = count;
+    this.cell = Math.max(width, height);
+    // about as wide as high
+    this.columns = Math.max(1, (int) Math.ceil(Math.sqrt(count)));
+    this.widths = new int[count];
+    this.heights = new int[count];
+    this.remaining = count;
+  }
+
+  /**
+   * @param index
+   *          index of the image in the gallery
+   * @return x offset of the cell of the image
+   */
+  int x(int index) {
+    return (index - first) % columns * cell;
+  }
+
+  /**
+   * @param index
+   *          index of the image in the gallery
+   * @return y offset of the cell of the image
+   */
+  int y(int index) {
+    return (index - first) / columns * cell;
+  }
+
+  /**
+   * <p>
+   * copy a scaled image into its cell
+   * </p>
+   *
+   * @param index
+   *          index of the image in the gallery
+   * @param image
+   *          the scaled image, it may be reused afterwards
+   */
+  synchronized void draw(int index, BufferedImage image) {
+    if (sheet == null) {
+      int rows = (count + columns - 1) / columns;
+      sheet = new BufferedImage(columns * cell, rows * cell, BufferedImage.TYPE_INT_RGB);
+      Graphics2D g = sheet.createGraphics();
+      g.setColor(Color.WHITE);
+      g.fillRect(0, 0, sheet.getWidth(), sheet.getHeight());
+      g.dispose();
+    }
+    int w = Math.min(image.getWidth(), cell);
+    int h = Math.min(image.getHeight(), cell);
+    int[] row = new int[w];
+    for (int y = 0; y < h; y++) {
+      image.getRGB(0, y, w, 1, row, 0, w);
+      sheet.setRGB(x(index), y(index) + y, w, 1, row, 0, w);
+    }
+    widths[index - first] = w;
+    heights[index - first] = h;
+  }
+
+  /**
+   * <p>
+   * count an image as done, drawn or failed. The sheet and its style sheet are
+   * written after the last one, a failed image leaves its cell blank.
+   * </p>
+   *
+   * @return true if the sheet has been written by this call
+   * @throws IOException
+   *           if the sheet could not be written
+   */
+  boolean done() throws IOException {
+    BufferedImage complete;
+    synchronized (this) {
+      if (--remaining > 0) return false;
+      complete = sheet;
+      sheet = null;
+    }
+    if (complete == null) return false;
+
+    OutputStream os = new FileOutputStream(file);
+    try {
+      ImageOutputStream ios = new MemoryCacheImageOutputStream(os);
+      new JpegEncoder().encode(complete, ios, Options.getInstance().getQuality());
+      ios.close();
+    } finally {
+      os.close();
+    }
+
+    os = new FileOutputStream(css);
+    try {
+      os.write(style().getBytes(StandardCharsets.US_ASCII));
+    } finally {
+      os.close();
+    }
+    return true;
+  }
+
+  /**
+   * @return the rules of the page, one per image
+   */
+  synchronized String style() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(".sprite { display: inline-block; background: url(" + file.getName()
+        + ") no-repeat; }\n");
+    for (int i = 0; i < count; i++)
+      sb.append("#s" + (first + i) + " { background-position: -" + x(first + i) + "px -"
+          + y(first + i) + "px; width: " + widths[i] + "px; height: " + heights[i] + "px; }\n");
+    return sb.toString();
+  }
+
+  /**
+   * @param index
+   *          index of the image in the gallery
+   * @param title
+   *          title of the image
+   * @return the element showing the image in place of an img
+   */
+  static String element(int index, String title) {
+    return "<span class=\"sprite\" id=\"s" + index + "\" role=\"img\" aria-label=\"" + title
+        + "\"></span>";
+  }
+}
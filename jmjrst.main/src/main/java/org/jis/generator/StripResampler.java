@@ -0,0 +1,287 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+
+/**
+ * <p>
+ * Scales down images which are too large to be decoded at once. The source is
+ * read in horizontal bands with ImageReadParam.setSourceRegion and every row
+ * is area averaged into the rows of the scaled image. The partly covered
+ * target row at the end of a band is carried over to the next band, so the
+ * bands need no overlap. Only one band and the scaled image are in memory.
+ * </p>
+ * <p>
+ * Every band is decoded from the start of the image, so many bands cost about
+ * the square of their number. An image scaled down a lot is therefore decoded
+ * with ImageReadParam.setSourceSubsampling, keeping at least four source rows
+ * and columns per target pixel, which mostly fits into one band.
+ * </p>
+ */
+class StripResampler {
+
+  /**
+   * larger images are scaled in strips
+   */
+  static final long        STRIP_PIXELS = 1L << 26;
+
+  /**
+   * pixels of a band, about 48 MB as decoded by the JPEG reader
+   */
+  private static final int BAND_PIXELS  = 1 << 24;
+
+  private StripResampler() {
+  }
+
+  /**
+   * @param reader
+   *          reader with the image as input
+   * @return true if the image is too large to be decoded at once
+   * @throws IOException
+   *           if the size could not be read
+   */
+  static boolean isLarge(ImageReader reader) throws IOException {
+    return (long) reader.getWidth(0) * reader.getHeight(0) > STRIP_PIXELS;
+  }
+
+  /**
+   * @param reader
+   *          reader with the image as input
+   * @param width
+   *          width of the scaled image, not larger than the image
+   * @param height
+   *          height of the scaled image, not larger than the image
+   * @return the scaled image, borrowed from the {@link PixelPool}
+   * @throws IOException
+   *           if the image could not be read
+   */
+  static BufferedImage resize(ImageReader reader, int width, int height) throws IOException {
+    return resize(reader, width, height, BAND_PIXELS, null);
+  }
+
+  /**
+   * @param transform
+   *          converts the colors of the source, null for none
+   */
+  static BufferedImage resize(ImageReader reader, int width, int height, ColorTransform transform)
+      throws IOException {
+    return resize(reader, width, height, BAND_PIXELS, transform);
+  }
+
+  /**
+   * @param bandPixels
+   *          maximum number of pixels read at once
+   */
+  static BufferedImage resize(ImageReader reader, int width, int height, int bandPixels)
+      throws IOException {
+    return resize(reader, width, height, bandPixels, null);
+  }
+
+  private static BufferedImage resize(ImageReader reader, int width, int height, int bandPixels,
+      ColorTransform transform) throws IOException {
+    int fullWidth = reader.getWidth(0);
+    int fullHeight = reader.getHeight(0);
+    // every sub-th row and column of the source is decoded
+    int sub = subsampling(fullWidth, fullHeight, width, height);
+    int sw = (fullWidth + sub - 1) / sub;
+    int sh = (fullHeight + sub - 1) / sub;
+    double sy = (double) sh / height;
+
+    Columns columns = new Columns(sw, width, transform);
+
+    PixelPool pool = PixelPool.getInstance();
+    BufferedImage returnImage = pool.borrow(width, height, BufferedImage.TYPE_INT_RGB);
+    int[] rgb = new int[sw];
+    float[] row = new float[width * 3];
+    float[] acc = new float[width * 3];
+    int[] out = new int[width];
+    double accWeight = 0;
+    int dy = 0;
+
+    int bandRows = Math.max(1, bandPixels / sw);
+    ImageReadParam param = reader.getDefaultReadParam();
+    param.setSourceSubsampling(sub, sub, 0, 0);
+    // all bands are decoded into the same image
+    int type = reader.getImageTypes(0).next().getBufferedImageType();
+    BufferedImage destination = null;
+    if (PixelPool.isPooled(type)) {
+      destination = pool.borrow(sw, Math.min(bandRows, sh), type);
+      param.setDestination(destination);
+    }
+
+    for (int y0 = 0; y0 < sh && dy < height; y0 += bandRows) {
+      int rows = Math.min(bandRows, sh - y0);
+      // the region starts on a decoded row
+      param.setSourceRegion(new Rectangle(0, y0 * sub, fullWidth,
+          Math.min(rows * sub, fullHeight - y0 * sub)));
+      BufferedImage band = reader.read(0, param);
+
+      for (int by = 0; by < rows && dy < height; by++) {
+        band.getRGB(0, by, sw, 1, rgb, 0, sw);
+        columns.horizontal(rgb, row);
+
+        // the source row covers [y / sy, (y + 1) / sy) of the target rows
+        double top = (y0 + by) / sy;
+        double bottom = (y0 + by + 1) / sy;
+        while (top < bottom && dy < height) {
+          double end = Math.min(bottom, dy + 1);
+          float wgt = (float) (end - top);
+          for (int i = 0; i < acc.length; i++)
+            acc[i] += row[i] * wgt;
+          accWeight += wgt;
+          top = end;
+
+          if (end >= dy + 1) {
+            columns.emit(acc, accWeight, out);
+            returnImage.setRGB(0, dy, width, 1, out, 0, width);
+            Arrays.fill(acc, 0);
+            accWeight = 0;
+            dy++;
+          }
+        }
+      }
+    }
+    pool.release(destination);
+
+    // rounding may leave the last row open
+    if (dy < height && accWeight > 0) {
+      columns.emit(acc, accWeight, out);
+      returnImage.setRGB(0, dy, width, 1, out, 0, width);
+    }
+    return returnImage;
+  }
+
+  /**
+   * @return the subsampling which leaves at least four source pixels per target
+   *         pixel on both axes
+   */
+  static int subsampling(int sw, int sh, int width, int height) {
+    return Math.max(1, Math.min(sw / width, sh / height) / 4);
+  }
+
+  /*
+   * <p> Area averages a row horizontally, each source column covers [x / sx,
+   * (x + 1) / sx) of the target columns, at most two of them </p>
+   */
+  static class Columns {
+    private final int[]          column;
+    private final float[]        weight;
+    private final float[]        columnWeight;
+    private final float          full;
+
+    /**
+     * null if the colors are averaged as they are
+     */
+    private final ColorTransform transform;
+
+    Columns(int sw, int width) {
+      this(sw, width, null);
+    }
+
+    Columns(int sw, int width, ColorTransform transform) {
+      this.transform = transform == null || transform.isIdentity() ? null : transform;
+      double sx = (double) sw / width;
+      full = (float) (1 / sx);
+      column = new int[sw];
+      weight = new float[sw];
+      columnWeight = new float[width];
+      for (int x = 0; x < sw; x++) {
+        double left = x / sx;
+        double right = (x + 1) / sx;
+        column[x] = Math.min((int) left, width - 1);
+        double split = Math.min(right, column[x] + 1);
+        weight[x] = (float) (split - left);
+        columnWeight[column[x]] += weight[x];
+        if (column[x] + 1 < width) columnWeight[column[x] + 1] += (float) (right - split);
+      }
+    }
+
+    /**
+     * @param rgb
+     *          a source row
+     * @param row
+     *          receives the averaged r, g, b values of the target columns
+     */
+    void horizontal(int[] rgb, float[] row) {
+      Arrays.fill(row, 0);
+      int width = columnWeight.length;
+      float[] converted = new float[3];
+      for (int x = 0; x < rgb.length; x++) {
+        int p = rgb[x];
+        float r = (p >> 16) & 0xFF;
+        float g = (p >> 8) & 0xFF;
+        float b = p & 0xFF;
+        if (transform != null) {
+          transform.convert(p, converted);
+          r = converted[0];
+          g = converted[1];
+          b = converted[2];
+        }
+        int c = column[x] * 3;
+        float w0 = weight[x];
+        row[c] += r * w0;
+        row[c + 1] += g * w0;
+        row[c + 2] += b * w0;
+        float w1 = full - w0;
+        if (w1 > 0 && column[x] + 1 < width) {
+          row[c + 3] += r * w1;
+          row[c + 4] += g * w1;
+          row[c + 5] += b * w1;
+        }
+      }
+      for (int c = 0; c < width; c++) {
+        float cw = columnWeight[c];
+        row[c * 3] /= cw;
+        row[c * 3 + 1] /= cw;
+        row[c * 3 + 2] /= cw;
+      }
+    }
+
+    /**
+     * @param acc
+     *          the weighted sums of the target row
+     * @param accWeight
+     *          the sum of the weights
+     * @param out
+     *          receives the pixels of the target row
+     */
+    void emit(float[] acc, double accWeight, int[] out) {
+      boolean linear = transform != null && transform.isLinear();
+      for (int c = 0; c < out.length; c++) {
+        float r = (float) (acc[c * 3] / accWeight);
+        float g = (float) (acc[c * 3 + 1] / accWeight);
+        float b = (float) (acc[c * 3 + 2] / accWeight);
+        if (linear) {
+          r = ColorTransform.encode(r / 255);
+          g = ColorTransform.encode(g / 255);
+          b = ColorTransform.encode(b / 255);
+        }
+        out[c] = (clamp(Math.round(r)) << 16) | (clamp(Math.round(g)) << 8) | clamp(Math.round(b));
+      }
+    }
+  }
+
+  private static int clamp(int v) {
+    return v < 0 ? 0 : v > 255 ? 255 : v;
+  }
+}
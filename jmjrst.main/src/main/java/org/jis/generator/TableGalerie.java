@@ -156,7 +156,7 @@ public class TableGalerie {
 
 
           // generate small image
-          out_s = new File(small, images[i].getName());
+          out_s = new File(small, Encoders.outputName(images[i].getName()));
           elements.add(new Element(i, images[i], 159, 119, small));
 
           try
@@ -171,7 +171,7 @@ public class TableGalerie {
           }
 
           // generate medium image
-          out_m = new File(medium, images[i].getName());
+          out_m = new File(medium, Encoders.outputName(images[i].getName()));
           elements.add(new Element(i, images[i], 450, 338, medium));
 
           try
@@ -186,7 +186,7 @@ public class TableGalerie {
           }
 
           // generate big image
-          out_b = new File(big, images[i].getName());
+          out_b = new File(big, Encoders.outputName(images[i].getName()));
           elements.add(new Element(i, images[i], o.getHmax(), o.getVmax(), big));
 
           if (i == 0) createPreview(i, medium, out_m.getName(), out_b.getName(), false, true);
@@ -321,27 +321,7 @@ public class TableGalerie {
         
         Element[] els = new Element[elements.size()];
         Producer producer = new Producer(m,elements.toArray(els),"");
-        Thread producerThread = new Thread(producer);
-        int cpus = Runtime.getRuntime().availableProcessors();
-        Thread consumerThreads[] = new Thread[cpus];
-        for (int i = 0; i < cpus; i++)
-        {
-          consumerThreads[i] = new Thread(new Consumer(producer,m,false,null)); 
-        }
-
-        producerThread.start();
-        for (int i = 0; i < cpus; i++)
-        {
-          consumerThreads[i].start(); 
-        }
-
-        try {
-          producerThread.join();
-          for (int i = 0; i < cpus; i++)
-          {
-            consumerThreads[i].join(); 
-          }
-        } catch (InterruptedException ignore) {}
+        new Pipeline(producer,m,false,null).run();
 
 
         
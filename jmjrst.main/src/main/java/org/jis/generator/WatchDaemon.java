@@ -0,0 +1,396 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import javax.management.ObjectName;
+
+import org.jis.Messages;
+import org.jis.options.Options;
+
+/**
+ * <p>
+ * Scales the JPEGs arriving in watched folders, in a JVM which keeps running.
+ * The ImageIO plugins, the pixel pool and the compiled code stay warm, an
+ * image from a tethered camera is scaled well within a second. A file is
+ * taken when no event came for it for a while, its size did not change and
+ * it ends with the EOI marker, so files still being copied are left alone.
+ * The scaled images have the directory structure of the watched folder.
+ * </p>
+ */
+public class WatchDaemon implements WatchDaemonMBean {
+
+  /**
+   * a file is taken after this time without events
+   */
+  static final long                  QUIET_MILLIS  = 250;
+
+  /**
+   * a file without EOI marker is taken after this time anyway
+   */
+  static final long                  MAX_WAIT      = 5000;
+
+  private static final long          POLL_MILLIS   = 50;
+
+  private final Generator            generator;
+  private final File[]               inputs;
+  private final File                 output;
+  private final int                  width;
+  private final int                  height;
+  private final boolean              recursive;
+  private final ExecutorService      workers;
+  private final WatchService         watcher;
+  private final String               praefix;
+
+  private final Map<WatchKey, Path>  dirs          = new HashMap<WatchKey, Path>();
+  private final Map<Path, Arrival>   pending       = new HashMap<Path, Arrival>();
+
+  private final AtomicLong           processed     = new AtomicLong();
+  private final AtomicLong           failed        = new AtomicLong();
+  private final AtomicInteger        queued        = new AtomicInteger();
+  private volatile int               waiting;
+  private final AtomicLong           bytesRead     = new AtomicLong();
+  private final AtomicLong           bytesWritten  = new AtomicLong();
+  private final AtomicLong           latencyNanos  = new AtomicLong();
+  private final long                 start         = System.nanoTime();
+
+  /*
+   * <p> A file being written </p>
+   */
+  private static class Arrival {
+    final long first;
+    long       last;
+    long       size = -1;
+
+    Arrival(long now) {
+      first = now;
+      last = now;
+    }
+  }
+
+  /**
+   * @param generator
+   *          scales the images
+   * @param inputs
+   *          the watched folders
+   * @param output
+   *          folder of the scaled images
+   * @param width
+   *          maximum width of the scaled images
+   * @param height
+   *          maximum height of the scaled images
+   * @param recursive
+   *          watch the sub folders too
+   * @throws IOException
+   *           if a folder can not be watched, or the output overlaps a
+   *           watched folder
+   */
+  public WatchDaemon(Generator generator, File[] inputs, File output, int width, int height,
+      boolean recursive) throws IOException {
+    this.generator = generator;
+    this.inputs = inputs;
+    this.output = output;
+    this.width = width;
+    this.height = height;
+    this.recursive = recursive;
+    // the scaled images must not arrive in a watched folder, they would be
+    // scaled again and again
+    Path out = output.toPath().toAbsolutePath().normalize();
+    for (File input : inputs) {
+      Path in = input.toPath().toAbsolutePath().normalize();
+      if (in.equals(out) || recursive && (out.startsWith(in) || in.startsWith(out)))
+        throw new IOException("the output " + output + " overlaps the watched folder " + input);
+    }
+    this.workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    this.watcher = FileSystems.getDefault().newWatchService();
+    this.praefix = new Messages(Options.getInstance().getLocal()).getString("Generator.22");
+    for (File input : inputs)
+      register(input.toPath(), false);
+  }
+
+  /**
+   * <p>
+   * watch the folders until {@link #stop()} is called
+   * </p>
+   */
+  public void run() {
+    warmUp();
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+          new ObjectName("org.jis:type=WatchDaemon"));
+    } catch (Exception e) {
+      // the counters are still logged
+    }
+
+    try {
+      while (true) {
+        WatchKey key = watcher.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        long now = System.nanoTime();
+        if (key != null) {
+          events(key, now);
+          // take every event which is already there
+          while ((key = watcher.poll()) != null)
+            events(key, now);
+        }
+        dispatch(now);
+      }
+    } catch (ClosedWatchServiceException e) {
+      // stopped
+    } catch (InterruptedException e) {
+      // stopped
+    } finally {
+      workers.shutdown();
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+            new ObjectName("org.jis:type=WatchDaemon"));
+      } catch (Exception e) {
+      }
+    }
+  }
+
+  /**
+   * <p>
+   * stop watching, the images already taken are finished
+   * </p>
+   */
+  public void stop() {
+    try {
+      watcher.close();
+    } catch (IOException e) {
+    }
+  }
+
+  /**
+   * <p>
+   * wait for the images already taken
+   * </p>
+   */
+  public void awaitWorkers() throws InterruptedException {
+    workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * <p>
+   * load the ImageIO plugins and run the codec once, so the first image
+   * arriving is not slowed down
+   * </p>
+   */
+  private void warmUp() {
+    try {
+      BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+      ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+      ImageIO.write(image, "jpg", jpeg);
+      try (ImageInputStream iis = new ByteBufferImageInputStream(jpeg.toByteArray())) {
+        generator.generateImage(iis, false, 32, 32);
+      }
+    } catch (IOException e) {
+    }
+  }
+
+  private void register(Path dir, boolean scan) throws IOException {
+    dirs.put(dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY), dir);
+    if (!recursive && !scan) return;
+
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+      for (Path file : files) {
+        if (recursive && Files.isDirectory(file)) register(file, scan);
+        // files copied before the folder was registered
+        else if (scan && Files.isRegularFile(file)) pending.put(file, new Arrival(System.nanoTime()));
+      }
+    }
+  }
+
+  private void events(WatchKey key, long now) {
+    Path dir = dirs.get(key);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == OVERFLOW || dir == null) continue;
+      Path file = dir.resolve((Path) event.context());
+
+      if (Files.isDirectory(file)) {
+        if (recursive && event.kind() == ENTRY_CREATE) try {
+          register(file, true);
+        } catch (IOException e) {
+          System.out.println(e);
+        }
+        continue;
+      }
+
+      Arrival a = pending.get(file);
+      if (a == null) pending.put(file, new Arrival(now));
+      else a.last = now;
+    }
+    if (!key.reset()) dirs.remove(key);
+  }
+
+  /**
+   * hand the completely written files to the workers
+   */
+  private void dispatch(long now) {
+    for (Iterator<Map.Entry<Path, Arrival>> it = pending.entrySet().iterator(); it.hasNext();) {
+      Map.Entry<Path, Arrival> entry = it.next();
+      final Path file = entry.getKey();
+      final Arrival a = entry.getValue();
+      if (now - a.last < TimeUnit.MILLISECONDS.toNanos(QUIET_MILLIS)) continue;
+
+      long size;
+      try {
+        size = Files.size(file);
+      } catch (IOException e) {
+        // deleted meanwhile
+        it.remove();
+        continue;
+      }
+      if (size != a.size) {
+        // still growing without events, e.g. on a network share
+        a.size = size;
+        a.last = now;
+        continue;
+      }
+      if (!ImageDiscovery.isJpeg(file)) {
+        it.remove();
+        continue;
+      }
+      if (!isComplete(file) && now - a.first < TimeUnit.MILLISECONDS.toNanos(MAX_WAIT)) {
+        a.last = now;
+        continue;
+      }
+
+      it.remove();
+      queued.incrementAndGet();
+      workers.execute(new Runnable() {
+        public void run() {
+          try {
+            scale(file.toFile(), a.first);
+          } finally {
+            queued.decrementAndGet();
+          }
+        }
+      });
+    }
+    waiting = pending.size();
+  }
+
+  /**
+   * @return true if the JPEG ends with the EOI marker
+   */
+  static boolean isComplete(Path file) {
+    try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (fc.size() < 4) return false;
+      ByteBuffer eoi = ByteBuffer.allocate(2);
+      while (eoi.hasRemaining())
+        if (fc.read(eoi, fc.size() - 2 + eoi.position()) < 0) return false;
+      return (eoi.get(0) & 0xFF) == 0xFF && (eoi.get(1) & 0xFF) == 0xD9;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private void scale(File image, long arrival) {
+    File dir = output;
+    for (File input : inputs)
+      if (image.toPath().startsWith(input.toPath())) {
+        dir = new File(output, input.toPath().relativize(image.getParentFile().toPath()).toString());
+        break;
+      }
+    File out = new File(dir, praefix + Encoders.outputName(image.getName()));
+
+    byte[] encoded = null;
+    try {
+      encoded = generator.generateImage(image, width, height, 0);
+      if (encoded != null) {
+        dir.mkdirs();
+        Files.deleteIfExists(out.toPath());
+        Files.write(out.toPath(), encoded);
+      }
+    } catch (IOException e) {
+      encoded = null;
+    } catch (RuntimeException e) {
+      // a corrupt image the reader chokes on
+      encoded = null;
+    }
+
+    if (encoded == null) {
+      failed.incrementAndGet();
+      System.out.println(image + " . . . FAILED");
+      return;
+    }
+    processed.incrementAndGet();
+    bytesRead.addAndGet(image.length());
+    bytesWritten.addAndGet(encoded.length);
+    long latency = System.nanoTime() - arrival;
+    latencyNanos.addAndGet(latency);
+    System.out.println(image + " -> " + out + " (" + latency / 1000000 + " ms)");
+  }
+
+  public long getProcessed() {
+    return processed.get();
+  }
+
+  public long getFailed() {
+    return failed.get();
+  }
+
+  public int getPending() {
+    return waiting + queued.get();
+  }
+
+  public long getBytesRead() {
+    return bytesRead.get();
+  }
+
+  public long getBytesWritten() {
+    return bytesWritten.get();
+  }
+
+  public double getMeanLatencyMillis() {
+    long n = processed.get();
+    return n == 0 ? 0 : latencyNanos.get() / 1e6 / n;
+  }
+
+  public double getImagesPerSecond() {
+    return processed.get() / ((System.nanoTime() - start) / 1e9);
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+/**
+ * <p>
+ * The throughput counters of a {@link WatchDaemon}, registered as
+ * org.jis:type=WatchDaemon on the platform MBean server
+ * </p>
+ */
+public interface WatchDaemonMBean {
+
+  /**
+   * @return the images scaled since the start
+   */
+  long getProcessed();
+
+  /**
+   * @return the images which could not be scaled
+   */
+  long getFailed();
+
+  /**
+   * @return the files waiting until they are completely written or a worker
+   *         is free
+   */
+  int getPending();
+
+  long getBytesRead();
+
+  long getBytesWritten();
+
+  /**
+   * @return the mean time from the arrival of a file to its scaled image
+   */
+  double getMeanLatencyMillis();
+
+  /**
+   * @return the images scaled per second since the start
+   */
+  double getImagesPerSecond();
+}
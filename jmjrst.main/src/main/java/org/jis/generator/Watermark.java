@@ -0,0 +1,263 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.generator;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.jis.options.Options;
+
+/**
+ * <p>
+ * Draws the copyright text or a logo onto the scaled images. The text is laid
+ * out and rasterized only once per font size, the logo scaled only once per
+ * image width, into an ARGB sprite with the opacity already applied. Each
+ * image then gets the sprite blended into its pixels row by row.
+ * </p>
+ */
+class Watermark {
+
+  /**
+   * sprites kept, one per output width in use
+   */
+  private static final int       CACHED   = 32;
+
+  private static final Watermark instance = new Watermark();
+
+  private final Map<String, BufferedImage> sprites = new LinkedHashMap<String, BufferedImage>(16,
+      0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+      return size() > CACHED;
+    }
+  };
+
+  private String        logoKey;
+  private BufferedImage logo;
+
+  Watermark() {
+  }
+
+  /**
+   * @return the watermark shared by all generators
+   */
+  static Watermark getInstance() {
+    return instance;
+  }
+
+  /**
+   * <p>
+   * draw the watermark of the options onto the image
+   * </p>
+   *
+   * @param image
+   *          the scaled image
+   */
+  void apply(BufferedImage image) {
+    Options o = Options.getInstance();
+    BufferedImage sprite = sprite(image.getWidth(), o);
+    if (sprite == null) return;
+
+    int margin = Math.max(1, (int) (image.getWidth() * 0.02));
+    int x = margin;
+    int y = image.getHeight() - margin - sprite.getHeight();
+    switch (o.getWatermarkPosition()) {
+    case Options.WATERMARK_BOTTOM_RIGHT:
+      x = image.getWidth() - margin - sprite.getWidth();
+      break;
+    case Options.WATERMARK_TOP_LEFT:
+      y = margin;
+      break;
+    case Options.WATERMARK_TOP_RIGHT:
+      x = image.getWidth() - margin - sprite.getWidth();
+      y = margin;
+      break;
+    case Options.WATERMARK_CENTER:
+      x = (image.getWidth() - sprite.getWidth()) / 2;
+      y = (image.getHeight() - sprite.getHeight()) / 2;
+      break;
+    default:
+      break;
+    }
+    blend(image, sprite, x, y);
+  }
+
+  /**
+   * @param width
+   *          width of the scaled image
+   * @param o
+   *          the options
+   * @return the sprite for images of the width, null if there is nothing to
+   *         draw
+   */
+  BufferedImage sprite(int width, Options o) {
+    File file = o.getWatermarkLogo().length() > 0 ? new File(o.getWatermarkLogo()) : null;
+    int fontSize = (int) (width * 0.02);
+    String key;
+    if (file != null)
+      key = "logo_" + file.getAbsolutePath() + "_" + file.lastModified() + "_" + width / 5;
+    else
+      key = "text_" + fontSize + "_" + o.getCopyright_r() + "_" + o.getCopyright_g() + "_"
+          + o.getCopyright_b() + "_" + o.isAntialiasing() + "_" + o.getCopyrightText();
+    key = o.getWatermarkOpacity() + "_" + key;
+
+    BufferedImage sprite;
+    synchronized (sprites) {
+      sprite = sprites.get(key);
+    }
+    if (sprite != null) return sprite;
+
+    if (file != null)
+      sprite = renderLogo(file, width / 5);
+    else
+      sprite = renderText(o.getCopyrightText(), fontSize,
+          new Color(o.getCopyright_r(), o.getCopyright_g(), o.getCopyright_b()), o.isAntialiasing());
+    if (sprite == null) return null;
+    fade(sprite, o.getWatermarkOpacity());
+
+    synchronized (sprites) {
+      sprites.put(key, sprite);
+    }
+    return sprite;
+  }
+
+  private static BufferedImage renderText(String text, int fontSize, Color color,
+      boolean antialiasing) {
+    if (text == null || text.length() == 0 || fontSize < 1) return null;
+
+    Font font = new Font("Helvetica", Font.BOLD, fontSize);
+    Graphics2D g = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+    FontMetrics fm = g.getFontMetrics(font);
+    int w = fm.stringWidth(text);
+    int h = fm.getAscent() + fm.getDescent();
+    g.dispose();
+    if (w < 1 || h < 1) return null;
+
+    BufferedImage sprite = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+    g = sprite.createGraphics();
+    g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+        antialiasing ? RenderingHints.VALUE_TEXT_ANTIALIAS_ON
+            : RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+    g.setFont(font);
+    g.setColor(color);
+    g.drawString(text, 0, fm.getAscent());
+    g.dispose();
+    return sprite;
+  }
+
+  private BufferedImage renderLogo(File file, int width) {
+    if (width < 1) return null;
+    BufferedImage source;
+    synchronized (this) {
+      String key = file.getAbsolutePath() + "_" + file.lastModified();
+      if (!key.equals(logoKey)) {
+        try {
+          logo = ImageIO.read(file);
+        } catch (IOException e) {
+          logo = null;
+        }
+        logoKey = key;
+      }
+      source = logo;
+    }
+    if (source == null) return null;
+
+    int height = Math.max(1, (int) ((long) source.getHeight() * width / source.getWidth()));
+    BufferedImage sprite = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = sprite.createGraphics();
+    g.drawImage(source.getScaledInstance(width, height, Image.SCALE_SMOOTH), 0, 0, null);
+    g.dispose();
+    return sprite;
+  }
+
+  /**
+   * <p>
+   * multiply the alpha of the sprite with the opacity
+   * </p>
+   */
+  private static void fade(BufferedImage sprite, int opacity) {
+    if (opacity >= 100) return;
+    int[] pixels = ((DataBufferInt) sprite.getRaster().getDataBuffer()).getData();
+    for (int i = 0; i < pixels.length; i++) {
+      int a = ((pixels[i] >>> 24) * Math.max(0, opacity) + 50) / 100;
+      pixels[i] = a << 24 | pixels[i] & 0xFFFFFF;
+    }
+  }
+
+  /**
+   * <p>
+   * blend the sprite into the image at x, y, the parts outside of the image
+   * are left out
+   * </p>
+   */
+  static void blend(BufferedImage image, BufferedImage sprite, int x, int y) {
+    if (image.getType() != BufferedImage.TYPE_INT_RGB) {
+      Graphics2D g = image.createGraphics();
+      g.drawImage(sprite, x, y, null);
+      g.dispose();
+      return;
+    }
+
+    int x0 = Math.max(0, x);
+    int y0 = Math.max(0, y);
+    int x1 = Math.min(image.getWidth(), x + sprite.getWidth());
+    int y1 = Math.min(image.getHeight(), y + sprite.getHeight());
+    if (x0 >= x1 || y0 >= y1) return;
+
+    int sw = sprite.getWidth();
+    int[] src = ((DataBufferInt) sprite.getRaster().getDataBuffer()).getData();
+    // the image may be a view of a pooled array, so row by row through the
+    // raster
+    WritableRaster raster = image.getRaster();
+    int n = x1 - x0;
+    int[] row = new int[n];
+    for (int yy = y0; yy < y1; yy++) {
+      raster.getDataElements(x0, yy, n, 1, row);
+      int offset = (yy - y) * sw + x0 - x;
+      for (int i = 0; i < n; i++) {
+        int s = src[offset + i];
+        int a = s >>> 24;
+        if (a == 0) continue;
+        if (a == 255) {
+          row[i] = s & 0xFFFFFF;
+          continue;
+        }
+        int d = row[i];
+        row[i] = mix(s >> 16 & 0xFF, d >> 16 & 0xFF, a) << 16
+            | mix(s >> 8 & 0xFF, d >> 8 & 0xFF, a) << 8 | mix(s & 0xFF, d & 0xFF, a);
+      }
+      raster.setDataElements(x0, yy, n, 1, row);
+    }
+  }
+
+  private static int mix(int src, int dst, int alpha) {
+    return (src * alpha + dst * (255 - alpha) + 127) / 255;
+  }
+}
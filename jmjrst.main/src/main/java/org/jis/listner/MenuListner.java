@@ -18,6 +18,7 @@ package org.jis.listner;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
@@ -79,6 +80,8 @@ public class MenuListner implements ActionListener {
     else if (e.getSource() == menu.gener || e.getSource() == m.toolBar.gener) { m.generator.generate(false); }
     else if (e.getSource() == menu.zippen || e.getSource() == m.toolBar.zippen) { m.generator.generate(true); }
     else if (e.getSource() == menu.gallerie || e.getSource() == m.toolBar.gallerie) { new GallerieDialog(m); }
+    else if (e.getSource() == menu.rotate_left) { m.generator.rotate(m.list.getSelectedValues().toArray(new File[0]), 270); }
+    else if (e.getSource() == menu.rotate_right) { m.generator.rotate(m.list.getSelectedValues().toArray(new File[0]), 90); }
     else if (e.getSource() == menu.exit) { System.exit(0); }
     else if (e.getSource() == menu.set_quality || e.getSource() == m.toolBar.preferences) { m.openOptions(); }
     else if (e.getSource() == menu.look_windows)
@@ -40,6 +40,13 @@ public class Options implements Serializable {
   public static final int      MODUS_QUALITY       = 2;
   public static final int      MODUS_DEFAULT       = 1;
   public static final int      MODUS_SPEED         = 0;
+  public static final int      SUBSAMPLING_420     = 0;
+  public static final int      SUBSAMPLING_444     = 1;
+  public static final int      WATERMARK_BOTTOM_LEFT  = 0;
+  public static final int      WATERMARK_BOTTOM_RIGHT = 1;
+  public static final int      WATERMARK_TOP_LEFT     = 2;
+  public static final int      WATERMARK_TOP_RIGHT    = 3;
+  public static final int      WATERMARK_CENTER       = 4;
 
   private final String         uh                  = System.getProperty("user.home");
   private File                 f                   = new File("options.properties");
@@ -67,10 +74,23 @@ public class Options implements Serializable {
   private int                  copyright_g         = 255;
   private int                  copyright_b         = 255;
   private boolean              copyright           = false;
+  private String               watermarkLogo       = "";
+  private int                  watermarkPosition   = WATERMARK_BOTTOM_LEFT;
+  private int                  watermarkOpacity    = 100;                                               // percent
   private boolean              initial             = true;
   private boolean              textbox             = false;
   private boolean              antialiasing        = true;
   private boolean              copyMetadata        = true;
+  private boolean              exifRotation        = false;
+  private String               metadataKeep        = "exif,xmp,iptc,comment";
+  private String               metadataStrip       = "makernote,thumbnail";
+  private String               outputFormat        = "jpg";
+  private boolean              progressive         = false;
+  private int                  subsampling         = SUBSAMPLING_420;
+  private int                  restartInterval     = 0;                                                 // MCUs
+  private int                  targetSize          = 0;                                                 // KB
+  private boolean              burstFilter         = false;
+  private int                  burstDistance       = 6;                                                 // bits
 
   private Options() {
     super();
@@ -108,6 +128,20 @@ public class Options implements Serializable {
         modus = Integer.parseInt(p.getProperty("modus"));
         antialiasing = Boolean.parseBoolean(p.getProperty("antialiasing"));
         copyMetadata = Boolean.parseBoolean(p.getProperty("copyMetadata"));
+        // options files of earlier versions lack the keys below
+        exifRotation = Boolean.parseBoolean(p.getProperty("exifRotation", "" + exifRotation));
+        progressive = Boolean.parseBoolean(p.getProperty("progressive", "" + progressive));
+        subsampling = Integer.parseInt(p.getProperty("subsampling", "" + subsampling));
+        restartInterval = Integer.parseInt(p.getProperty("restartInterval", "" + restartInterval));
+        targetSize = Integer.parseInt(p.getProperty("targetSize", "" + targetSize));
+        watermarkLogo = p.getProperty("watermarkLogo", watermarkLogo);
+        watermarkPosition = Integer.parseInt(p.getProperty("watermarkPosition", "" + watermarkPosition));
+        watermarkOpacity = Integer.parseInt(p.getProperty("watermarkOpacity", "" + watermarkOpacity));
+        metadataKeep = p.getProperty("metadataKeep", metadataKeep);
+        metadataStrip = p.getProperty("metadataStrip", metadataStrip);
+        burstFilter = Boolean.parseBoolean(p.getProperty("burstFilter", "" + burstFilter));
+        burstDistance = Integer.parseInt(p.getProperty("burstDistance", "" + burstDistance));
+        outputFormat = p.getProperty("outputFormat", outputFormat);
       }
       catch (RuntimeException e) {
         saveOptions();
@@ -165,12 +199,25 @@ public class Options implements Serializable {
       p.setProperty("initial", "" + initial);
       p.setProperty("antialiasing", "" + antialiasing);
       p.setProperty("copyMetadata", "" + copyMetadata);
+      p.setProperty("exifRotation", "" + exifRotation);
+      p.setProperty("metadataKeep", "" + metadataKeep);
+      p.setProperty("metadataStrip", "" + metadataStrip);
+      p.setProperty("outputFormat", "" + outputFormat);
+      p.setProperty("progressive", "" + progressive);
+      p.setProperty("subsampling", "" + subsampling);
+      p.setProperty("restartInterval", "" + restartInterval);
+      p.setProperty("targetSize", "" + targetSize);
+      p.setProperty("burstFilter", "" + burstFilter);
+      p.setProperty("burstDistance", "" + burstDistance);
       p.setProperty("textbox", "" + textbox);
       p.setProperty("copyright", "" + copyright);
       p.setProperty("copyrightText", "" + copyrightText);
       p.setProperty("copyright_r", "" + copyright_r);
       p.setProperty("copyright_g", "" + copyright_g);
       p.setProperty("copyright_b", "" + copyright_b);
+      p.setProperty("watermarkLogo", "" + watermarkLogo);
+      p.setProperty("watermarkPosition", "" + watermarkPosition);
+      p.setProperty("watermarkOpacity", "" + watermarkOpacity);
 
       p.storeToXML(new FileOutputStream(f), new Date(System.currentTimeMillis()).toString());
     }
@@ -180,6 +227,17 @@ public class Options implements Serializable {
     }
   }
 
+  /**
+   * @return the folder for journals and caches in the home directory of the
+   *         user, so they are found from every working directory
+   */
+  public File getStateDir()
+  {
+    File dir = new File(uh, ".jmjrst");
+    dir.mkdirs();
+    return dir;
+  }
+
   public String getInput_dir()
   {
     return input_dir;
@@ -465,4 +523,165 @@ public class Options implements Serializable {
     this.copyMetadata = copyMetadata;
   }
 
+  /**
+   * @return true if images are rotated by changing only their EXIF orientation
+   */
+  public boolean isExifRotation()
+  {
+    return exifRotation;
+  }
+
+  public void setExifRotation(boolean exifRotation)
+  {
+    this.exifRotation = exifRotation;
+  }
+
+  public String getOutputFormat()
+  {
+    return outputFormat;
+  }
+
+  public void setOutputFormat(String outputFormat)
+  {
+    this.outputFormat = outputFormat;
+  }
+
+  public boolean isProgressive()
+  {
+    return progressive;
+  }
+
+  public void setProgressive(boolean progressive)
+  {
+    this.progressive = progressive;
+  }
+
+  public int getSubsampling()
+  {
+    return subsampling;
+  }
+
+  public void setSubsampling(int subsampling)
+  {
+    this.subsampling = subsampling;
+  }
+
+  public int getRestartInterval()
+  {
+    return restartInterval;
+  }
+
+  public void setRestartInterval(int restartInterval)
+  {
+    this.restartInterval = restartInterval;
+  }
+
+  /**
+   * @return the maximum size of a JPEG in KB, 0 to use the quality
+   */
+  public int getTargetSize()
+  {
+    return targetSize;
+  }
+
+  public void setTargetSize(int targetSize)
+  {
+    this.targetSize = targetSize;
+  }
+
+  /**
+   * @return path of a PNG drawn instead of the copyright text, empty for the
+   *         text
+   */
+  public String getWatermarkLogo()
+  {
+    return watermarkLogo;
+  }
+
+  public void setWatermarkLogo(String watermarkLogo)
+  {
+    this.watermarkLogo = watermarkLogo;
+  }
+
+  /**
+   * @return one of the WATERMARK_ positions
+   */
+  public int getWatermarkPosition()
+  {
+    return watermarkPosition;
+  }
+
+  public void setWatermarkPosition(int watermarkPosition)
+  {
+    this.watermarkPosition = watermarkPosition;
+  }
+
+  /**
+   * @return opacity of the copyright text or logo in percent
+   */
+  public int getWatermarkOpacity()
+  {
+    return watermarkOpacity;
+  }
+
+  public void setWatermarkOpacity(int watermarkOpacity)
+  {
+    this.watermarkOpacity = watermarkOpacity;
+  }
+
+  /**
+   * @return comma separated kinds of metadata copied to the scaled images:
+   *         exif, xmp, iptc, comment and icc. The pixels are converted to sRGB,
+   *         so the ICC profile of the source is only right if it is sRGB.
+   */
+  public String getMetadataKeep()
+  {
+    return metadataKeep;
+  }
+
+  public void setMetadataKeep(String metadataKeep)
+  {
+    this.metadataKeep = metadataKeep;
+  }
+
+  /**
+   * @return comma separated EXIF tags removed from the copied metadata,
+   *         hexadecimal or makernote, thumbnail and gps
+   */
+  public String getMetadataStrip()
+  {
+    return metadataStrip;
+  }
+
+  public void setMetadataStrip(String metadataStrip)
+  {
+    this.metadataStrip = metadataStrip;
+  }
+
+  /**
+   * @return true if a gallery shows only the first picture of every burst
+   */
+  public boolean isBurstFilter()
+  {
+    return burstFilter;
+  }
+
+  public void setBurstFilter(boolean burstFilter)
+  {
+    this.burstFilter = burstFilter;
+  }
+
+  /**
+   * @return the largest number of differing hash bits of pictures of a burst
+   */
+  public int getBurstDistance()
+  {
+    return burstDistance;
+  }
+
+  public void setBurstDistance(int burstDistance)
+  {
+    this.burstDistance = burstDistance;
+  }
+
 }
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2007 - 2009 Johannes Geppert
+ *
+ * Licensed under the GPL, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ * http://www.fsf.org/licensing/licenses/gpl.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.jis.view;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * <p>
+ * Caches the listings of scanned directories. Every cached directory is
+ * registered with a WatchService, a change in the directory drops its listing
+ * and the listeners are informed on the EDT.
+ * </p>
+ */
+public class DirectoryCache {
+
+  /**
+   * maximum number of cached directories
+   */
+  private static final int MAX_DIRECTORIES = 256;
+
+  /**
+   * <p>
+   * An entry of a directory listing
+   * </p>
+   */
+  public static class Entry {
+    public final File    file;
+    public final boolean directory;
+    public final boolean jpeg;
+    public final long    size;
+    public final long    modified;
+
+    Entry(Path p, BasicFileAttributes attrs) {
+      String fileName = p.getFileName().toString().toLowerCase();
+      this.file = p.toFile();
+      this.directory = attrs.isDirectory();
+      this.jpeg = !directory && (fileName.endsWith(".jpg") || fileName.endsWith(".jpeg"));
+      this.size = attrs.size();
+      this.modified = attrs.lastModifiedTime().toMillis();
+    }
+  }
+
+  /**
+   * <p>
+   * Receives the entries of a directory while it is scanned
+   * </p>
+   */
+  public interface Sink {
+    /**
+     * @param e
+     *          the next entry
+     * @return false to stop the scan
+     */
+    boolean accept(Entry e);
+  }
+
+  /**
+   * <p>
+   * Informed on the EDT when a cached directory has changed
+   * </p>
+   */
+  public interface Listener {
+    void directoryChanged(File dir);
+  }
+
+  private final Map<Path, Entry[]>      listings;
+  private final Map<Path, WatchKey>     keys     = new HashMap<Path, WatchKey>();
+  private final Map<Path, Long>         versions = new HashMap<Path, Long>();
+  private final java.util.List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+  private WatchService                  watcher;
+
+  public DirectoryCache() {
+    listings = new LinkedHashMap<Path, DirectoryCache.Entry[]>(16, 0.75f, true)
+    {
+      private static final long serialVersionUID = -2750153497532208410L;
+
+      // a plain Entry would be the inherited Map.Entry in here
+      protected boolean removeEldestEntry(Map.Entry<Path, DirectoryCache.Entry[]> eldest)
+      {
+        if (size() <= MAX_DIRECTORIES) return false;
+        unwatch(eldest.getKey());
+        return true;
+      }
+    };
+
+    try
+    {
+      watcher = FileSystems.getDefault().newWatchService();
+      Thread t = new Thread(new Runnable()
+      {
+        public void run()
+        {
+          processEvents();
+        }
+      }, "DirectoryCache");
+      t.setDaemon(true);
+      t.start();
+    }
+    catch (IOException e)
+    {
+      // no WatchService, the listings are not cached at all
+      watcher = null;
+    }
+  }
+
+  public void addListener(Listener l)
+  {
+    listeners.add(l);
+  }
+
+  public void removeListener(Listener l)
+  {
+    listeners.remove(l);
+  }
+
+  /**
+   * <p>
+   * Streams the entries of a directory into the sink, from the cache if
+   * possible. A complete scan is stored in the cache unless the directory
+   * changed while it was scanned.
+   * </p>
+   *
+   * @param dir
+   *          the directory
+   * @param sink
+   *          receives the entries
+   * @throws IOException
+   *           if the directory could not be read
+   */
+  public void scan(File dir, Sink sink) throws IOException
+  {
+    Path path = dir.toPath();
+    Entry[] cached;
+    synchronized (this)
+    {
+      cached = listings.get(path);
+    }
+    if (cached != null)
+    {
+      for (Entry e : cached)
+        if (!sink.accept(e)) return;
+      return;
+    }
+
+    // watch before scanning, so a change during the scan is not lost
+    long version = watch(path);
+    java.util.List<Entry> entries = new ArrayList<Entry>();
+
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(path))
+    {
+      for (Path p : stream)
+      {
+        // on Windows the attributes are cached by the directory stream, so
+        // this does not cost another round trip to the file system
+        BasicFileAttributes attrs;
+        try
+        {
+          attrs = Files.readAttributes(p, BasicFileAttributes.class);
+        }
+        catch (IOException e)
+        {
+          continue;
+        }
+        Entry e = new Entry(p, attrs);
+        entries.add(e);
+        if (!sink.accept(e))
+        {
+          abandon(path);
+          return;
+        }
+      }
+    }
+    catch (IOException e)
+    {
+      abandon(path);
+      throw e;
+    }
+
+    synchronized (this)
+    {
+      if (keys.containsKey(path) && versions.get(path) == version) listings.put(path, entries.toArray(new Entry[0]));
+    }
+  }
+
+  /**
+   * @param dir
+   *          the directory
+   * @return all entries of the directory
+   * @throws IOException
+   *           if the directory could not be read
+   */
+  public Entry[] list(File dir) throws IOException
+  {
+    final java.util.List<Entry> entries = new ArrayList<Entry>();
+    scan(dir, new Sink()
+    {
+      public boolean accept(Entry e)
+      {
+        entries.add(e);
+        return true;
+      }
+    });
+    return entries.toArray(new Entry[0]);
+  }
+
+  /**
+   * drop the cached listing of a directory
+   */
+  public synchronized void invalidate(File dir)
+  {
+    Path path = dir.toPath();
+    listings.remove(path);
+    Long v = versions.get(path);
+    if (v != null) versions.put(path, v + 1);
+  }
+
+  private synchronized long watch(Path path)
+  {
+    if (watcher == null) return -1;
+    if (!keys.containsKey(path))
+    {
+      try
+      {
+        keys.put(path, path.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY));
+        versions.put(path, 0L);
+      }
+      catch (IOException e)
+      {
+        return -1;
+      }
+    }
+    return versions.get(path);
+  }
+
+  /**
+   * stop watching a directory whose scan did not complete
+   */
+  private synchronized void abandon(Path path)
+  {
+    if (!listings.containsKey(path)) unwatch(path);
+  }
+
+  private synchronized void unwatch(Path path)
+  {
+    WatchKey key = keys.remove(path);
+    versions.remove(path);
+    if (key != null) key.cancel();
+  }
+
+  private void processEvents()
+  {
+    try
+    {
+      while (true)
+      {
+        WatchKey key = watcher.take();
+        Path path = (Path) key.watchable();
+
+        // all events of the key are handled by dropping the listing
+        key.pollEvents();
+        invalidate(path.toFile());
+        if (!key.reset()) unwatch(path);
+
+        final File dir = path.toFile();
+        SwingUtilities.invokeLater(new Runnable()
+        {
+          public void run()
+          {
+            for (Listener l : listeners)
+              l.directoryChanged(dir);
+          }
+        });
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+    catch (ClosedWatchServiceException e)
+    {
+    }
+  }
+}
@@ -19,14 +19,18 @@ import java.awt.Component;
 import java.awt.Cursor;
 import java.awt.Dimension;
 import java.io.File;
-import java.util.Arrays;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.Vector;
+import java.util.Set;
 
 import javax.swing.BorderFactory;
 import javax.swing.Icon;
 import javax.swing.JTree;
+import javax.swing.SwingWorker;
 import javax.swing.event.TreeExpansionEvent;
 import javax.swing.event.TreeSelectionEvent;
 import javax.swing.event.TreeSelectionListener;
@@ -35,6 +39,7 @@ import javax.swing.filechooser.FileSystemView;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeCellRenderer;
 import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreePath;
 
 import org.jis.Main;
 
@@ -51,6 +56,179 @@ public class FileTree extends JTree {
   private List              l;
   private Main              m;
   private Map<String, Icon>  icons = new HashMap<String, Icon>();
+  private DirectoryLoader    loader;
+
+  private DirectoryCache      cache = new DirectoryCache();
+
+  /**
+   * the node whose pictures are shown in the List
+   */
+  private DefaultMutableTreeNode current;
+
+  /**
+   * number of entries collected in the background before they are handed to
+   * the EDT
+   */
+  private static final int   CHUNK_SIZE = 256;
+
+  /*
+   * <p> Scans a directory off the EDT and streams the sub directories into the
+   * tree and the JPEGs into the List in chunks </p>
+   */
+  private class DirectoryLoader extends SwingWorker<Void, DirectoryCache.Entry> {
+    private final DefaultMutableTreeNode node;
+    private final DefaultMutableTreeNode placeholder;
+    private boolean                      pictures = false;
+
+    DirectoryLoader(DefaultMutableTreeNode node) {
+      this.node = node;
+      this.placeholder = new DefaultMutableTreeNode(m.mes.getString("FileTree.0"));
+    }
+
+    /**
+     * show the placeholder and clear the List before the scan starts
+     */
+    void begin()
+    {
+      current = node;
+      node.removeAllChildren();
+      node.add(placeholder);
+      ((DefaultTreeModel) getModel()).reload(node);
+      l.setPictures(new File[0]);
+      setGenerateEnabled(false);
+      setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+      execute();
+    }
+
+    protected Void doInBackground() throws IOException
+    {
+      final java.util.List<DirectoryCache.Entry> chunk = new ArrayList<DirectoryCache.Entry>(CHUNK_SIZE);
+
+      cache.scan((File) node.getUserObject(), new DirectoryCache.Sink()
+      {
+        public boolean accept(DirectoryCache.Entry e)
+        {
+          if (isCancelled()) return false;
+          if (e.directory || e.jpeg) chunk.add(e);
+
+          if (chunk.size() >= CHUNK_SIZE)
+          {
+            publish(chunk.toArray(new DirectoryCache.Entry[0]));
+            chunk.clear();
+          }
+          return true;
+        }
+      });
+      if (!chunk.isEmpty() && !isCancelled()) publish(chunk.toArray(new DirectoryCache.Entry[0]));
+      return null;
+    }
+
+    protected void process(java.util.List<DirectoryCache.Entry> chunks)
+    {
+      if (isCancelled() || loader != this) return;
+
+      java.util.List<File> files = new ArrayList<File>();
+      for (DirectoryCache.Entry e : chunks)
+      {
+        if (e.directory) insertDirectory(e.file);
+        else files.add(e.file);
+      }
+
+      if (!files.isEmpty())
+      {
+        Collections.sort(files);
+        l.addPictures(files.toArray(new File[0]));
+        if (!pictures)
+        {
+          pictures = true;
+          setGenerateEnabled(true);
+        }
+      }
+    }
+
+    private void insertDirectory(File dir)
+    {
+      FileTree.this.insertDirectory(node, dir, node.getChildCount() - 1);
+    }
+
+    protected void done()
+    {
+      if (loader == this)
+      {
+        loader = null;
+        setCursor(Cursor.getDefaultCursor());
+      }
+
+      if (placeholder.getParent() == node) ((DefaultTreeModel) getModel()).removeNodeFromParent(placeholder);
+
+      // a cancelled scan is incomplete, so a collapsed node has to be scanned
+      // again on the next expand
+      if (isCancelled() && !isExpanded(new TreePath(node.getPath())))
+      {
+        node.removeAllChildren();
+        node.add(new DefaultMutableTreeNode(null));
+        ((DefaultTreeModel) getModel()).reload(node);
+      }
+    }
+  }
+
+  /*
+   * <p> Brings the List and the sub directories of a node up to date after its
+   * directory has changed, without collapsing the node </p>
+   */
+  private class DirectoryRefresher extends SwingWorker<DirectoryCache.Entry[], Void> {
+    private final DefaultMutableTreeNode node;
+
+    DirectoryRefresher(DefaultMutableTreeNode node) {
+      this.node = node;
+    }
+
+    protected DirectoryCache.Entry[] doInBackground() throws IOException
+    {
+      return cache.list((File) node.getUserObject());
+    }
+
+    protected void done()
+    {
+      DirectoryCache.Entry[] entries;
+      try
+      {
+        entries = get();
+      }
+      catch (Exception e)
+      {
+        return;
+      }
+      if (loader != null && loader.node == node) return;
+
+      java.util.List<File> files = new ArrayList<File>();
+      Set<File> dirs = new HashSet<File>();
+      for (DirectoryCache.Entry e : entries)
+      {
+        if (e.directory) dirs.add(e.file);
+        else if (e.jpeg) files.add(e.file);
+      }
+
+      if (current == node)
+      {
+        Collections.sort(files);
+        l.setPictures(files.toArray(new File[0]));
+        setGenerateEnabled(!files.isEmpty());
+      }
+
+      // only a node which was scanned before holds its sub directories
+      if (node.getChildCount() == 1 && ((DefaultMutableTreeNode) node.getChildAt(0)).getUserObject() == null) return;
+
+      DefaultTreeModel model = (DefaultTreeModel) getModel();
+      for (int i = node.getChildCount() - 1; i >= 0; i--)
+      {
+        DefaultMutableTreeNode child = (DefaultMutableTreeNode) node.getChildAt(i);
+        if (!dirs.remove(child.getUserObject())) model.removeNodeFromParent(child);
+      }
+      for (File dir : dirs)
+        insertDirectory(node, dir, node.getChildCount());
+    }
+  }
 
   /*
    * <p> Render the Items of the FileTree OS specific </p>
@@ -116,6 +294,13 @@ public class FileTree extends JTree {
 //      root.add(home);
     }
     model = new DefaultTreeModel(root);
+    cache.addListener(new DirectoryCache.Listener()
+    {
+      public void directoryChanged(File dir)
+      {
+        refresh((DefaultMutableTreeNode) getModel().getRoot(), dir);
+      }
+    });
     setShowsRootHandles(true);
     putClientProperty("JTree.lineStyle", "Angled");
     setBorder(BorderFactory.createEtchedBorder());
@@ -128,7 +313,8 @@ public class FileTree extends JTree {
 
       public void valueChanged(TreeSelectionEvent arg0)
       {
-        expandPath((DefaultMutableTreeNode) (arg0.getPath().getLastPathComponent()));
+        DefaultMutableTreeNode node = (DefaultMutableTreeNode) (arg0.getPath().getLastPathComponent());
+        if (node.getUserObject() instanceof File) expandPath(node);
       }
 
     });
@@ -150,70 +336,83 @@ public class FileTree extends JTree {
 
   /**
    * <p>
-   * expand the Path
+   * expand the Path, the directory is scanned in the background and a running
+   * scan of another directory is cancelled
    * </p>
    * 
    * @param d
    */
   private void expandPath(final DefaultMutableTreeNode d)
   {
-    d.removeAllChildren();
-    setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
-    File[] tempf;
-
-    tempf = ((File) d.getUserObject()).listFiles();
-    Vector<File> elem = new Vector<File>();
-    Vector<File> dirs = new Vector<File>();
-    Vector<File> files = new Vector<File>();
-    for (int i = 0; i < tempf.length; i++)
-      if (tempf[i].isDirectory()) dirs.add(tempf[i]);
-      else
-      {
-        String fileName = tempf[i].getName().toLowerCase();
-        if (fileName.endsWith(".jpg") || fileName.endsWith(".jpeg")) files.add(tempf[i]);
-      }
-
-    File[] sortedDirs = dirs.toArray(new File[0]);
+    if (loader != null)
+    {
+      if (loader.node == d) return;
+      loader.cancel(true);
+    }
 
-    Arrays.sort(sortedDirs);
+    loader = new DirectoryLoader(d);
+    loader.begin();
+  }
 
-    File[] sortedFiles = files.toArray(new File[0]);
-    Arrays.sort(sortedFiles);
+  /**
+   * <p>
+   * refresh every scanned node below the given node which shows the changed
+   * directory
+   * </p>
+   */
+  private void refresh(DefaultMutableTreeNode d, File dir)
+  {
+    if (dir.equals(d.getUserObject()) && (d == current || isExpanded(new TreePath(d.getPath())))) new DirectoryRefresher(d).execute();
 
-    elem.addAll(Arrays.asList(sortedDirs));
-    // elem.addAll(Arrays.asList(sortedFiles));
-    if (sortedFiles.length > 0)
-    {
-      m.menu.gallerie.setEnabled(true);
-      m.menu.zippen.setEnabled(true);
-      m.menu.gener.setEnabled(true);
-      m.toolBar.gallerie.setEnabled(true);
-      m.toolBar.zippen.setEnabled(true);
-      m.toolBar.gener.setEnabled(true);
-    }
-    else
+    for (int i = 0; i < d.getChildCount(); i++)
     {
-      m.menu.gallerie.setEnabled(false);
-      m.menu.zippen.setEnabled(false);
-      m.menu.gener.setEnabled(false);
-      m.toolBar.gallerie.setEnabled(false);
-      m.toolBar.zippen.setEnabled(false);
-      m.toolBar.gener.setEnabled(false);
+      DefaultMutableTreeNode child = (DefaultMutableTreeNode) d.getChildAt(i);
+      if (child.getUserObject() instanceof File && child.getChildCount() > 0) refresh(child, dir);
     }
-    l.setPictures(sortedFiles);
+  }
 
-    DefaultMutableTreeNode tempd = null;
-    for (int i = 0; i < elem.size(); i++)
+  /**
+   * <p>
+   * insert a sub directory sorted among the first children of a node
+   * </p>
+   * 
+   * @param d
+   *          the parent node
+   * @param dir
+   *          the sub directory
+   * @param count
+   *          the number of sorted children, following children are kept
+   *          behind
+   */
+  private void insertDirectory(DefaultMutableTreeNode d, File dir, int count)
+  {
+    int low = 0;
+    int high = count;
+    while (low < high)
     {
-//      if (getFileFilter() == null || getFileFilter().accept(elem.get(i)))
-//      {
-        tempd = new DefaultMutableTreeNode(elem.get(i));
-        if (elem.get(i).isDirectory()) tempd.add(new DefaultMutableTreeNode(null));
-        d.add(tempd);
-//      }
+      int mid = (low + high) >>> 1;
+      File f = (File) ((DefaultMutableTreeNode) d.getChildAt(mid)).getUserObject();
+      if (f.compareTo(dir) < 0) low = mid + 1;
+      else high = mid;
     }
-    ((DefaultTreeModel) getModel()).reload(d);
-    setCursor(Cursor.getDefaultCursor());
+    DefaultMutableTreeNode tempd = new DefaultMutableTreeNode(dir);
+    tempd.add(new DefaultMutableTreeNode(null));
+    ((DefaultTreeModel) getModel()).insertNodeInto(tempd, d, low);
+  }
+
+  /**
+   * enable or disable the actions which need pictures
+   */
+  private void setGenerateEnabled(boolean enabled)
+  {
+    m.menu.gallerie.setEnabled(enabled);
+    m.menu.zippen.setEnabled(enabled);
+    m.menu.gener.setEnabled(enabled);
+    m.menu.rotate_left.setEnabled(enabled);
+    m.menu.rotate_right.setEnabled(enabled);
+    m.toolBar.gallerie.setEnabled(enabled);
+    m.toolBar.zippen.setEnabled(enabled);
+    m.toolBar.gener.setEnabled(enabled);
   }
 
 //  public void setFileFilter(FileFilter f)
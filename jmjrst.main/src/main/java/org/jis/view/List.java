@@ -150,6 +150,35 @@ public class List extends JScrollPane {
     entrys.setListData(v_file);
   }
 
+  /**
+   * <p>
+   * merge already sorted pictures into the sorted list
+   * </p>
+   * 
+   * @param e
+   *          the sorted pictures to add
+   */
+  public void addPictures(File[] e)
+  {
+    Vector<File> merged = new Vector<File>(v_file.size() + e.length);
+    int i = 0;
+    int j = 0;
+    while (i < v_file.size() || j < e.length)
+    {
+      if (j == e.length || (i < v_file.size() && v_file.elementAt(i).compareTo(e[j]) <= 0)) merged.add(v_file.elementAt(i++));
+      else merged.add(e[j++]);
+    }
+    v_file = merged;
+    v_names.removeAllElements();
+    for (int k = 0; k < v_file.size(); k++)
+      v_names.add(v_file.elementAt(k).getName());
+
+    // keep the selection while the pictures of a directory stream in
+    Object selected = entrys.getSelectedValue();
+    entrys.setListData(v_file);
+    if (selected != null) entrys.setSelectedValue(selected, false);
+  }
+
   /**
    * @author <a href="http://www.jgeppert.com">Johannes Geppert</a>
    * 
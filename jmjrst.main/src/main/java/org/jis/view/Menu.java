@@ -39,6 +39,8 @@ public class Menu extends JMenuBar {
   public JMenuItem          gener;
   public JMenuItem          zippen;
   public JMenuItem          gallerie;
+  public JMenuItem          rotate_left;
+  public JMenuItem          rotate_right;
   public JMenuItem          exit;
   public JMenuItem          set_quality;
   public JMenuItem          info;
@@ -76,6 +78,14 @@ public class Menu extends JMenuBar {
     url = ClassLoader.getSystemResource("icons/text-html.png");
     gallerie.setIcon(new ImageIcon(url));
 
+    rotate_left = new JMenuItem(m.mes.getString("Menu.17"));
+    url = ClassLoader.getSystemResource("icons/go-jump-mirror.png");
+    rotate_left.setIcon(new ImageIcon(url));
+
+    rotate_right = new JMenuItem(m.mes.getString("Menu.18"));
+    url = ClassLoader.getSystemResource("icons/go-jump.png");
+    rotate_right.setIcon(new ImageIcon(url));
+
     exit = new JMenuItem(m.mes.getString("Menu.5"));
     url = ClassLoader.getSystemResource("icons/system-log-out.png");
     exit.setIcon(new ImageIcon(url));
@@ -102,11 +112,16 @@ public class Menu extends JMenuBar {
     gener.setEnabled(false);
     zippen.setEnabled(false);
     gallerie.setEnabled(false);
+    rotate_left.setEnabled(false);
+    rotate_right.setEnabled(false);
 
     datei.add(gener);
     datei.add(zippen);
     datei.add(gallerie);
     datei.addSeparator();
+    datei.add(rotate_left);
+    datei.add(rotate_right);
+    datei.addSeparator();
     datei.add(exit);
     option.add(optionen_look);
     option.add(set_quality);
@@ -122,6 +137,8 @@ public class Menu extends JMenuBar {
     gener.addActionListener(al);
     zippen.addActionListener(al);
     gallerie.addActionListener(al);
+    rotate_left.addActionListener(al);
+    rotate_right.addActionListener(al);
     set_quality.addActionListener(al);
     info.addActionListener(al);
     look_windows.addActionListener(al);
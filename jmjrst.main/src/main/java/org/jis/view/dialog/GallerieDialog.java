@@ -34,6 +34,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.Properties;
 import java.util.Vector;
 
@@ -437,6 +438,15 @@ public class GallerieDialog extends JDialog {
               else x.setSubTitle(false);
 
               x.setMax_pictures_on_site(Integer.parseInt(p.getProperty("max_pictures_on_site")));
+              x.setSprite("true".equalsIgnoreCase(p.getProperty("sprite")));
+
+              String[] ladder = p.getProperty("srcset", "").trim().split("\\s*,\\s*");
+              int[] widths = new int[ladder[0].length() == 0 ? 0 : ladder.length];
+              for (int j = 0; j < widths.length; j++)
+                widths[j] = Integer.parseInt(ladder[j]);
+              Arrays.sort(widths);
+              x.setSrcset(widths);
+              x.setSizes(p.getProperty("sizes", "100vw"));
               x.setFile(files[i]);
 
               if (preview.exists() && preview.isFile())
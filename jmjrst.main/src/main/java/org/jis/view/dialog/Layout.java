@@ -49,6 +49,9 @@ public class Layout {
   private String  previewHome;
   private String  aProperty;
   private File    previewImage;
+  private boolean sprite;
+  private int[]   srcset = new int[0];
+  private String  sizes  = "100vw";
 
   public String getFooter()
   {
@@ -295,4 +298,37 @@ public class Layout {
   {
     this.listType = listType;
   }
+
+  public boolean isSprite()
+  {
+    return sprite;
+  }
+
+  public void setSprite(boolean sprite)
+  {
+    this.sprite = sprite;
+  }
+
+  /**
+   * @return the widths of the srcset ladder in ascending order, empty for none
+   */
+  public int[] getSrcset()
+  {
+    return srcset;
+  }
+
+  public void setSrcset(int[] srcset)
+  {
+    this.srcset = srcset;
+  }
+
+  public String getSizes()
+  {
+    return sizes;
+  }
+
+  public void setSizes(String sizes)
+  {
+    this.sizes = sizes;
+  }
 }
@@ -48,6 +48,7 @@ import javax.swing.event.ChangeListener;
 import javax.swing.filechooser.FileSystemView;
 
 import org.jis.Main;
+import org.jis.generator.Encoders;
 import org.jis.listner.CloseListner;
 import org.jis.options.Options;
 
@@ -67,19 +68,39 @@ public class OptionsEdit {
   String     sizes[]        = {
       "320 x 240", "640 x 480", "800 x 600", "1024 x 768", "1280 x 1024", "1600 x 1200"
                             };
+  String     formats[]      = {
+      "JPEG", "PNG"
+                            };
+  String     subsamplings[] = {
+      "4:2:0", "4:4:4"
+                            };
   JComboBox  list_local     = new JComboBox(locals);
   JComboBox  list_sizes     = new JComboBox(sizes);
+  JComboBox  list_format    = new JComboBox(formats);
+  JComboBox  list_chroma    = new JComboBox(subsamplings);
+  JComboBox  list_position  = new JComboBox();
   JTextField t_output       = new JTextField();
   JTextField t_copyright    = new JTextField();
   JTextField t_maxw         = new JTextField();
   JTextField t_maxh         = new JTextField();
+  JTextField t_restart      = new JTextField();
+  JTextField t_target       = new JTextField();
+  JTextField t_logo         = new JTextField();
+  JTextField t_opacity      = new JTextField();
+  JTextField t_keep         = new JTextField();
+  JTextField t_strip        = new JTextField();
+  JTextField t_distance     = new JTextField();
   JCheckBox  c_antialiasing = new JCheckBox();
   JCheckBox  c_metadata     = new JCheckBox();
+  JCheckBox  c_exifrotation = new JCheckBox();
+  JCheckBox  c_progressive  = new JCheckBox();
   JCheckBox  c_textbox      = new JCheckBox();
   JCheckBox  c_copyright    = new JCheckBox();
+  JCheckBox  c_burst        = new JCheckBox();
   JPanel     p_copyright    = new JPanel();
   JButton    b_output       = new JButton();
   JButton    b_copyright    = new JButton();
+  JButton    b_logo         = new JButton();
   JButton    b_ok           = new JButton();
   JButton    b_exit         = new JButton();
 
@@ -101,6 +122,19 @@ public class OptionsEdit {
     JLabel l_textbox = new JLabel(main.mes.getString("OptionsEdit.10"));
     JLabel l_antialiasing = new JLabel(main.mes.getString("OptionsEdit.15"));
     JLabel l_metadata = new JLabel(main.mes.getString("OptionsEdit.20"));
+    JLabel l_exifrotation = new JLabel(main.mes.getString("OptionsEdit.21"));
+    JLabel l_format = new JLabel(main.mes.getString("OptionsEdit.22"));
+    JLabel l_progressive = new JLabel(main.mes.getString("OptionsEdit.23"));
+    JLabel l_chroma = new JLabel(main.mes.getString("OptionsEdit.24"));
+    JLabel l_restart = new JLabel(main.mes.getString("OptionsEdit.25"));
+    JLabel l_target = new JLabel(main.mes.getString("OptionsEdit.26"));
+    JLabel l_logo = new JLabel(main.mes.getString("OptionsEdit.27"));
+    JLabel l_position = new JLabel(main.mes.getString("OptionsEdit.28"));
+    JLabel l_opacity = new JLabel(main.mes.getString("OptionsEdit.29"));
+    JLabel l_keep = new JLabel(main.mes.getString("OptionsEdit.35"));
+    JLabel l_strip = new JLabel(main.mes.getString("OptionsEdit.36"));
+    JLabel l_burst = new JLabel(main.mes.getString("OptionsEdit.37"));
+    JLabel l_distance = new JLabel(main.mes.getString("OptionsEdit.38"));
     JLabel l_output = new JLabel(main.mes.getString("OptionsEdit.0"));
     JLabel l_slider = new JLabel(main.mes.getString("OptionsEdit.1"));
     JLabel l_maxw = new JLabel(main.mes.getString("OptionsEdit.2"));
@@ -119,6 +153,13 @@ public class OptionsEdit {
     URL url2 = ClassLoader.getSystemResource("icons/applications-graphics.png");
     b_copyright.setIcon(new ImageIcon(url2));
 
+    b_logo = new JButton(main.mes.getString("OptionsEdit.4"));
+    b_logo.setIcon(new ImageIcon(url));
+
+    // in the order of the Options.WATERMARK_ positions
+    for (int i = 30; i <= 34; i++)
+      list_position.addItem(main.mes.getString("OptionsEdit." + i));
+
     b_ok = new JButton(main.mes.getString("OptionsEdit.5"));
     b_exit = new JButton(main.mes.getString("OptionsEdit.6"));
 
@@ -136,8 +177,8 @@ public class OptionsEdit {
       System.err.println(l);
     }
     Rectangle bounds = gc.getBounds();
-    f.setLocation((bounds.width / 2) - 250, (bounds.height / 2) - 233);
-    f.setSize(500, 465);
+    f.setLocation((bounds.width / 2) - 250, (bounds.height / 2) - 248);
+    f.setSize(500, 615);
     f.setResizable(false);
     f.addWindowListener(new CloseListner());
     Container c = f.getContentPane();
@@ -157,10 +198,23 @@ public class OptionsEdit {
       c_textbox.setSelected(opts.isTextbox());
       c_antialiasing.setSelected(opts.isAntialiasing());
       c_metadata.setSelected(opts.isCopyMetadata());
+      c_exifrotation.setSelected(opts.isExifRotation());
+      list_format.setSelectedIndex(opts.getOutputFormat().equals(Encoders.PNG) ? 1 : 0);
+      c_progressive.setSelected(opts.isProgressive());
+      list_chroma.setSelectedIndex(opts.getSubsampling() == Options.SUBSAMPLING_444 ? 1 : 0);
+      t_restart.setText("" + opts.getRestartInterval());
+      t_target.setText("" + opts.getTargetSize());
       c_copyright.setSelected(opts.isCopyright());
       p_copyright.setBackground(new Color(opts.getCopyright_r(), opts.getCopyright_g(), opts.getCopyright_b()));
       p_copyright.setBorder(new BevelBorder(2));
       t_copyright.setText(opts.getCopyrightText());
+      t_logo.setText(opts.getWatermarkLogo());
+      list_position.setSelectedIndex(opts.getWatermarkPosition());
+      t_opacity.setText("" + opts.getWatermarkOpacity());
+      t_keep.setText(opts.getMetadataKeep());
+      t_strip.setText(opts.getMetadataStrip());
+      c_burst.setSelected(opts.isBurstFilter());
+      t_distance.setText("" + opts.getBurstDistance());
 
       s_quality.setValue(Float.valueOf((opts.getQuality() * 100.0F)).intValue());
       s_rendermodus.setValue(opts.getModus());
@@ -174,6 +228,12 @@ public class OptionsEdit {
       t_maxh.setText("" + 768);
       s_quality.setValue(80);
       s_rendermodus.setValue(2);
+      t_restart.setText("" + 0);
+      t_target.setText("" + 0);
+      t_opacity.setText("" + 100);
+      t_keep.setText("exif,xmp,iptc,comment");
+      t_strip.setText("makernote,thumbnail");
+      t_distance.setText("" + 6);
     }
 
     l_local.setBounds(10, 15, 130, 25);
@@ -207,18 +267,58 @@ public class OptionsEdit {
     l_metadata.setBounds(10, 285, 130, 25);
     c_metadata.setBounds(145, 285, 130, 25);
 
-    l_copyright.setBounds(10, 315, 130, 25);
-    c_copyright.setBounds(145, 315, 130, 25);
+    l_exifrotation.setBounds(10, 315, 130, 25);
+    c_exifrotation.setBounds(145, 315, 130, 25);
+
+    l_format.setBounds(285, 225, 100, 25);
+    list_format.setBounds(390, 225, 95, 25);
+
+    l_progressive.setBounds(285, 255, 100, 25);
+    c_progressive.setBounds(390, 255, 95, 25);
+
+    l_chroma.setBounds(285, 285, 100, 25);
+    list_chroma.setBounds(390, 285, 95, 25);
+
+    l_restart.setBounds(285, 315, 100, 25);
+    t_restart.setBounds(390, 315, 60, 25);
+
+    l_target.setBounds(285, 345, 100, 25);
+    t_target.setBounds(390, 345, 60, 25);
+
+    l_copyright.setBounds(10, 345, 130, 25);
+    c_copyright.setBounds(145, 345, 130, 25);
+
+    l_copyrightText.setBounds(10, 375, 130, 25);
+    t_copyright.setBounds(145, 375, 130, 25);
+
+    l_copyrightFarbe.setBounds(10, 405, 130, 25);
+    p_copyright.setBounds(145, 405, 130, 25);
+    b_copyright.setBounds(335, 405, 150, 25);
+
+    l_logo.setBounds(10, 435, 130, 25);
+    t_logo.setBounds(145, 435, 180, 25);
+    b_logo.setBounds(335, 435, 150, 25);
+
+    l_position.setBounds(10, 465, 130, 25);
+    list_position.setBounds(145, 465, 130, 25);
+
+    l_opacity.setBounds(285, 465, 100, 25);
+    t_opacity.setBounds(390, 465, 60, 25);
+
+    l_keep.setBounds(10, 495, 130, 25);
+    t_keep.setBounds(145, 495, 130, 25);
 
-    l_copyrightText.setBounds(10, 345, 130, 25);
-    t_copyright.setBounds(145, 345, 130, 25);
+    l_strip.setBounds(285, 495, 100, 25);
+    t_strip.setBounds(390, 495, 95, 25);
 
-    l_copyrightFarbe.setBounds(10, 375, 130, 25);
-    p_copyright.setBounds(145, 375, 130, 25);
-    b_copyright.setBounds(335, 375, 150, 25);
+    l_burst.setBounds(10, 525, 130, 25);
+    c_burst.setBounds(145, 525, 130, 25);
 
-    b_ok.setBounds(120, 405, 120, 25);
-    b_exit.setBounds(260, 405, 120, 25);
+    l_distance.setBounds(285, 525, 100, 25);
+    t_distance.setBounds(390, 525, 60, 25);
+
+    b_ok.setBounds(120, 555, 120, 25);
+    b_exit.setBounds(260, 555, 120, 25);
 
     Hashtable<Integer, JLabel> rendermodus_labels = new Hashtable<Integer, JLabel>();
     rendermodus_labels.put(0, new JLabel(main.mes.getString("OptionsEdit.17")));
@@ -241,6 +341,7 @@ public class OptionsEdit {
     b_exit.addActionListener(al);
     b_output.addActionListener(al);
     b_copyright.addActionListener(al);
+    b_logo.addActionListener(al);
 
     t_output.setCaretPosition(0);
 
@@ -266,6 +367,18 @@ public class OptionsEdit {
     ojp.add(c_antialiasing);
     ojp.add(l_metadata);
     ojp.add(c_metadata);
+    ojp.add(l_exifrotation);
+    ojp.add(c_exifrotation);
+    ojp.add(l_format);
+    ojp.add(list_format);
+    ojp.add(l_progressive);
+    ojp.add(c_progressive);
+    ojp.add(l_chroma);
+    ojp.add(list_chroma);
+    ojp.add(l_restart);
+    ojp.add(t_restart);
+    ojp.add(l_target);
+    ojp.add(t_target);
     ojp.add(l_copyright);
     ojp.add(c_copyright);
     ojp.add(l_copyrightText);
@@ -273,6 +386,21 @@ public class OptionsEdit {
     ojp.add(l_copyrightFarbe);
     ojp.add(p_copyright);
     ojp.add(b_copyright);
+    ojp.add(l_logo);
+    ojp.add(t_logo);
+    ojp.add(b_logo);
+    ojp.add(l_position);
+    ojp.add(list_position);
+    ojp.add(l_opacity);
+    ojp.add(t_opacity);
+    ojp.add(l_keep);
+    ojp.add(t_keep);
+    ojp.add(l_strip);
+    ojp.add(t_strip);
+    ojp.add(l_burst);
+    ojp.add(c_burst);
+    ojp.add(l_distance);
+    ojp.add(t_distance);
     ojp.add(b_ok);
     ojp.add(b_exit);
     c.add(ojp, BorderLayout.CENTER);
@@ -362,6 +490,30 @@ public class OptionsEdit {
                                 if (c_metadata.isSelected()) opts.setCopyMetadata(true);
                                 else opts.setCopyMetadata(false);
 
+                                if (c_exifrotation.isSelected()) opts.setExifRotation(true);
+                                else opts.setExifRotation(false);
+
+                                if (list_format.getSelectedIndex() == 1) opts.setOutputFormat(Encoders.PNG);
+                                else opts.setOutputFormat(Encoders.JPEG);
+
+                                if (c_progressive.isSelected()) opts.setProgressive(true);
+                                else opts.setProgressive(false);
+
+                                if (list_chroma.getSelectedIndex() == 1) opts.setSubsampling(Options.SUBSAMPLING_444);
+                                else opts.setSubsampling(Options.SUBSAMPLING_420);
+
+                                if (t_restart.getText().equalsIgnoreCase("")) opts.setRestartInterval(0); //$NON-NLS-1$
+                                else opts.setRestartInterval(Integer.valueOf(t_restart.getText()).intValue());
+
+                                if (t_target.getText().equalsIgnoreCase("")) opts.setTargetSize(0); //$NON-NLS-1$
+                                else opts.setTargetSize(Integer.valueOf(t_target.getText()).intValue());
+
+                                if (c_burst.isSelected()) opts.setBurstFilter(true);
+                                else opts.setBurstFilter(false);
+
+                                if (t_distance.getText().equalsIgnoreCase("")) opts.setBurstDistance(6); //$NON-NLS-1$
+                                else opts.setBurstDistance(Integer.valueOf(t_distance.getText()).intValue());
+
                                 if (c_copyright.isSelected()) opts.setCopyright(true);
                                 else opts.setCopyright(false);
 
@@ -369,6 +521,13 @@ public class OptionsEdit {
                                 opts.setCopyright_r(p_copyright.getBackground().getRed());
                                 opts.setCopyright_g(p_copyright.getBackground().getGreen());
                                 opts.setCopyright_b(p_copyright.getBackground().getBlue());
+                                opts.setWatermarkLogo(t_logo.getText());
+                                opts.setWatermarkPosition(list_position.getSelectedIndex());
+                                opts.setMetadataKeep(t_keep.getText());
+                                opts.setMetadataStrip(t_strip.getText());
+
+                                if (t_opacity.getText().equalsIgnoreCase("")) opts.setWatermarkOpacity(100); //$NON-NLS-1$
+                                else opts.setWatermarkOpacity(Integer.valueOf(t_opacity.getText()).intValue());
 
                                 File fo = new File(t_output.getText());
                                 if (fo.exists()) opts.setOutput_dir(fo.toString());
@@ -401,6 +560,16 @@ public class OptionsEdit {
                                   p_copyright.setBackground(c);
                                 }
                               }
+                              else if (e.getSource() == b_logo)
+                              {
+                                JFileChooser fc = new JFileChooser();
+                                fc.setFileSelectionMode(JFileChooser.FILES_ONLY);
+                                File f = new File(t_logo.getText());
+                                if (f.exists()) fc.setSelectedFile(f);
+                                else fc.setCurrentDirectory(FileSystemView.getFileSystemView().getHomeDirectory());
+
+                                if (fc.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) t_logo.setText(fc.getSelectedFile().toString());
+                              }
                               else if (e.getSource() == b_output)
                               {
                                 JFileChooser fc = new JFileChooser();
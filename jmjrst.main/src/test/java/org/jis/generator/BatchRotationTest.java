@@ -0,0 +1,186 @@
+package org.jis.generator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.jis.options.Options;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BatchRotationTest {
+  private static final String IMAGE_FILE = "/image.jpg";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private byte[] jpeg;
+  private File dir;
+  private File journal;
+  private BatchRotation rotation;
+
+  @Before
+  public void setUp() throws IOException {
+    try (InputStream in = this.getClass().getResourceAsStream(IMAGE_FILE)) {
+      jpeg = in.readAllBytes();
+    }
+    dir = folder.newFolder("images");
+    journal = new File(folder.getRoot(), "rotation.journal");
+    rotation = new BatchRotation(new Generator(null, 0.8f), journal);
+  }
+
+  /**
+   * all files are rotated, no journal or backup is left over
+   */
+  @Test
+  public void testRotate() throws IOException {
+    List<File> files = new ArrayList<File>();
+    for (int i = 0; i < 8; i++) {
+      File f = new File(dir, "image" + i + ".jpg");
+      Files.write(f.toPath(), jpeg);
+      files.add(f);
+    }
+
+    assertEquals(files.size(), rotation.rotate(files, 270, null));
+    for (File f : files) {
+      BufferedImage image = ImageIO.read(f);
+      assertEquals(390, image.getWidth());
+      assertEquals(384, image.getHeight());
+    }
+    assertFalse(journal.exists());
+    assertEquals(files.size(), dir.list().length);
+  }
+
+  /**
+   * the originals of an unfinished batch are brought back
+   */
+  @Test
+  public void testRecover() throws IOException {
+    File f = new File(dir, "image.jpg");
+    File backup = new File(dir, ".image.jpg.rotate-backup");
+    Files.write(backup.toPath(), jpeg);
+    Files.write(f.toPath(), JpegTransform.rotate(jpeg, 270));
+    Files.write(journal.toPath(),
+        ("F\t" + backup.getAbsolutePath() + "\t" + f.getAbsolutePath() + "\n").getBytes("UTF-8"));
+
+    assertTrue(rotation.recover());
+    assertArrayEquals(jpeg, Files.readAllBytes(f.toPath()));
+    assertFalse(backup.exists());
+    assertFalse(journal.exists());
+    assertFalse(rotation.recover());
+  }
+
+  /**
+   * the rotated file keeps the permissions of the original
+   */
+  @Test
+  public void testPermissions() throws IOException {
+    File f = new File(dir, "image.jpg");
+    Files.write(f.toPath(), jpeg);
+    Assume.assumeTrue(Files.getFileAttributeView(f.toPath(), PosixFileAttributeView.class) != null);
+    Files.setPosixFilePermissions(f.toPath(), PosixFilePermissions.fromString("rw-r--r--"));
+    List<File> files = new ArrayList<File>();
+    files.add(f);
+
+    assertEquals(1, rotation.rotate(files, 90, null));
+    assertEquals("rw-r--r--", PosixFilePermissions.toString(Files.getPosixFilePermissions(f
+        .toPath())));
+  }
+
+  /**
+   * a file which can not be rotated in its pixels either is left untouched
+   */
+  @Test
+  public void testFailure() throws IOException {
+    boolean exif = Options.getInstance().isExifRotation();
+    Options.getInstance().setExifRotation(false);
+    try {
+      // a progressive JPEG is not rotated losslessly, without scans it can
+      // not be decoded
+      byte[] broken = new byte[] {
+          (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xC2, 0, 11, 8, 0, 16, 0, 16, 1, 1, 0x11,
+          0, (byte) 0xFF, (byte) 0xD9
+      };
+      File f = new File(dir, "broken.jpg");
+      Files.write(f.toPath(), broken);
+      List<File> files = new ArrayList<File>();
+      files.add(f);
+
+      assertEquals(0, rotation.rotate(files, 90, null));
+      assertArrayEquals(broken, Files.readAllBytes(f.toPath()));
+      assertEquals(1, dir.list().length);
+    } finally {
+      Options.getInstance().setExifRotation(exif);
+    }
+  }
+
+  /**
+   * a journal of another batch is not rolled back under it
+   */
+  @Test
+  public void testForeignJournal() throws IOException {
+    File f = new File(dir, "image.jpg");
+    Files.write(f.toPath(), jpeg);
+    Files.write(journal.toPath(), new byte[0]);
+    List<File> files = new ArrayList<File>();
+    files.add(f);
+    try {
+      rotation.rotate(files, 90, null);
+      fail();
+    } catch (IOException e) {
+    }
+    assertTrue(journal.exists());
+    assertArrayEquals(jpeg, Files.readAllBytes(f.toPath()));
+  }
+
+  /**
+   * a file which crashes the rotation fails alone, the others are kept
+   */
+  @Test
+  public void testCrash() throws IOException {
+    boolean exif = Options.getInstance().isExifRotation();
+    Options.getInstance().setExifRotation(false);
+    try {
+      rotation = new BatchRotation(new Generator(null, 0.8f) {
+        public boolean rotate(File file, int angel) {
+          throw new IllegalStateException();
+        }
+      }, journal);
+      File good = new File(dir, "good.jpg");
+      Files.write(good.toPath(), jpeg);
+      // a progressive JPEG goes to the pixel rotation
+      File bad = new File(dir, "bad.jpg");
+      Files.write(bad.toPath(), new byte[] {
+          (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xC2, 0, 11, 8, 0, 16, 0, 16, 1, 1, 0x11,
+          0, (byte) 0xFF, (byte) 0xD9
+      });
+      List<File> files = new ArrayList<File>();
+      files.add(good);
+      files.add(bad);
+
+      assertEquals(1, rotation.rotate(files, 270, null));
+      assertEquals(384, ImageIO.read(good).getHeight());
+      assertFalse(journal.exists());
+      assertEquals(2, dir.list().length);
+    } finally {
+      Options.getInstance().setExifRotation(exif);
+    }
+  }
+}
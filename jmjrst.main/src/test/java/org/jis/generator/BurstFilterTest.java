@@ -0,0 +1,111 @@
+package org.jis.generator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BurstFilterTest {
+  private static final String IMAGE_FILE = "/image.jpg";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * near hashes are one group, its first hash is the root, a chain of near
+   * hashes is not
+   */
+  @Test
+  public void testIndex() {
+    long a = 0x0123456789ABCDEFL;
+    long[] hashes = {
+        a, ~a, a ^ 0x7, a ^ 0x7 ^ 0x700000, ~a ^ 1L << 63, 0x5555555555555555L
+    };
+    HashIndex index = new HashIndex(hashes, 3, 8);
+    assertEquals(0, index.group(0));
+    assertEquals(1, index.group(1));
+    assertEquals(0, index.group(2));
+    // 6 bits from the first, 3 from the second
+    assertEquals(3, index.group(3));
+    assertEquals(1, index.group(4));
+    assertEquals(5, index.group(5));
+  }
+
+  /**
+   * a picture joins a group only a window of places after its last picture
+   */
+  @Test
+  public void testWindow() {
+    long a = 0x0123456789ABCDEFL;
+    long[] hashes = {
+        a, ~a, a ^ 1, ~a, ~a, ~a, a ^ 2
+    };
+    HashIndex index = new HashIndex(hashes, 1, 2);
+    // two places after the first picture
+    assertEquals(0, index.group(2));
+    assertEquals(1, index.group(5));
+    // four places after the last picture of its group
+    assertEquals(6, index.group(6));
+  }
+
+  /**
+   * a slightly changed copy is dropped, another picture is kept
+   */
+  @Test
+  public void testOnePerBurst() throws IOException, InterruptedException {
+    File first = folder.newFile("first.jpg");
+    try (InputStream in = this.getClass().getResourceAsStream(IMAGE_FILE)) {
+      Files.copy(in, first.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    BufferedImage image = ImageIO.read(first);
+    BufferedImage frame = new BufferedImage(image.getWidth(), image.getHeight(),
+        BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = frame.createGraphics();
+    g.drawImage(image, 0, 0, null);
+    g.setColor(Color.RED);
+    g.fillRect(10, 10, 4, 4);
+    g.dispose();
+    File next = folder.newFile("next.jpg");
+    ImageIO.write(frame, "jpg", next);
+
+    BufferedImage other = new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB);
+    g = other.createGraphics();
+    g.setPaint(new GradientPaint(0, 0, Color.WHITE, 200, 0, Color.BLACK));
+    g.fillRect(0, 0, 200, 100);
+    g.dispose();
+    File gradient = folder.newFile("gradient.jpg");
+    ImageIO.write(other, "jpg", gradient);
+    File broken = folder.newFile("broken.jpg");
+
+    assertTrue(Long.bitCount(BurstFilter.hash(first) ^ BurstFilter.hash(next)) <= 6);
+    assertArrayEquals(new File[] {
+        first, gradient, broken
+    }, BurstFilter.onePerBurst(new File[] {
+        first, next, gradient, broken
+    }, 6));
+
+    // a copy in another folder is no frame of the burst
+    File copy = new File(folder.newFolder("other"), "next.jpg");
+    Files.copy(next.toPath(), copy.toPath());
+    assertArrayEquals(new File[] {
+        first, copy
+    }, BurstFilter.onePerBurst(new File[] {
+        first, copy
+    }, 6));
+  }
+}
@@ -0,0 +1,73 @@
+package org.jis.generator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ByteBufferImageInputStreamTest {
+  private static final String IMAGE_FILE = "/image.jpg";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private byte[] jpeg;
+
+  @Before
+  public void setUp() throws IOException {
+    try (InputStream in = this.getClass().getResourceAsStream(IMAGE_FILE)) {
+      jpeg = in.readAllBytes();
+    }
+  }
+
+  @Test
+  public void testReadAndSeek() throws IOException {
+    try (ImageInputStream iis = new ByteBufferImageInputStream(jpeg)) {
+      assertEquals(jpeg.length, iis.length());
+      assertEquals(0xFFD8, iis.readUnsignedShort());
+
+      byte[] b = new byte[10];
+      iis.seek(jpeg.length - 4);
+      assertEquals(4, iis.read(b, 0, 10));
+      assertEquals(-1, iis.read(b, 0, 10));
+      assertEquals(-1, iis.read());
+
+      iis.seek(2);
+      iis.readFully(b);
+      byte[] expected = new byte[10];
+      System.arraycopy(jpeg, 2, expected, 0, 10);
+      assertArrayEquals(expected, b);
+    }
+  }
+
+  /**
+   * the file read into memory decodes to the same pixels as the usual stream
+   */
+  @Test
+  public void testDecodeFile() throws IOException {
+    File f = folder.newFile("image.jpg");
+    Files.write(f.toPath(), jpeg);
+
+    BufferedImage expected = ImageIO.read(f);
+    // closes the stream
+    BufferedImage image = ImageIO.read(ByteBufferImageInputStream.open(f));
+
+    assertEquals(expected.getWidth(), image.getWidth());
+    assertEquals(expected.getHeight(), image.getHeight());
+    int w = image.getWidth();
+    int h = image.getHeight();
+    assertArrayEquals(expected.getRGB(0, 0, w, h, null, 0, w), image.getRGB(0, 0, w, h, null, 0, w));
+  }
+}
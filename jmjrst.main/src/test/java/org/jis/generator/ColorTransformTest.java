@@ -0,0 +1,118 @@
+package org.jis.generator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_ColorSpace;
+import java.awt.color.ICC_Profile;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ColorTransformTest {
+  private static final String IMAGE_FILE = "/image.jpg";
+
+  private byte[] jpeg;
+
+  @Before
+  public void setUp() throws IOException {
+    try (InputStream in = this.getClass().getResourceAsStream(IMAGE_FILE)) {
+      jpeg = in.readAllBytes();
+    }
+  }
+
+  /**
+   * the image with the profile in an APP2 segment behind SOI
+   */
+  private byte[] embed(byte[] icc) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(jpeg, 0, 2);
+    int len = 2 + 14 + icc.length;
+    out.write(new byte[] {
+        (byte) 0xFF, (byte) 0xE2, (byte) (len >> 8), (byte) len
+    });
+    out.write("ICC_PROFILE\0".getBytes());
+    out.write(1);
+    out.write(1);
+    out.write(icc);
+    out.write(jpeg, 2, jpeg.length - 2);
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testSrgbProfile() {
+    byte[] icc = ICC_Profile.getInstance(ColorSpace.CS_sRGB).getData();
+    ColorTransform transform = ColorTransform.get(icc, false);
+    assertTrue(transform.isIdentity());
+    assertTrue(transform.isRaw());
+    assertSame(transform, ColorTransform.get(icc.clone(), false));
+
+    assertFalse(ColorTransform.get(null, false).isRaw());
+    assertSame(ColorTransform.SRGB_LINEAR, ColorTransform.get(null, true));
+  }
+
+  /**
+   * the same colors as the conversion of Java2D
+   */
+  @Test
+  public void testProfile() {
+    ICC_Profile profile = ICC_Profile.getInstance(ColorSpace.CS_LINEAR_RGB);
+    ColorTransform transform = ColorTransform.get(profile.getData(), false);
+    assertFalse(transform.isIdentity());
+
+    float[] rgb = new float[3];
+    ICC_ColorSpace cs = new ICC_ColorSpace(profile);
+    for (int v : new int[] {
+        0x20, 0x80, 0xE0
+    }) {
+      transform.convert(v << 16 | 0x40 << 8 | 0xFF, rgb);
+      float[] expected = cs.toRGB(new float[] {
+          v / 255f, 0x40 / 255f, 1
+      });
+      for (int c = 0; c < 3; c++)
+        assertEquals(expected[c] * 255, rgb[c], 2);
+    }
+  }
+
+  /**
+   * black and white average to the gray of half the light
+   */
+  @Test
+  public void testLinearLight() {
+    BufferedImage image = new BufferedImage(2, 2, BufferedImage.TYPE_INT_RGB);
+    image.setRGB(0, 0, 0xFFFFFF);
+    image.setRGB(0, 1, 0xFFFFFF);
+
+    assertEquals(0x808080, ParallelResampler.resize(image, 1, 1).getRGB(0, 0) & 0xFFFFFF);
+    assertEquals(0xBCBCBC, ParallelResampler.resize(image, 1, 1, false,
+        ColorTransform.SRGB_LINEAR).getRGB(0, 0) & 0xFFFFFF);
+  }
+
+  /**
+   * the reader does not see the hidden profile and decodes the plain values
+   */
+  @Test
+  public void testHiddenProfile() throws IOException {
+    byte[] icc = ICC_Profile.getInstance(ColorSpace.CS_LINEAR_RGB).getData();
+    ByteBufferImageInputStream iis = new ByteBufferImageInputStream(embed(icc));
+    MetadataSegments metadata = MetadataSegments.read(iis);
+    assertArrayEquals(icc, metadata.getIccProfile());
+    assertTrue(metadata.hideIccProfile(iis));
+
+    BufferedImage expected = ImageIO.read(new ByteBufferImageInputStream(jpeg));
+    BufferedImage image = ImageIO.read(iis);
+    int w = image.getWidth();
+    int h = image.getHeight();
+    assertArrayEquals(expected.getRGB(0, 0, w, h, null, 0, w), image.getRGB(0, 0, w, h, null, 0, w));
+  }
+}
@@ -0,0 +1,56 @@
+package org.jis.generator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ContentHashTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * a mapped file has the hash of its bytes, one changed byte gives another
+   * hash
+   */
+  @Test
+  public void testHash() throws IOException {
+    byte[] data = new byte[100000];
+    new Random(7).nextBytes(data);
+    File file = folder.newFile("a.jpg");
+    Files.write(file.toPath(), data);
+
+    assertEquals(ContentHash.of(data), ContentHash.of(file));
+    data[50000]++;
+    assertFalse(ContentHash.of(data).equals(ContentHash.of(file)));
+    assertFalse(ContentHash.of(new byte[0]).equals(ContentHash.of(new byte[1])));
+  }
+
+  /**
+   * the copy shares the content of the original
+   */
+  @Test
+  public void testLink() throws IOException {
+    File original = folder.newFile("original.jpg");
+    Files.write(original.toPath(), new byte[] {
+        1, 2, 3
+    });
+    File copy = new File(folder.newFolder(), "copy.jpg");
+    Files.write(copy.toPath(), new byte[] {
+        4
+    });
+
+    Pipeline.link(original, copy);
+    assertEquals(ContentHash.of(original), ContentHash.of(copy));
+    Pipeline.link(original, original);
+    assertEquals(3, original.length());
+  }
+}
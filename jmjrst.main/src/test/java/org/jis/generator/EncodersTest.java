@@ -0,0 +1,171 @@
+package org.jis.generator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.jis.options.Options;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EncodersTest {
+  private static final String IMAGE_FILE = "/image.jpg";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private BufferedImage image;
+  private Options o = Options.getInstance();
+  private boolean progressive;
+  private int subsampling;
+  private int restartInterval;
+  private int targetSize;
+
+  @Before
+  public void setUp() throws IOException {
+    try (InputStream in = this.getClass().getResourceAsStream(IMAGE_FILE)) {
+      BufferedImage decoded = ImageIO.read(in);
+      image = new BufferedImage(decoded.getWidth(), decoded.getHeight(),
+          BufferedImage.TYPE_INT_RGB);
+      image.getGraphics().drawImage(decoded, 0, 0, null);
+    }
+    progressive = o.isProgressive();
+    subsampling = o.getSubsampling();
+    restartInterval = o.getRestartInterval();
+    targetSize = o.getTargetSize();
+  }
+
+  @After
+  public void tearDown() {
+    o.setProgressive(progressive);
+    o.setSubsampling(subsampling);
+    o.setRestartInterval(restartInterval);
+    o.setTargetSize(targetSize);
+  }
+
+  private byte[] encode(ImageEncoder encoder) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ImageOutputStream ios = new MemoryCacheImageOutputStream(bytes);
+    encoder.encode(image, null, ios);
+    ios.close();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * @return offset of the first marker segment, -1 if there is none
+   */
+  private static int find(byte[] jpeg, int marker) {
+    int pos = 2;
+    while (pos + 4 <= jpeg.length && (jpeg[pos] & 0xFF) == 0xFF) {
+      if ((jpeg[pos + 1] & 0xFF) == marker) return pos;
+      if ((jpeg[pos + 1] & 0xFF) == 0xDA) return -1;
+      pos += 2 + ((jpeg[pos + 2] & 0xFF) << 8 | jpeg[pos + 3] & 0xFF);
+    }
+    return -1;
+  }
+
+  @Test
+  public void testOutputName() {
+    ImageEncoder jpeg = Encoders.get(Encoders.JPEG);
+    ImageEncoder png = Encoders.get(Encoders.PNG);
+    assertEquals("image.JPEG", Encoders.outputName("image.JPEG", jpeg));
+    assertEquals("image.png", Encoders.outputName("image.jpg", png));
+    assertEquals("image.png", Encoders.outputName("image.jpeg", png));
+    assertEquals("image.dat", Encoders.outputName("image.dat", png));
+    assertEquals(jpeg, Encoders.get("unknown"));
+  }
+
+  @Test
+  public void testJpegTuning() throws IOException {
+    o.setProgressive(true);
+    o.setSubsampling(Options.SUBSAMPLING_444);
+    o.setRestartInterval(4);
+
+    byte[] jpeg = encode(Encoders.get(Encoders.JPEG));
+    int sof = find(jpeg, 0xC2);
+    assertTrue(sof > 0);
+    // sampling factors of the luma
+    assertEquals(0x11, jpeg[sof + 11] & 0xFF);
+    int dri = find(jpeg, 0xDD);
+    assertTrue(dri > 0);
+    assertEquals(4, (jpeg[dri + 4] & 0xFF) << 8 | jpeg[dri + 5] & 0xFF);
+
+    BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(jpeg));
+    assertEquals(image.getWidth(), decoded.getWidth());
+  }
+
+  @Test
+  public void testJpegBaseline() throws IOException {
+    o.setProgressive(false);
+    o.setSubsampling(Options.SUBSAMPLING_420);
+    o.setRestartInterval(0);
+
+    byte[] jpeg = encode(Encoders.get(Encoders.JPEG));
+    int sof = find(jpeg, 0xC0);
+    assertTrue(sof > 0);
+    assertEquals(0x22, jpeg[sof + 11] & 0xFF);
+    assertEquals(-1, find(jpeg, 0xDD));
+  }
+
+  /**
+   * PNG keeps every pixel
+   */
+  @Test
+  public void testPng() throws IOException {
+    BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(encode(Encoders
+        .get(Encoders.PNG))));
+    int w = image.getWidth();
+    int h = image.getHeight();
+    assertArrayEquals(image.getRGB(0, 0, w, h, null, 0, w), decoded.getRGB(0, 0, w, h, null, 0, w));
+  }
+
+  /**
+   * the JPEG fits the target, the quality found is reused for the same image
+   */
+  @Test
+  public void testTargetSize() throws IOException {
+    o.setProgressive(false);
+    o.setSubsampling(Options.SUBSAMPLING_420);
+    o.setRestartInterval(0);
+    o.setTargetSize(0);
+    int full = encode(Encoders.get(Encoders.JPEG)).length;
+
+    o.setTargetSize(12);
+    File file = new File(folder.getRoot(), "quality.cache");
+    byte[] jpeg = encode(new JpegEncoder(new QualityCache(file)));
+    assertTrue(full > 12 * 1024);
+    assertTrue(jpeg.length <= 12 * 1024);
+    assertTrue(jpeg.length > 10 * 1024);
+
+    // a new cache reads the quality from the file
+    QualityCache cache = new QualityCache(file);
+    assertTrue(cache.get(QualityCache.key(image, 12 * 1024 + "_" + o.getQuality() + "_"
+        + Options.SUBSAMPLING_420 + "_false_0")) > 0);
+    assertArrayEquals(jpeg, encode(new JpegEncoder(cache)));
+  }
+
+  /**
+   * the smallest JPEG if none fits
+   */
+  @Test
+  public void testTargetSizeTooSmall() throws IOException {
+    o.setTargetSize(1);
+    byte[] jpeg = encode(new JpegEncoder(new QualityCache(folder.newFile())));
+    assertTrue(jpeg.length > 1024);
+    assertEquals(image.getWidth(), ImageIO.read(new ByteArrayInputStream(jpeg)).getWidth());
+  }
+}
@@ -0,0 +1,137 @@
+package org.jis.generator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExifOrientationTest {
+  private static final String IMAGE_FILE = "/image.jpg";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * the test image (384x390) without orientation tag
+   */
+  private byte[] jpeg;
+
+  @Before
+  public void setUp() throws IOException {
+    try (InputStream in = this.getClass().getResourceAsStream(IMAGE_FILE)) {
+      jpeg = in.readAllBytes();
+    }
+  }
+
+  /**
+   * the test image with an EXIF segment holding only the orientation
+   */
+  private File withOrientation(int orientation) throws IOException {
+    // behind the JFIF segment, which has to come first
+    int app0 = 4 + ((jpeg[4] & 0xFF) << 8 | jpeg[5] & 0xFF);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(jpeg, 0, app0);
+    byte[] app1 = {
+        (byte) 0xFF, (byte) 0xE1, 0, 34, 'E', 'x', 'i', 'f', 0, 0, 'M', 'M', 0, 42, 0, 0, 0, 8, 0,
+        1, 0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0, 0, 0, 0, 0
+    };
+    out.write(app1);
+    out.write(jpeg, app0, jpeg.length - app0);
+
+    File f = folder.newFile();
+    Files.write(f.toPath(), out.toByteArray());
+    return f;
+  }
+
+  @Test
+  public void testRotateOrientation() {
+    assertEquals(6, ExifOrientation.rotate(1, 90));
+    assertEquals(3, ExifOrientation.rotate(1, 180));
+    assertEquals(8, ExifOrientation.rotate(1, -90));
+    assertEquals(1, ExifOrientation.rotate(8, 90));
+    assertEquals(7, ExifOrientation.rotate(2, 90));
+    assertEquals(2, ExifOrientation.rotate(2, 360));
+  }
+
+  /**
+   * only the tag is patched, everything else stays as it is
+   */
+  @Test
+  public void testRotateFile() throws IOException {
+    File f = withOrientation(1);
+    byte[] before = Files.readAllBytes(f.toPath());
+
+    assertTrue(ExifOrientation.rotate(f, 90));
+    assertEquals(6, ExifOrientation.read(f));
+    assertTrue(ExifOrientation.rotate(f, 180));
+    assertEquals(8, ExifOrientation.read(f));
+    assertTrue(ExifOrientation.rotate(f, 90));
+    assertArrayEquals(before, Files.readAllBytes(f.toPath()));
+  }
+
+  /**
+   * a JPEG without orientation tag is not touched
+   */
+  @Test
+  public void testNoOrientation() throws IOException {
+    File f = folder.newFile();
+    Files.write(f.toPath(), jpeg);
+
+    assertEquals(ExifOrientation.NORMAL, ExifOrientation.read(f));
+    assertFalse(ExifOrientation.rotate(f, 90));
+    assertArrayEquals(jpeg, Files.readAllBytes(f.toPath()));
+  }
+
+  /**
+   * the rendition is upright and has no orientation any more
+   */
+  @Test
+  public void testGenerateImageUpright() throws IOException {
+    File f = withOrientation(6);
+    File out = folder.newFolder();
+
+    File fo = new Generator(null, 0.8f).generateImage(f, out, false, 195, 0, "t_");
+    BufferedImage image = ImageIO.read(fo);
+    assertEquals(195, image.getWidth());
+    assertEquals(192, image.getHeight());
+    assertEquals(ExifOrientation.NORMAL, ExifOrientation.read(fo));
+  }
+
+  /**
+   * the tag is found and patched in the metadata of a JPEG read from memory
+   */
+  @Test
+  public void testMetadata() throws IOException {
+    byte[] data = Files.readAllBytes(withOrientation(8).toPath());
+    try (ImageInputStream iis = new MemoryCacheImageInputStream(new ByteArrayInputStream(data))) {
+      ImageReader reader = ImageIO.getImageReaders(iis).next();
+      reader.setInput(iis);
+      IIOMetadata metadata = reader.getImageMetadata(0);
+      reader.dispose();
+
+      assertEquals(8, ExifOrientation.read(metadata));
+      assertTrue(ExifOrientation.write(metadata, ExifOrientation.NORMAL));
+      assertEquals(ExifOrientation.NORMAL, ExifOrientation.read(metadata));
+    }
+    assertEquals(ExifOrientation.NORMAL, ExifOrientation.read((IIOMetadata) null));
+  }
+}
@@ -0,0 +1,88 @@
+package org.jis.generator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ImageDiscoveryTest {
+  private static final String IMAGE_FILE = "/image.jpg";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File root;
+
+  /**
+   * root/a.jpg, root/fake.jpg (no JPEG), root/sub/deeper/b.dat (a JPEG without
+   * extension)
+   */
+  @Before
+  public void setUp() throws IOException {
+    root = folder.newFolder("root");
+    File deeper = new File(root, "sub/deeper");
+    deeper.mkdirs();
+    copyImage(new File(root, "a.jpg"));
+    copyImage(new File(deeper, "b.dat"));
+    Files.writeString(new File(root, "fake.jpg").toPath(), "no image");
+  }
+
+  private void copyImage(File to) throws IOException {
+    try (InputStream in = this.getClass().getResourceAsStream(IMAGE_FILE)) {
+      Files.copy(in, to.toPath());
+    }
+  }
+
+  private Set<String> discover(boolean recursive) {
+    final Set<String> found = Collections.synchronizedSet(new HashSet<String>());
+    new ImageDiscovery().discover(root, recursive, new ImageDiscovery.Listener() {
+      public void found(File image) {
+        found.add(image.getName());
+      }
+    });
+    return found;
+  }
+
+  /**
+   * only the real JPEG of the directory itself is found
+   */
+  @Test
+  public void testDiscoverFlat() {
+    Set<String> found = discover(false);
+    assertEquals(Collections.singleton("a.jpg"), found);
+  }
+
+  /**
+   * the sub directories are walked and images are detected by content
+   */
+  @Test
+  public void testDiscoverRecursive() {
+    Set<String> found = discover(true);
+    assertEquals(new HashSet<String>(java.util.Arrays.asList("a.jpg", "b.dat")), found);
+  }
+
+  /**
+   * a recursive batch keeps the directory structure in the output directory
+   */
+  @Test
+  public void testGenerateTextRecursive() throws IOException {
+    File out = folder.newFolder("out");
+    new Generator(null, 0.8f).generateText(root, out, 100, 100, true);
+
+    assertTrue(new File(out, "t_a.jpg").exists());
+    assertTrue(new File(out, "sub/deeper/t_b.dat").exists());
+    assertFalse(new File(out, "t_fake.jpg").exists());
+  }
+}
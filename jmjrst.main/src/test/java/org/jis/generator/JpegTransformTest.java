@@ -0,0 +1,119 @@
+package org.jis.generator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JpegTransformTest {
+  private static final String IMAGE_FILE = "/image.jpg";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * 384x390, 4:2:0 subsampled, so the last 6 rows are a partial MCU
+   */
+  private byte[] jpeg;
+
+  @Before
+  public void setUp() throws IOException {
+    try (InputStream in = this.getClass().getResourceAsStream(IMAGE_FILE)) {
+      jpeg = in.readAllBytes();
+    }
+  }
+
+  private static BufferedImage decode(byte[] data) throws IOException {
+    return ImageIO.read(new ByteArrayInputStream(data));
+  }
+
+  /**
+   * the width is a multiple of the MCU and may move to the top, the partial
+   * MCU of the height must not move to the left
+   */
+  @Test
+  public void testRotateDimensions() throws IOException {
+    BufferedImage r270 = decode(JpegTransform.rotate(jpeg, 270));
+    assertEquals(390, r270.getWidth());
+    assertEquals(384, r270.getHeight());
+
+    assertNull(JpegTransform.rotate(jpeg, 90));
+    assertNull(JpegTransform.rotate(jpeg, 180));
+  }
+
+  /**
+   * rotating back and forth gives exactly the same file again
+   */
+  @Test
+  public void testRotateBitExact() throws IOException {
+    byte[] r270 = JpegTransform.rotate(jpeg, 270);
+    byte[] back = JpegTransform.rotate(r270, 90);
+    assertEquals(384, decode(back).getWidth());
+    assertEquals(390, decode(back).getHeight());
+    assertArrayEquals(r270, JpegTransform.rotate(back, 270));
+  }
+
+  /**
+   * the rotated image shows the same pixels as the rotated original
+   */
+  @Test
+  public void testRotatePixels() throws IOException {
+    BufferedImage original = decode(jpeg);
+    BufferedImage r270 = decode(JpegTransform.rotate(jpeg, 270));
+
+    long diff = 0;
+    for (int y = 0; y < r270.getHeight(); y++) {
+      for (int x = 0; x < r270.getWidth(); x++) {
+        int a = r270.getRGB(x, y);
+        int b = original.getRGB(383 - y, x);
+        for (int s = 0; s < 24; s += 8)
+          diff += Math.abs(((a >> s) & 0xFF) - ((b >> s) & 0xFF));
+      }
+    }
+    double mean = (double) diff / (r270.getWidth() * r270.getHeight() * 3);
+    assertTrue("mean difference " + mean, mean < 1.0);
+  }
+
+  /**
+   * the APP segments, like EXIF, are kept
+   */
+  @Test
+  public void testKeepsSegments() throws IOException {
+    byte[] r = JpegTransform.rotate(jpeg, 270);
+    assertEquals(0xE0, r[3] & 0xFF);
+    assertTrue(new String(r, "ISO-8859-1").contains("Exif"));
+  }
+
+  /**
+   * the rotated file keeps the permissions of the original
+   */
+  @Test
+  public void testFilePermissions() throws IOException {
+    File file = folder.newFile("image.jpg");
+    Files.write(file.toPath(), jpeg);
+    Assume.assumeTrue(Files.getFileAttributeView(file.toPath(),
+        PosixFileAttributeView.class) != null);
+    Files.setPosixFilePermissions(file.toPath(), PosixFilePermissions.fromString("rw-r--r--"));
+    assertTrue(JpegTransform.rotate(file, 270));
+    assertEquals("rw-r--r--", PosixFilePermissions.toString(Files.getPosixFilePermissions(file
+        .toPath())));
+    assertEquals(384, ImageIO.read(file).getHeight());
+  }
+}
@@ -0,0 +1,117 @@
+package org.jis.generator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetadataSegmentsTest {
+  private static final String IMAGE_FILE = "/image.jpg";
+
+  private byte[] jpeg;
+
+  @Before
+  public void setUp() throws IOException {
+    try (InputStream in = this.getClass().getResourceAsStream(IMAGE_FILE)) {
+      jpeg = in.readAllBytes();
+    }
+  }
+
+  /**
+   * an EXIF segment with orientation 6, a MakerNote of 100 bytes, a pixel
+   * width of 4000 and a thumbnail of 50 bytes in IFD1
+   */
+  private static byte[] exif() {
+    ByteBuffer b = ByteBuffer.allocate(10 + 248);
+    b.put((byte) 0xFF).put((byte) 0xE1).putShort((short) (b.capacity() - 2));
+    b.put("Exif\0\0".getBytes());
+    ByteBuffer t = b.slice();
+    t.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(8);
+    // IFD0
+    t.putShort((short) 2);
+    t.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) 6).putShort((short) 0);
+    t.putShort((short) 0x8769).putShort((short) 4).putInt(1).putInt(38);
+    t.putInt(168);
+    // EXIF IFD
+    t.putShort((short) 2);
+    t.putShort((short) 0x927C).putShort((short) 7).putInt(100).putInt(68);
+    t.putShort((short) 0xA002).putShort((short) 4).putInt(1).putInt(4000);
+    t.putInt(0);
+    t.position(168);
+    // IFD1
+    t.putShort((short) 2);
+    t.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(198);
+    t.putShort((short) 0x0202).putShort((short) 4).putInt(1).putInt(50);
+    t.putInt(0);
+    return b.array();
+  }
+
+  /**
+   * the image with the segment behind SOI
+   */
+  private byte[] insert(byte[] segment) {
+    byte[] image = new byte[jpeg.length + segment.length];
+    System.arraycopy(jpeg, 0, image, 0, 2);
+    System.arraycopy(segment, 0, image, 2, segment.length);
+    System.arraycopy(jpeg, 2, image, 2 + segment.length, jpeg.length - 2);
+    return image;
+  }
+
+  @Test
+  public void testRead() throws IOException {
+    try (ImageInputStream iis = new ByteBufferImageInputStream(insert(exif()))) {
+      MetadataSegments metadata = MetadataSegments.read(iis);
+      assertEquals(0, iis.getStreamPosition());
+      assertEquals(6, metadata.getOrientation());
+      // both EXIF segments, not the JFIF segment
+      assertEquals(exif().length, metadata.filter("exif", "", 1, 1).size()
+          - MetadataSegments.read(new ByteBufferImageInputStream(jpeg)).filter("exif", "", 1, 1)
+              .size());
+      assertEquals(0, metadata.filter("xmp,icc", "", 1, 1).size());
+    }
+  }
+
+  /**
+   * MakerNote and thumbnail are left out, orientation and width are set
+   */
+  @Test
+  public void testStrip() throws IOException {
+    MetadataSegments metadata = MetadataSegments.read(new ByteBufferImageInputStream(exif()));
+    assertEquals(0, metadata.size());
+
+    metadata = MetadataSegments.read(new ByteBufferImageInputStream(insert(exif())));
+    MetadataSegments kept = metadata.filter("exif", "", 100, 50);
+    MetadataSegments stripped = metadata.filter("exif", "makernote, thumbnail", 100, 50);
+    int other = metadata.size() - exif().length;
+    assertEquals(exif().length, kept.size() - other);
+    assertEquals(10 + 56, stripped.size() - other);
+    assertEquals(ExifOrientation.NORMAL, stripped.getOrientation());
+
+    // written behind the JFIF segment of the scaled image
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ImageOutputStream ios = new MemoryCacheImageOutputStream(bytes);
+    stripped.write(jpeg, jpeg.length, ios);
+    ios.close();
+    byte[] image = bytes.toByteArray();
+    assertEquals(0xE0, image[3] & 0xFF);
+    int app1 = 4 + ((image[4] & 0xFF) << 8 | image[5] & 0xFF);
+    assertEquals(0xE1, image[app1 + 1] & 0xFF);
+    // PixelXDimension, the only entry of the EXIF IFD
+    assertEquals(100, ByteBuffer.wrap(image).getInt(app1 + 10 + 48));
+
+    BufferedImage decoded = ImageIO.read(new ByteBufferImageInputStream(image));
+    assertTrue(decoded.getWidth() > 0);
+  }
+}
@@ -0,0 +1,117 @@
+package org.jis.generator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PixelPoolTest {
+  private static final String IMAGE_FILE = "/image.jpg";
+
+  private byte[] jpeg;
+
+  @Before
+  public void setUp() throws IOException {
+    try (InputStream in = this.getClass().getResourceAsStream(IMAGE_FILE)) {
+      jpeg = in.readAllBytes();
+    }
+  }
+
+  /**
+   * an image of the same size class gets the array of the released one
+   */
+  @Test
+  public void testReuse() {
+    PixelPool pool = new PixelPool(1 << 24);
+    BufferedImage a = pool.borrow(300, 200, BufferedImage.TYPE_INT_RGB);
+    assertEquals(300, a.getWidth());
+    assertEquals(200, a.getHeight());
+    assertEquals(BufferedImage.TYPE_INT_RGB, a.getType());
+
+    pool.release(a);
+    assertEquals(320 * 256 * 4, pool.idleBytes());
+    BufferedImage b = pool.borrow(310, 250, BufferedImage.TYPE_INT_RGB);
+    assertEquals(310, b.getWidth());
+    assertSame(a.getRaster().getDataBuffer(), b.getRaster().getDataBuffer());
+    assertEquals(0, pool.idleBytes());
+
+    // another type or size class
+    pool.release(b);
+    assertNotSame(b.getRaster().getDataBuffer(),
+        pool.borrow(310, 250, BufferedImage.TYPE_3BYTE_BGR).getRaster().getDataBuffer());
+    assertNotSame(b.getRaster().getDataBuffer(),
+        pool.borrow(330, 250, BufferedImage.TYPE_INT_RGB).getRaster().getDataBuffer());
+  }
+
+  /**
+   * idle arrays above the budget are left to the garbage collector
+   */
+  @Test
+  public void testBudget() {
+    PixelPool pool = new PixelPool(64 * 64 * 4);
+    BufferedImage a = pool.borrow(64, 64, BufferedImage.TYPE_INT_RGB);
+    BufferedImage b = pool.borrow(64, 64, BufferedImage.TYPE_INT_RGB);
+    pool.release(a);
+    pool.release(b);
+    assertEquals(64 * 64 * 4, pool.idleBytes());
+  }
+
+  /**
+   * decoding into a pooled image gives the same pixels
+   */
+  @Test
+  public void testRead() throws IOException {
+    BufferedImage expected = ImageIO.read(new ByteBufferImageInputStream(jpeg));
+    PixelPool pool = new PixelPool(1 << 24);
+
+    for (int i = 0; i < 2; i++) {
+      try (ImageInputStream iis = new ByteBufferImageInputStream(jpeg)) {
+        ImageReader reader = ImageIO.getImageReaders(iis).next();
+        reader.setInput(iis);
+        BufferedImage image = pool.read(reader);
+        reader.dispose();
+
+        int w = expected.getWidth();
+        int h = expected.getHeight();
+        assertEquals(w, image.getWidth());
+        assertEquals(h, image.getHeight());
+        assertArrayEquals(expected.getRGB(0, 0, w, h, null, 0, w),
+            image.getRGB(0, 0, w, h, null, 0, w));
+        pool.release(image);
+      }
+    }
+  }
+
+  /**
+   * an image which can not be read is reported as IOException, not as the
+   * exception of the decoder
+   */
+  @Test
+  public void testUnreadable() {
+    Generator generator = new Generator(null, 0.8f);
+    byte[][] inputs = new byte[][] {
+        new byte[] {
+            1, 2, 3, 4
+        }, Arrays.copyOf(jpeg, 600)
+    };
+    for (byte[] input : inputs)
+      try {
+        generator.generateImage(new ByteBufferImageInputStream(input), false, 100, 100);
+        fail();
+      } catch (IOException e) {
+      }
+  }
+}
@@ -0,0 +1,50 @@
+package org.jis.generator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProducerTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File image(String name, int width, int height) throws IOException {
+    File f = folder.newFile(name);
+    ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "jpg", f);
+    return f;
+  }
+
+  /**
+   * the largest image is dispatched first, equal images keep their order
+   */
+  @Test
+  public void testOrderByCost() throws Exception {
+    File small = image("small.jpg", 40, 30);
+    File large = image("large.jpg", 400, 300);
+    File medium = image("medium.jpg", 100, 100);
+    File out = folder.newFolder();
+
+    Element[] elements = {
+        new Element(0, small, 10, 10, out), new Element(1, large, 10, 10, out),
+        new Element(2, medium, 10, 10, out), new Element(3, large, 20, 20, out)
+    };
+    Element[] ordered = Producer.orderByCost(elements);
+
+    assertEquals(4, ordered.length);
+    assertSame(elements[1], ordered[0]);
+    assertSame(elements[3], ordered[1]);
+    assertSame(elements[2], ordered[2]);
+    assertSame(elements[0], ordered[3]);
+    assertEquals(400L * 300, Producer.estimateCost(large));
+  }
+}
@@ -0,0 +1,75 @@
+package org.jis.generator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.awt.geom.AffineTransform;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RasterRotationTest {
+
+  /**
+   * odd sizes, so the tiles at the right and bottom edge are partial
+   */
+  private static BufferedImage image(int type) {
+    BufferedImage image = new BufferedImage(131, 77, type);
+    Random r = new Random(42);
+    for (int y = 0; y < image.getHeight(); y++)
+      for (int x = 0; x < image.getWidth(); x++)
+        image.setRGB(x, y, r.nextInt());
+    return image;
+  }
+
+  private static void assertRotated(BufferedImage image, int quadrants) {
+    BufferedImage rotated = RasterRotation.rotate(image, quadrants);
+    assertNotNull(rotated);
+    assertEquals(image.getType(), rotated.getType());
+
+    AffineTransform t = AffineTransform.getQuadrantRotateInstance(quadrants);
+    if (quadrants == 1) t.preConcatenate(AffineTransform.getTranslateInstance(image.getHeight(), 0));
+    if (quadrants == 2) t.preConcatenate(AffineTransform.getTranslateInstance(image.getWidth(), image.getHeight()));
+    if (quadrants == 3) t.preConcatenate(AffineTransform.getTranslateInstance(0, image.getWidth()));
+    BufferedImage expected = new AffineTransformOp(t, AffineTransformOp.TYPE_NEAREST_NEIGHBOR).filter(image, null);
+
+    assertEquals(expected.getWidth(), rotated.getWidth());
+    assertEquals(expected.getHeight(), rotated.getHeight());
+    for (int y = 0; y < rotated.getHeight(); y++)
+      for (int x = 0; x < rotated.getWidth(); x++)
+        assertEquals(expected.getRGB(x, y), rotated.getRGB(x, y));
+  }
+
+  @Test
+  public void testIntRGB() {
+    BufferedImage image = image(BufferedImage.TYPE_INT_RGB);
+    for (int q = 1; q <= 3; q++)
+      assertRotated(image, q);
+  }
+
+  @Test
+  public void test3ByteBGR() {
+    BufferedImage image = image(BufferedImage.TYPE_3BYTE_BGR);
+    for (int q = 1; q <= 3; q++)
+      assertRotated(image, q);
+  }
+
+  @Test
+  public void testByteGray() {
+    BufferedImage image = image(BufferedImage.TYPE_BYTE_GRAY);
+    for (int q = 1; q <= 3; q++)
+      assertRotated(image, q);
+  }
+
+  /**
+   * other layouts and sub images are left to Graphics2D
+   */
+  @Test
+  public void testUnsupported() {
+    assertNull(RasterRotation.rotate(image(BufferedImage.TYPE_INT_ARGB), 1));
+    assertNull(RasterRotation.rotate(image(BufferedImage.TYPE_INT_RGB).getSubimage(1, 1, 10, 10), 1));
+  }
+}
@@ -0,0 +1,179 @@
+package org.jis.generator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import org.jis.options.Options;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RenditionServerTest {
+  private static final String IMAGE_FILE = "/image.jpg";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private RenditionServer server;
+  private File cache;
+
+  @Before
+  public void setUp() throws IOException {
+    File root = folder.newFolder("root");
+    try (InputStream in = this.getClass().getResourceAsStream(IMAGE_FILE)) {
+      Files.copy(in, new File(root, "image.jpg").toPath());
+    }
+    File output = folder.newFolder("output");
+    cache = new File(output, RenditionCache.DIR);
+    server = new RenditionServer(new Generator(null, 0.8f), root, output, 1 << 20, 0);
+    server.start();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop();
+  }
+
+  private HttpURLConnection get(String path) throws IOException {
+    return (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path)
+        .openConnection();
+  }
+
+  private static byte[] read(HttpURLConnection c) throws IOException {
+    try (InputStream in = c.getInputStream()) {
+      return in.readAllBytes();
+    }
+  }
+
+  /**
+   * a rendition is scaled once, afterwards it is validated by its entity tag
+   */
+  @Test
+  public void testRendition() throws IOException {
+    HttpURLConnection c = get("/img/image.jpg?w=100&q=50");
+    assertEquals(200, c.getResponseCode());
+    assertEquals("image/jpeg", c.getContentType());
+    String etag = c.getHeaderField("ETag");
+    assertNotNull(etag);
+    byte[] jpeg = read(c);
+    assertEquals(100, ImageIO.read(new ByteArrayInputStream(jpeg)).getWidth());
+    assertEquals(1, cache.list().length);
+
+    c = get("/img/image.jpg?w=100&q=50");
+    c.setRequestProperty("If-None-Match", etag);
+    assertEquals(304, c.getResponseCode());
+
+    c = get("/img/image.jpg?w=100&q=50");
+    assertArrayEquals(jpeg, read(c));
+    assertEquals(1, cache.list().length);
+  }
+
+  /**
+   * a change of the options gives new renditions
+   */
+  @Test
+  public void testOptionsChange() throws IOException {
+    Options o = Options.getInstance();
+    boolean progressive = o.isProgressive();
+    try {
+      String etag = get("/img/image.jpg?w=100").getHeaderField("ETag");
+      o.setProgressive(!progressive);
+      assertFalse(etag.equals(get("/img/image.jpg?w=100").getHeaderField("ETag")));
+      o.setProgressive(progressive);
+      assertEquals(etag, get("/img/image.jpg?w=100").getHeaderField("ETag"));
+    } finally {
+      o.setProgressive(progressive);
+    }
+  }
+
+  @Test
+  public void testBadRequests() throws IOException {
+    assertEquals(404, get("/img/missing.jpg?w=10").getResponseCode());
+    assertEquals(404, get("/img/../output?w=10").getResponseCode());
+    assertEquals(400, get("/img/image.jpg").getResponseCode());
+    assertEquals(400, get("/img/image.jpg?w=x").getResponseCode());
+    assertEquals(400, get("/img/image.jpg?w=10&q=101").getResponseCode());
+  }
+
+  /**
+   * concurrent requests for the same rendition share one scaling
+   */
+  @Test
+  public void testCoalescing() throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+      for (int i = 0; i < 8; i++)
+        results.add(pool.submit(new Callable<byte[]>() {
+          public byte[] call() throws IOException {
+            return read(get("/img/image.jpg?h=77"));
+          }
+        }));
+      for (Future<byte[]> r : results)
+        assertArrayEquals(results.get(0).get(), r.get());
+    } finally {
+      pool.shutdown();
+    }
+    assertEquals(1, cache.list().length);
+  }
+
+  /**
+   * the least recently used rendition is evicted
+   */
+  @Test
+  public void testEviction() throws IOException {
+    File dir = folder.newFolder();
+    String a = RenditionCache.name("a");
+    String b = RenditionCache.name("b");
+    RenditionCache c = new RenditionCache(dir, 10);
+    c.put(a, new byte[4]);
+    c.put(b, new byte[4]);
+    assertNotNull(c.get(a));
+    c.put(RenditionCache.name("c"), new byte[4]);
+    assertNull(c.get(b));
+    assertNotNull(c.get(a));
+    assertEquals(8, c.size());
+    assertEquals(8, new RenditionCache(dir, 10).size());
+  }
+
+  /**
+   * files which are not renditions are neither counted nor evicted
+   */
+  @Test
+  public void testForeignFiles() throws IOException {
+    File dir = folder.newFolder();
+    File photo = new File(dir, "photo.jpg");
+    File tmp = new File(dir, "edit.tmp");
+    Files.write(photo.toPath(), new byte[16]);
+    Files.write(tmp.toPath(), new byte[16]);
+    RenditionCache c = new RenditionCache(dir, 10);
+    assertEquals(0, c.size());
+    c.put(RenditionCache.name("a"), new byte[8]);
+    c.put(RenditionCache.name("b"), new byte[8]);
+    assertTrue(photo.isFile());
+    assertTrue(tmp.isFile());
+    assertEquals(8, c.size());
+  }
+}
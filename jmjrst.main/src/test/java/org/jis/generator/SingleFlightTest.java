@@ -0,0 +1,140 @@
+package org.jis.generator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SingleFlightTest {
+  private final SingleFlight<String, Object> flights = new SingleFlight<String, Object>();
+  private final ExecutorService pool = Executors.newFixedThreadPool(8);
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  /**
+   * a task is run once for all callers which arrive while it runs
+   */
+  @Test
+  public void testShared() throws Exception {
+    final AtomicInteger runs = new AtomicInteger();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Callable<Object> task = new Callable<Object>() {
+      public Object call() throws InterruptedException {
+        runs.incrementAndGet();
+        started.countDown();
+        release.await();
+        return new Object();
+      }
+    };
+
+    List<Future<Object>> results = new ArrayList<Future<Object>>();
+    results.add(pool.submit(new Callable<Object>() {
+      public Object call() throws IOException {
+        return flights.run("a", task);
+      }
+    }));
+    started.await();
+    for (int i = 0; i < 7; i++)
+      results.add(pool.submit(new Callable<Object>() {
+        public Object call() throws IOException {
+          return flights.run("a", task);
+        }
+      }));
+    // the callers are waiting for the first task
+    while (flights.waiters() < 7)
+      Thread.sleep(5);
+    release.countDown();
+
+    for (Future<Object> r : results)
+      assertSame(results.get(0).get(), r.get());
+    assertEquals(1, runs.get());
+    assertEquals(0, flights.size());
+    assertEquals(0, flights.waiters());
+
+    // a later call runs the task again
+    flights.run("a", task);
+    assertEquals(2, runs.get());
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    try {
+      flights.run("a", new Callable<Object>() {
+        public Object call() throws IOException {
+          throw new IOException("broken");
+        }
+      });
+      fail();
+    } catch (IOException e) {
+      assertEquals("broken", e.getMessage());
+    }
+    assertEquals(0, flights.size());
+
+    try {
+      SingleFlight.get(flights.submit("b", pool, new Callable<Object>() {
+        public Object call() throws IOException {
+          throw new IOException("broken");
+        }
+      }));
+      fail();
+    } catch (IOException e) {
+      assertEquals("broken", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testRejected() throws InterruptedException {
+    pool.shutdown();
+    pool.awaitTermination(1, TimeUnit.SECONDS);
+    try {
+      flights.submit("a", pool, new Callable<Object>() {
+        public Object call() {
+          return null;
+        }
+      });
+      fail();
+    } catch (RejectedExecutionException e) {
+      assertEquals(0, flights.size());
+    }
+  }
+
+  /**
+   * different keys are not shared
+   */
+  @Test
+  public void testKeys() throws IOException {
+    final Executor direct = new Executor() {
+      public void execute(Runnable command) {
+        command.run();
+      }
+    };
+    Callable<Object> task = new Callable<Object>() {
+      public Object call() {
+        return new Object();
+      }
+    };
+    Object a = SingleFlight.get(flights.submit("a", direct, task));
+    Object b = SingleFlight.get(flights.submit("b", direct, task));
+    assertNotSame(a, b);
+  }
+}
@@ -0,0 +1,73 @@
+package org.jis.generator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpriteSheetTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static BufferedImage image(int width, int height, Color color) {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = image.createGraphics();
+    g.setColor(color);
+    g.fillRect(0, 0, width, height);
+    g.dispose();
+    return image;
+  }
+
+  private static void assertColor(Color expected, int rgb) {
+    Color c = new Color(rgb);
+    assertTrue(Math.abs(expected.getRed() - c.getRed()) < 24);
+    assertTrue(Math.abs(expected.getGreen() - c.getGreen()) < 24);
+    assertTrue(Math.abs(expected.getBlue() - c.getBlue()) < 24);
+  }
+
+  /**
+   * the second page of a gallery with 4 images per page, the cells are squares
+   * of the larger size in a grid of 2 columns
+   */
+  @Test
+  public void testSheet() throws IOException {
+    SpriteSheet sprite = new SpriteSheet(folder.getRoot(), 1, 4, 3, 40, 30);
+    assertEquals(0, sprite.x(4));
+    assertEquals(40, sprite.x(5));
+    assertEquals(0, sprite.x(6));
+    assertEquals(40, sprite.y(6));
+
+    sprite.draw(6, image(30, 40, Color.BLUE));
+    assertFalse(sprite.done());
+    sprite.draw(4, image(40, 30, Color.RED));
+    assertFalse(sprite.done());
+    // the third image failed, its cell stays blank
+    assertTrue(sprite.done());
+
+    BufferedImage sheet = ImageIO.read(sprite.file);
+    assertEquals(80, sheet.getWidth());
+    assertEquals(80, sheet.getHeight());
+    assertColor(Color.RED, sheet.getRGB(20, 15));
+    assertColor(Color.WHITE, sheet.getRGB(20, 36));
+    assertColor(Color.WHITE, sheet.getRGB(60, 20));
+    assertColor(Color.BLUE, sheet.getRGB(15, 60));
+
+    String css = new String(Files.readAllBytes(sprite.css.toPath()), "US-ASCII");
+    assertTrue(css.contains("url(sprite1.jpg)"));
+    assertTrue(css.contains("#s4 { background-position: -0px -0px; width: 40px; height: 30px; }"));
+    assertTrue(css.contains("#s6 { background-position: -0px -40px; width: 30px; height: 40px; }"));
+    assertTrue(SpriteSheet.element(6, "t").contains("id=\"s6\""));
+  }
+}
@@ -0,0 +1,153 @@
+package org.jis.generator;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+
+import org.junit.Test;
+
+public class StripResamplerTest {
+  private static final String IMAGE_FILE = "/image.jpg";
+
+  private BufferedImage resize(int width, int height, int bandPixels) throws IOException {
+    return resize(width, height, bandPixels, new AtomicInteger());
+  }
+
+  private BufferedImage resize(int width, int height, int bandPixels, final AtomicInteger reads)
+      throws IOException {
+    try (InputStream in = this.getClass().getResourceAsStream(IMAGE_FILE)) {
+      ImageReader reader = ImageIO.getImageReadersByFormatName("jpg").next();
+      reader.setInput(ImageIO.createImageInputStream(in), true);
+      reader.addIIOReadProgressListener(new IIOReadProgressListener() {
+        public void imageStarted(ImageReader source, int imageIndex) {
+          reads.incrementAndGet();
+        }
+
+        public void sequenceStarted(ImageReader source, int minIndex) {
+        }
+
+        public void sequenceComplete(ImageReader source) {
+        }
+
+        public void imageProgress(ImageReader source, float percentageDone) {
+        }
+
+        public void imageComplete(ImageReader source) {
+        }
+
+        public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+        }
+
+        public void thumbnailProgress(ImageReader source, float percentageDone) {
+        }
+
+        public void thumbnailComplete(ImageReader source) {
+        }
+
+        public void readAborted(ImageReader source) {
+        }
+      });
+      return StripResampler.resize(reader, width, height, bandPixels);
+    }
+  }
+
+  /**
+   * the result does not depend on the band size, bands end within target rows
+   */
+  @Test
+  public void testBandsCarryOver() throws IOException {
+    BufferedImage whole = resize(100, 70, Integer.MAX_VALUE);
+    BufferedImage strips = resize(100, 70, 384 * 7);
+
+    assertEquals(100, strips.getWidth());
+    assertEquals(70, strips.getHeight());
+    for (int y = 0; y < 70; y++)
+      for (int x = 0; x < 100; x++)
+        assertEquals(whole.getRGB(x, y), strips.getRGB(x, y));
+  }
+
+  /**
+   * the strips are area averaged like the image scaled at once
+   */
+  @Test
+  public void testAreaAverage() throws IOException {
+    BufferedImage strips = resize(96, 65, 384 * 10);
+
+    BufferedImage original;
+    try (InputStream in = this.getClass().getResourceAsStream(IMAGE_FILE)) {
+      original = ImageIO.read(in);
+    }
+    BufferedImage expected = new BufferedImage(96, 65, BufferedImage.TYPE_INT_RGB);
+    expected.getGraphics().drawImage(
+        original.getScaledInstance(96, 65, java.awt.Image.SCALE_AREA_AVERAGING), 0, 0, null);
+
+    long diff = 0;
+    for (int y = 0; y < 65; y++) {
+      for (int x = 0; x < 96; x++) {
+        int a = strips.getRGB(x, y);
+        int b = expected.getRGB(x, y);
+        for (int s = 0; s < 24; s += 8)
+          diff = Math.max(diff, Math.abs(((a >> s) & 0xFF) - ((b >> s) & 0xFF)));
+      }
+    }
+    assertEquals(0, diff, 2);
+  }
+
+  /**
+   * an image scaled down a lot is subsampled and decoded once instead of in
+   * bands, the result stays close to the area average
+   */
+  @Test
+  public void testSubsampled() throws IOException {
+    assertEquals(2, StripResampler.subsampling(384, 390, 40, 40));
+    AtomicInteger reads = new AtomicInteger();
+    BufferedImage strips = resize(40, 40, 192 * 195, reads);
+    assertEquals(1, reads.get());
+
+    BufferedImage original;
+    try (InputStream in = this.getClass().getResourceAsStream(IMAGE_FILE)) {
+      original = ImageIO.read(in);
+    }
+    BufferedImage expected = ParallelResampler.resize(original, 40, 40);
+
+    long diff = 0;
+    for (int y = 0; y < 40; y++) {
+      for (int x = 0; x < 40; x++) {
+        int a = strips.getRGB(x, y);
+        int b = expected.getRGB(x, y);
+        for (int s = 0; s < 24; s += 8)
+          diff += Math.abs(((a >> s) & 0xFF) - ((b >> s) & 0xFF));
+      }
+    }
+    assertEquals(0, diff / (40.0 * 40 * 3), 2);
+  }
+
+  /**
+   * the bands of the parallel resampler give the same image as the strips
+   */
+  @Test
+  public void testParallelBands() throws IOException {
+    BufferedImage original;
+    try (InputStream in = this.getClass().getResourceAsStream(IMAGE_FILE)) {
+      original = ImageIO.read(in);
+    }
+    BufferedImage strips = resize(100, 70, 384 * 7);
+    BufferedImage bands = ParallelResampler.resize(original, 100, 70);
+
+    for (int y = 0; y < 70; y++) {
+      for (int x = 0; x < 100; x++) {
+        int a = strips.getRGB(x, y);
+        int b = bands.getRGB(x, y);
+        for (int s = 0; s < 24; s += 8)
+          assertEquals(0, Math.abs(((a >> s) & 0xFF) - ((b >> s) & 0xFF)), 1);
+      }
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package org.jis.generator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WatchDaemonTest {
+  private static final String IMAGE_FILE = "/image.jpg";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private byte[] jpeg() throws IOException {
+    try (InputStream in = this.getClass().getResourceAsStream(IMAGE_FILE)) {
+      return in.readAllBytes();
+    }
+  }
+
+  /**
+   * a JPEG is complete with its EOI marker
+   */
+  @Test
+  public void testComplete() throws IOException {
+    byte[] jpeg = jpeg();
+    File file = folder.newFile();
+    Files.write(file.toPath(), jpeg);
+    assertTrue(WatchDaemon.isComplete(file.toPath()));
+    Files.write(file.toPath(), Arrays.copyOf(jpeg, jpeg.length / 2));
+    assertFalse(WatchDaemon.isComplete(file.toPath()));
+  }
+
+  /**
+   * an image written into a watched sub folder is scaled into the same sub
+   * folder of the output
+   */
+  @Test(timeout = 20000)
+  public void testWatch() throws Exception {
+    File input = folder.newFolder("in");
+    File output = folder.newFolder("out");
+    final WatchDaemon daemon = new WatchDaemon(new Generator(null, 0.8f), new File[] {
+        input
+    }, output, 100, 100, true);
+    Thread t = new Thread() {
+      public void run() {
+        daemon.run();
+      }
+    };
+    t.start();
+    try {
+      // registered after the daemon started
+      File sub = new File(input, "sub");
+      Thread.sleep(200);
+      assertTrue(sub.mkdir());
+      Thread.sleep(200);
+      Files.write(new File(sub, "a.jpg").toPath(), jpeg());
+      Files.write(new File(input, "notes.txt").toPath(), new byte[] {
+          1, 2, 3
+      });
+
+      while (daemon.getProcessed() == 0)
+        Thread.sleep(20);
+    } finally {
+      daemon.stop();
+      t.join();
+      daemon.awaitWorkers();
+    }
+
+    File[] scaled = new File(output, "sub").listFiles();
+    assertEquals(1, scaled.length);
+    assertEquals(100, ImageIO.read(scaled[0]).getHeight());
+    assertEquals(1, daemon.getProcessed());
+    assertEquals(0, daemon.getFailed());
+    assertTrue(daemon.getBytesWritten() > 0);
+  }
+
+  /**
+   * the scaled images must not be written into a watched folder
+   */
+  @Test
+  public void testOverlap() throws IOException {
+    File input = folder.newFolder("in");
+    File[] inputs = new File[] {
+        input
+    };
+    new WatchDaemon(new Generator(null, 0.8f), inputs, new File(input, "out"), 100, 100, false)
+        .stop();
+    try {
+      new WatchDaemon(new Generator(null, 0.8f), inputs, input, 100, 100, false);
+      fail();
+    } catch (IOException e) {
+    }
+    try {
+      new WatchDaemon(new Generator(null, 0.8f), inputs, new File(input, "out"), 100, 100, true);
+      fail();
+    } catch (IOException e) {
+    }
+  }
+
+  /**
+   * a corrupt JPEG is counted as failed
+   */
+  @Test(timeout = 20000)
+  public void testCorrupt() throws Exception {
+    File input = folder.newFolder("in");
+    final WatchDaemon daemon = new WatchDaemon(new Generator(null, 0.8f), new File[] {
+        input
+    }, folder.newFolder("out"), 100, 100, false);
+    Thread t = new Thread() {
+      public void run() {
+        daemon.run();
+      }
+    };
+    t.start();
+    try {
+      Thread.sleep(200);
+      byte[] corrupt = new byte[256];
+      Arrays.fill(corrupt, (byte) 0x55);
+      corrupt[0] = (byte) 0xFF;
+      corrupt[1] = (byte) 0xD8;
+      corrupt[2] = (byte) 0xFF;
+      corrupt[3] = (byte) 0xDB;
+      corrupt[254] = (byte) 0xFF;
+      corrupt[255] = (byte) 0xD9;
+      Files.write(new File(input, "corrupt.jpg").toPath(), corrupt);
+
+      while (daemon.getFailed() == 0)
+        Thread.sleep(20);
+    } finally {
+      daemon.stop();
+      t.join();
+      daemon.awaitWorkers();
+    }
+    assertEquals(0, daemon.getProcessed());
+    assertEquals(0, daemon.getPending());
+  }
+}
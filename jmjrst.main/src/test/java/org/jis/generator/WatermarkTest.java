@@ -0,0 +1,111 @@
+package org.jis.generator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.jis.options.Options;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WatermarkTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Options o = Options.getInstance();
+  private String  text;
+  private String  logo;
+  private int     position;
+  private int     opacity;
+
+  @Before
+  public void setUp() {
+    text = o.getCopyrightText();
+    logo = o.getWatermarkLogo();
+    position = o.getWatermarkPosition();
+    opacity = o.getWatermarkOpacity();
+  }
+
+  @After
+  public void tearDown() {
+    o.setCopyrightText(text);
+    o.setWatermarkLogo(logo);
+    o.setWatermarkPosition(position);
+    o.setWatermarkOpacity(opacity);
+  }
+
+  /**
+   * the text is rendered once per size
+   */
+  @Test
+  public void testTextSprite() {
+    Watermark watermark = new Watermark();
+    o.setWatermarkLogo("");
+    o.setCopyrightText("(c) iMage");
+    BufferedImage sprite = watermark.sprite(800, o);
+    assertSame(sprite, watermark.sprite(800, o));
+    assertTrue(sprite != watermark.sprite(400, o));
+
+    o.setCopyrightText("");
+    assertNull(watermark.sprite(800, o));
+  }
+
+  /**
+   * a half transparent pixel is mixed, a transparent one is left alone
+   */
+  @Test
+  public void testBlend() {
+    BufferedImage image = new PixelPool(1 << 20).borrow(10, 10, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < 10; y++)
+      for (int x = 0; x < 10; x++)
+        image.setRGB(x, y, 0x000000);
+    BufferedImage sprite = new BufferedImage(4, 4, BufferedImage.TYPE_INT_ARGB);
+    sprite.setRGB(0, 0, 0xFFFF0000);
+    sprite.setRGB(1, 0, 0x80FFFFFF);
+
+    // partly outside of the image
+    Watermark.blend(image, sprite, 8, -3);
+    assertEquals(0x000000, image.getRGB(8, 0) & 0xFFFFFF);
+
+    Watermark.blend(image, sprite, 2, 3);
+    assertEquals(0xFF0000, image.getRGB(2, 3) & 0xFFFFFF);
+    assertEquals(0x808080, image.getRGB(3, 3) & 0xFFFFFF);
+    assertEquals(0x000000, image.getRGB(4, 3) & 0xFFFFFF);
+    assertEquals(0x000000, image.getRGB(2, 4) & 0xFFFFFF);
+  }
+
+  /**
+   * the logo is scaled to a fifth of the width and faded
+   */
+  @Test
+  public void testLogo() throws IOException {
+    BufferedImage png = new BufferedImage(20, 10, BufferedImage.TYPE_INT_ARGB);
+    for (int y = 0; y < 10; y++)
+      for (int x = 0; x < 20; x++)
+        png.setRGB(x, y, 0xFF0000FF);
+    File file = folder.newFile("logo.png");
+    ImageIO.write(png, "png", file);
+
+    o.setWatermarkLogo(file.getPath());
+    o.setWatermarkPosition(Options.WATERMARK_TOP_RIGHT);
+    o.setWatermarkOpacity(50);
+    BufferedImage image = new BufferedImage(500, 300, BufferedImage.TYPE_INT_RGB);
+    new Watermark().apply(image);
+
+    // margin of 10, logo of 100 x 50
+    assertEquals(0x000080, image.getRGB(450, 30) & 0xFFFFFF);
+    assertEquals(0x000000, image.getRGB(385, 30) & 0xFFFFFF);
+    assertEquals(0x000000, image.getRGB(450, 65) & 0xFFFFFF);
+  }
+}
@@ -0,0 +1,111 @@
+package org.jis.generator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WidthLadderTest {
+  private static final String IMAGE_FILE = "/image.jpg";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * every width of the ladder from one decode, the height in the aspect ratio
+   * of the image
+   */
+  @Test
+  public void testLadder() throws IOException {
+    byte[][] encoded;
+    try (InputStream in = this.getClass().getResourceAsStream(IMAGE_FILE);
+        ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+      encoded = new Generator(null, 0.8f).generateLadder(iis, new int[] {
+          320, 160, 80
+      });
+    }
+    assertNotNull(encoded);
+    assertEquals(3, encoded.length);
+
+    int[] widths = {
+        320, 160, 80
+    };
+    for (int i = 0; i < widths.length; i++) {
+      BufferedImage image = ImageIO.read(new ByteArrayInputStream(encoded[i]));
+      assertEquals(widths[i], image.getWidth());
+      assertEquals(390 * widths[i] / 384, image.getHeight(), 1);
+    }
+  }
+
+  /**
+   * the fixed sizes come from the same decode, after the widths, and the
+   * largest of all is scaled first
+   */
+  @Test
+  public void testSizes() throws IOException {
+    byte[][] encoded;
+    try (InputStream in = this.getClass().getResourceAsStream(IMAGE_FILE);
+        ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+      encoded = new Generator(null, 0.8f).generateLadder(iis, new int[] {
+          320, 160
+      }, new int[][] {
+          {
+              100, 100
+          }, {
+              500, 500
+          }
+      });
+    }
+    assertNotNull(encoded);
+    assertEquals(4, encoded.length);
+
+    // the portrait image fits into the sizes by its height
+    int[] widths = {
+        320, 160, 384 * 100 / 390, 384 * 500 / 390
+    };
+    for (int i = 0; i < widths.length; i++) {
+      BufferedImage image = ImageIO.read(new ByteArrayInputStream(encoded[i]));
+      assertEquals(widths[i], image.getWidth());
+      assertEquals(390 * widths[i] / 384, image.getHeight(), 1);
+    }
+  }
+
+  /**
+   * widths larger than the image are not scaled up
+   */
+  @Test
+  public void testFit() throws IOException {
+    File file = folder.newFile("image.jpg");
+    try (InputStream in = this.getClass().getResourceAsStream(IMAGE_FILE)) {
+      Files.write(file.toPath(), in.readAllBytes());
+    }
+    int width = LayoutGalerie.uprightWidth(file);
+    assertEquals(384, width);
+    int[] ladder = {
+        2400, 1200, 384, 200
+    };
+    assertArrayEquals(new int[] {
+        384, 200
+    }, LayoutGalerie.fit(ladder, width));
+    assertEquals(0, LayoutGalerie.fit(ladder, 100).length);
+    assertEquals(Integer.MAX_VALUE, LayoutGalerie.uprightWidth(folder.newFile()));
+    assertArrayEquals(new int[] {
+        384, Integer.MAX_VALUE
+    }, LayoutGalerie.uprightWidths(new File[] {
+        file, folder.newFile()
+    }));
+  }
+}